@@ -46,6 +46,7 @@ public class ApplicationState {
     private final ScheduledExecutorService executor;
     private TuxCalculator calculator;
     private TuxFrontend frontend;
+    private boolean loading;
     
     private String termInput;
     @Nullable private String lastTerm;
@@ -67,10 +68,15 @@ public class ApplicationState {
             return;
         }
         
+        // Input is accepted while the calculator loads. Submitted terms queue up on the executor behind the loading task.
+        this.initInput(activity);
         if (calculator != null) {
             this.initLogic(activity);
+        } else if (loading) {
+            activity.startLoad();
         } else {
             activity.startLoad();
+            this.loading = true;
             this.executor.execute(() -> runProtected(activity, () -> {
                 TuxCalculator.Builder builder;
                 this.frontend = new Frontend();
@@ -96,8 +102,13 @@ public class ApplicationState {
                 } else {
                     this.calculator = builder.build();
                     ContextCompat.getMainExecutor(activity).execute(() -> {
-                        activity.endLoad();
-                        this.initLogic(activity);
+                        this.loading = false;
+                        // The activity may have been recreated while loading.
+                        MainActivity current = this.getActivity();
+                        if (current != null) {
+                            current.endLoad();
+                            this.initLogic(current);
+                        }
                     });
                 }
                 return null;
@@ -105,8 +116,7 @@ public class ApplicationState {
         }
     }
     
-    private void initLogic(MainActivity activity) {
-        if (this.calculator == null || this.frontend == null) throw new IllegalStateException("logic without calculator");
+    private void initInput(MainActivity activity) {
         runProtected(activity, () -> {
             for (TextEntry entry : this.text) {
                 activity.addTextView(entry);
@@ -117,13 +127,23 @@ public class ApplicationState {
             
             AutoCompleteTextView input = activity.findViewById(R.id.term_input);
             input.setText(this.termInput);
-            input.setAdapter(new TabCompletionAdapter(activity, calculator, input));
             input.setOnEditorActionListener((v, actionId, event) -> {
                 if (event == null || (event.getAction() == KeyEvent.ACTION_DOWN)) {
                     this.calcTerm(activity);
                 }
                 return true;
             });
+            
+            return null;
+        });
+    }
+    
+    // Tab completion and highlighting need the calculator.
+    private void initLogic(MainActivity activity) {
+        if (this.calculator == null || this.frontend == null) throw new IllegalStateException("logic without calculator");
+        runProtected(activity, () -> {
+            AutoCompleteTextView input = activity.findViewById(R.id.term_input);
+            input.setAdapter(new TabCompletionAdapter(activity, calculator, input));
             input.addTextChangedListener(HighlightHelper.createHighlighter(activity, this.calculator));
             
             return null;
@@ -165,6 +185,8 @@ public class ApplicationState {
 
         String effectiveFinalTerm = term;
         this.executor.execute(() -> {
+            // Loading the calculator failed, the error state is shown instead.
+            if (this.calculator == null) return;
             try {
                 List<Highlight> inputHighlights = HighlightHelper.computeHighlights(this.calculator, effectiveFinalTerm);
                 TuxCalculator.Result result = this.calculator.parse(effectiveFinalTerm);
@@ -15,7 +15,9 @@ import tuxcalculator.api.TuxCalculator;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 public class HighlightHelper {
 
@@ -41,13 +43,18 @@ public class HighlightHelper {
 
     public static void highlight(Context context, Spannable spannable, int offset, List<Highlight> highlights) {
         for (Highlight highlight : highlights) {
-            List<CharacterStyle> styles = styles(context, highlight.type);
-            for (CharacterStyle style : styles) {
-                int start = clamp(spannable, offset + highlight.start);
-                int end = clamp(spannable, offset + highlight.end);
-                spannable.setSpan(style, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
-            }
+            highlight(context, spannable, offset, highlight);
+        }
+    }
+    
+    private static List<CharacterStyle> highlight(Context context, Spannable spannable, int offset, Highlight highlight) {
+        List<CharacterStyle> styles = styles(context, highlight.type);
+        for (CharacterStyle style : styles) {
+            int start = clamp(spannable, offset + highlight.start);
+            int end = clamp(spannable, offset + highlight.end);
+            spannable.setSpan(style, start, end, Spanned.SPAN_EXCLUSIVE_EXCLUSIVE);
         }
+        return styles;
     }
     
     private static int clamp(Spannable spannable, int idx) {
@@ -72,9 +79,17 @@ public class HighlightHelper {
         };
     }
 
+    // Only re-applies the spans of highlights that changed. Spans move with the text around them, so the
+    // highlights before and after the edited region that are unchanged (after shifting) keep their spans.
     public static TextWatcher createHighlighter(Context context, TuxCalculator calculator) {
         return new TextWatcher() {
             
+            private List<Highlight> highlights = List.of();
+            private List<List<CharacterStyle>> spans = List.of();
+            private int editStart = -1;
+            private int editBefore = 0;
+            private int editCount = 0;
+            
             @Override
             public void beforeTextChanged(CharSequence text, int start, int count, int after) {
                 //
@@ -82,15 +97,63 @@ public class HighlightHelper {
 
             @Override
             public void onTextChanged(CharSequence text, int start, int before, int count) {
-                //
+                this.editStart = start;
+                this.editBefore = before;
+                this.editCount = count;
             }
 
             @Override
             public void afterTextChanged(Editable editable) {
-                List<Highlight> highlights = computeHighlights(calculator, editable.toString());
-                unhighlight(editable);
-                highlight(context, editable, 0, highlights);
+                List<Highlight> newHighlights = computeHighlights(calculator, editable.toString());
+                if (this.editStart < 0) {
+                    unhighlight(editable);
+                    this.highlights = List.of();
+                    this.spans = List.of();
+                    this.editStart = 0;
+                    this.editCount = editable.length();
+                }
+                int delta = this.editCount - this.editBefore;
+                
+                int front = 0;
+                while (front < this.highlights.size() && front < newHighlights.size()
+                        && this.highlights.get(front).end <= this.editStart
+                        && same(this.highlights.get(front), newHighlights.get(front), 0)) front += 1;
+                int back = 0;
+                while (back < this.highlights.size() - front && back < newHighlights.size() - front
+                        && this.highlights.get(this.highlights.size() - back - 1).start >= this.editStart + this.editBefore
+                        && same(this.highlights.get(this.highlights.size() - back - 1), newHighlights.get(newHighlights.size() - back - 1), delta)) back += 1;
+                
+                Set<CharacterStyle> kept = Collections.newSetFromMap(new IdentityHashMap<>());
+                for (int i = 0; i < this.spans.size(); i++) {
+                    if (i < front || i >= this.spans.size() - back) {
+                        kept.addAll(this.spans.get(i));
+                    } else {
+                        for (CharacterStyle span : this.spans.get(i)) editable.removeSpan(span);
+                    }
+                }
+                // Pasted text may bring its own styles.
+                int insertedEnd = Math.min(this.editStart + this.editCount, editable.length());
+                for (Class<? extends CharacterStyle> spanClass : List.of(ForegroundColorSpan.class, StyleSpan.class)) {
+                    for (CharacterStyle span : editable.getSpans(this.editStart, insertedEnd, spanClass)) {
+                        if (!kept.contains(span)) editable.removeSpan(span);
+                    }
+                }
+                
+                List<List<CharacterStyle>> newSpans = new ArrayList<>(newHighlights.size());
+                newSpans.addAll(this.spans.subList(0, front));
+                for (Highlight highlight : newHighlights.subList(front, newHighlights.size() - back)) {
+                    newSpans.add(highlight(context, editable, 0, highlight));
+                }
+                newSpans.addAll(this.spans.subList(this.spans.size() - back, this.spans.size()));
+                
+                this.highlights = newHighlights;
+                this.spans = newSpans;
+                this.editStart = -1;
             }
         };
     }
+    
+    private static boolean same(Highlight previous, Highlight current, int shift) {
+        return previous.type == current.type && previous.start + shift == current.start && previous.end + shift == current.end;
+    }
 }
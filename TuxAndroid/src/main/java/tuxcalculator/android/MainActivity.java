@@ -59,16 +59,13 @@ public class MainActivity extends AppCompatActivity {
         }
     }
 
+    // Input stays enabled while loading, terms submitted in the meantime are evaluated once the calculator is ready.
     public void startLoad() {
         this.findViewById(R.id.load_spinner).setVisibility(View.VISIBLE);
-        this.findViewById(R.id.term_input).setEnabled(false);
-        this.findViewById(R.id.submit).setEnabled(false);
     }
 
     public void endLoad() {
         this.findViewById(R.id.load_spinner).setVisibility(View.GONE);
-        this.findViewById(R.id.term_input).setEnabled(true);
-        this.findViewById(R.id.submit).setEnabled(true);
     }
     
     public void showErrorPopup(String err) {
@@ -0,0 +1,45 @@
+package tuxcalculator.benchmarks
+
+import tuxcalculator.api.TuxFrontend
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.format.FormatIO
+import tuxcalculator.core.util.Result
+import tuxcalculator.core.value.MathValue
+
+import java.io.{ByteArrayInputStream, DataInputStream, OutputStream}
+
+object Calculators {
+  
+  lazy val plainFormat: Array[Byte] = {
+    val in = classOf[Calculator].getResourceAsStream("/tuxcalculator/plain.tuxf")
+    if (in == null) throw new IllegalStateException("plain format file not found.")
+    try in.readAllBytes() finally in.close()
+  }
+  
+  // plain.tuxf makes # and § invalid at its end, which leaves users without specials and string interpolation.
+  // Benchmark lines use both, so they are enabled again.
+  def plain(): Calculator = {
+    val calc = FormatIO.load(BenchmarkFrontend, new DataInputStream(new ByteArrayInputStream(plainFormat)))
+    run(calc, "cat \"#\" = special")
+    run(calc, "cat \"§\" = interpolate")
+    calc
+  }
+  
+  // Runs a line of setup code, setup code is expected to succeed.
+  def run(calc: Calculator, line: String): MathValue = calc.parse(line) match {
+    case Result.Value(value) => value
+    case Result.Error(msg, trace) => throw new IllegalStateException("Benchmark setup failed: " + line + ": " + msg + trace.map("\n  " + _).mkString)
+  }
+  
+  // Operator chains like 1 + 2 * 3 - 4 / 5 + ..., mixing operators of different priority.
+  def operatorChain(terms: Int): String = {
+    val operators = Vector("+", "*", "-", "/", "^")
+    (1 until terms).map(idx => " " + operators(idx % operators.size) + " " + (idx % 7 + 1)).mkString("1", "", "")
+  }
+  
+  object BenchmarkFrontend extends TuxFrontend {
+    override def showError(err: String): Unit = throw new IllegalStateException(err)
+    override def openFile(fileName: String): OutputStream = throw new UnsupportedOperationException("Benchmarks can't write files.")
+    override def exit(): Unit = ()
+  }
+}
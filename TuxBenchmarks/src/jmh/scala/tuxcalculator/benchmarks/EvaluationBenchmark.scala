@@ -0,0 +1,94 @@
+package tuxcalculator.benchmarks
+
+import org.openjdk.jmh.annotations._
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.util.Result
+import tuxcalculator.core.value.MathValue
+
+import java.util.concurrent.TimeUnit
+
+// Evaluates functions from plain.tuxc, including lexing, parsing and binding of the line.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class EvaluationBenchmark {
+
+  @Param(Array("prime(100003)", "med(data...)", "det(mat)", "mat^(-1)", "#sort(data, @<)", "gamma(7.5, 2)", "sin(data(500))"))
+  var line: String = _
+
+  var calc: Calculator = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    Calculators.run(calc, "let data = #fill(1001, \\i -> #mod(i * 7919, 1001))")
+    Calculators.run(calc, "let mat = #fill(8, 8, \\r,c -> #mod(r * 7 + c * 3, 11) + #if(#eq(r, c), 50, 0))")
+  }
+
+  @Benchmark
+  def evaluate(): Result[MathValue] = calc.parse(line)
+}
+
+// fib, bell and chebyshev are memoized in plain.tuxc, so each measurement needs a new calculator.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.SingleShotTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10)
+@Measurement(iterations = 50)
+class MemoizedEvaluationBenchmark {
+
+  @Param(Array("fib(500)", "bell(60)", "chebyshev(30)"))
+  var line: String = _
+
+  var calc: Calculator = _
+
+  @Setup(Level.Invocation)
+  def setup(): Unit = calc = Calculators.plain()
+
+  @Benchmark
+  def evaluate(): Result[MathValue] = calc.parse(line)
+}
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class PrecisionBenchmark {
+
+  @Param(Array("16", "100", "1000"))
+  var precision: Int = _
+
+  @Param(Array("sqrt(2)", "root(7, 3)", "ln(3)", "#sin(1)"))
+  var line: String = _
+
+  var calc: Calculator = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    Calculators.run(calc, "set precision = " + precision)
+  }
+
+  @Benchmark
+  def evaluate(): Result[MathValue] = calc.parse(line)
+}
+
+// Lines that produce errors with large values in them. The error is only returned, never shown.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class ErrorBenchmark {
+
+  @Param(Array("big(big)", "[big, 1 / 0]", "#map(big, \\x -> x / 0)", "\\[(x:#isl)->x(0)](#[1;2])"))
+  var line: String = _
+
+  var calc: Calculator = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    Calculators.run(calc, "let big = #fill(10000, \\i -> i / 7)")
+  }
+
+  @Benchmark
+  def evaluate(): Result[MathValue] = calc.parse(line)
+}
@@ -0,0 +1,75 @@
+package tuxcalculator.benchmarks
+
+import org.openjdk.jmh.annotations._
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.format.FormatIO
+import tuxcalculator.core.value.MathValue
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream}
+import java.util.concurrent.TimeUnit
+
+// Output formatting of large values, with and without truncation.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class FormatBenchmark {
+
+  @Param(Array("0", "200"))
+  var truncate: Int = _
+
+  var calc: Calculator = _
+  var list: MathValue = _
+  var matrix: MathValue = _
+  var polynomial: MathValue = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    list = Calculators.run(calc, "#fill(100000, \\i -> i / 7)")
+    matrix = Calculators.run(calc, "#fill(200, 200, \\r,c -> r / c)")
+    polynomial = Calculators.run(calc, "chebyshev(40)")
+    Calculators.run(calc, "set truncate = " + truncate)
+  }
+
+  @Benchmark
+  def formatList(): String = calc.format(list)
+
+  @Benchmark
+  def formatMatrix(): String = calc.format(matrix)
+
+  @Benchmark
+  def formatPolynomial(): String = calc.format(polynomial)
+}
+
+// Loading and dumping the plain format and a large user format with many definitions on top of it.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class FormatIOBenchmark {
+
+  @Param(Array("0", "10000"))
+  var definitions: Int = _
+
+  var calc: Calculator = _
+  var format: Array[Byte] = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    for (idx <- 0 until definitions) {
+      Calculators.run(calc, "def fn" + idx + "(x) = x * " + idx + ".5 + fn" + (idx / 2) + "(x - 1)")
+      Calculators.run(calc, "let value" + idx + " = [" + idx + ", " + idx + "e-3, \\y -> y + " + idx + "]")
+    }
+    format = dump()
+  }
+
+  @Benchmark
+  def load(): Calculator = FormatIO.load(Calculators.BenchmarkFrontend, new DataInputStream(new ByteArrayInputStream(format)))
+
+  @Benchmark
+  def dump(): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream(Calculators.plainFormat.length)
+    FormatIO.dump(calc, new DataOutputStream(bytes))
+    bytes.toByteArray
+  }
+}
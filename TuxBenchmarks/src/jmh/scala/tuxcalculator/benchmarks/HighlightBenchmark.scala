@@ -0,0 +1,37 @@
+package tuxcalculator.benchmarks
+
+import org.openjdk.jmh.annotations._
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.util.InputHighlighter
+
+import java.util.concurrent.TimeUnit
+
+// Highlighting a long input line, as pasted into the input field, from scratch and after typing at its end.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class HighlightBenchmark {
+
+  @Param(Array("100", "10000"))
+  var terms: Int = _
+
+  var calc: Calculator = _
+  var line: String = _
+  var edited: String = _
+  var highlighted: InputHighlighter.Highlighted = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    Calculators.run(calc, "def fn(x) = x + 1")
+    line = (0 until terms).map(idx => "fn(" + idx + ".5) * [1, 2] ^ #map(l, @fn)").mkString(" + ")
+    edited = line + " + fn"
+    highlighted = InputHighlighter.highlight(calc, line, null)
+  }
+
+  @Benchmark
+  def full(): InputHighlighter.Highlighted = InputHighlighter.highlight(calc, edited, null)
+
+  @Benchmark
+  def incremental(): InputHighlighter.Highlighted = InputHighlighter.highlight(calc, edited, highlighted)
+}
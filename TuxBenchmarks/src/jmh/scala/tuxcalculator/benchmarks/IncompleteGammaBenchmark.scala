@@ -0,0 +1,38 @@
+package tuxcalculator.benchmarks
+
+import ch.obermuhlner.math.big.BigComplex
+import org.openjdk.jmh.annotations._
+import tuxcalculator.core.math.IncompleteGamma
+
+import java.math.{MathContext, RoundingMode, BigDecimal => BigDec}
+import java.util.concurrent.TimeUnit
+
+// Gamma(p,x) directly, without the calculator around it. Small x uses the series, large x the continued fraction.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class IncompleteGammaBenchmark {
+
+  @Param(Array("0.5", "7.5", "40"))
+  var p: String = _
+
+  @Param(Array("0.5", "5", "30", "120"))
+  var x: String = _
+
+  @Param(Array("16", "100", "500"))
+  var precision: Int = _
+
+  var pValue: BigComplex = _
+  var xValue: BigComplex = _
+  var mc: MathContext = _
+
+  @Setup
+  def setup(): Unit = {
+    pValue = BigComplex.valueOf(new BigDec(p))
+    xValue = BigComplex.valueOf(new BigDec(x))
+    mc = new MathContext(precision, RoundingMode.HALF_EVEN)
+  }
+
+  @Benchmark
+  def gamma(): BigComplex = IncompleteGamma.gamma(pValue, xValue, mc)
+}
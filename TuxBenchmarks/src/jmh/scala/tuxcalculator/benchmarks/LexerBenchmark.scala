@@ -0,0 +1,34 @@
+package tuxcalculator.benchmarks
+
+import org.openjdk.jmh.annotations._
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.lexer.TokenStream
+import tuxcalculator.core.util.Result
+
+import java.util.concurrent.TimeUnit
+
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class LexerBenchmark {
+  
+  @Param(Array("100", "10000"))
+  var terms: Int = _
+  
+  var calc: Calculator = _
+  var line: String = _
+  var nestedLine: String = _
+  
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    line = Calculators.operatorChain(terms)
+    nestedLine = (1 to terms).map(idx => "[" + idx + ", sin(" + idx + ".5e-3), \"err §x\"]").mkString("#[", " ; ", "]")
+  }
+  
+  @Benchmark
+  def tokenizeOperators(): Result[TokenStream] = calc.lexer.tokenize(line)
+  
+  @Benchmark
+  def tokenizeNested(): Result[TokenStream] = calc.lexer.tokenize(nestedLine)
+}
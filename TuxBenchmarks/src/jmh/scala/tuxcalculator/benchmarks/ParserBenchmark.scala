@@ -0,0 +1,57 @@
+package tuxcalculator.benchmarks
+
+import org.openjdk.jmh.annotations._
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.expression.{Ast, BoundExpression}
+import tuxcalculator.core.lexer.TokenStream
+import tuxcalculator.core.parser.Parser
+import tuxcalculator.core.resolution.BindLogic
+import tuxcalculator.core.util.Result
+
+import java.util.concurrent.TimeUnit
+
+// Compares the descent parser with the combinator parser on the same token streams.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class ParserBenchmark {
+  
+  @Param(Array("100", "10000"))
+  var terms: Int = _
+  
+  @Param(Array("false", "true"))
+  var legacy: Boolean = _
+  
+  var calc: Calculator = _
+  var parser: Parser = _
+  var operators: TokenStream = _
+  var functions: TokenStream = _
+  var expression: Ast.Expression = _
+  
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    parser = new Parser(calc, legacy)
+    operators = tokenize(Calculators.operatorChain(terms))
+    functions = tokenize((1 to terms).map(idx => "(\\x,y -> [x, sin(y), #[x;y]])(" + idx + ", _)").mkString(" + "))
+    expression = parser.expression(operators) match {
+      case Result.Value(expr) => expr
+      case Result.Error(msg, _) => throw new IllegalStateException(msg)
+    }
+  }
+  
+  private def tokenize(line: String): TokenStream = calc.lexer.tokenize(line) match {
+    case Result.Value(tokens) => tokens
+    case Result.Error(msg, _) => throw new IllegalStateException(msg)
+  }
+  
+  @Benchmark
+  def parseOperators(): Result[Ast.Expression] = parser.expression(operators)
+  
+  @Benchmark
+  def parseFunctions(): Result[Ast.Expression] = parser.expression(functions)
+  
+  // Binding resolves operator priorities in the long chain.
+  @Benchmark
+  def bindOperators(): BoundExpression = BindLogic.bind(expression, calc)
+}
@@ -0,0 +1,55 @@
+package tuxcalculator.benchmarks
+
+import org.openjdk.jmh.annotations._
+import tuxcalculator.api.{TuxCalculator, TuxCalculatorAPI}
+
+import java.io.StringReader
+import java.util.concurrent.TimeUnit
+
+// Batch evaluation, the score is in lines per second. loop is what the text frontend did before evaluateStream.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.Throughput))
+@OutputTimeUnit(TimeUnit.SECONDS)
+@OperationsPerInvocation(StreamBenchmark.Lines)
+class StreamBenchmark {
+
+  // Every 10th line is a command, which stops lines after it from being prepared ahead.
+  @Param(Array("0", "10"))
+  var commandEvery: Int = _
+
+  var calc: TuxCalculator = _
+  var lines: Vector[String] = _
+  var input: String = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = TuxCalculatorAPI.get().createBy(Calculators.BenchmarkFrontend, Calculators.plainFormat).build()
+    calc.parse("let x = 7")
+    lines = (0 until StreamBenchmark.Lines).map(idx => {
+      if (commandEvery > 0 && idx % commandEvery == 0) "let x = " + (idx % 13)
+      else "x * " + idx + " + sqrt(" + idx + ") - [" + idx + ", " + (idx % 7) + "]"
+    }).toVector
+    input = lines.mkString("\n")
+  }
+
+  @Benchmark
+  def loop(): StringBuilder = {
+    val out = new StringBuilder
+    for (line <- lines) calc.parse(line) match {
+      case _: TuxCalculator.Void =>
+      case result => out.append(result.toString).append('\n')
+    }
+    out
+  }
+
+  @Benchmark
+  def stream(): StringBuilder = {
+    val out = new StringBuilder
+    calc.evaluateStream(new StringReader(input), out.underlying)
+    out
+  }
+}
+
+object StreamBenchmark {
+  final val Lines = 10000
+}
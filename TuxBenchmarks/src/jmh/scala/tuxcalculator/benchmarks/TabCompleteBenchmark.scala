@@ -0,0 +1,37 @@
+package tuxcalculator.benchmarks
+
+import org.openjdk.jmh.annotations._
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.util.TabCompleter
+
+import java.util.concurrent.TimeUnit
+
+// Tab completion in a namespace with many global names, as loaded by large rc-files.
+@State(Scope.Benchmark)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class TabCompleteBenchmark {
+
+  @Param(Array("100", "10000"))
+  var names: Int = _
+
+  var calc: Calculator = _
+
+  @Setup
+  def setup(): Unit = {
+    calc = Calculators.plain()
+    for (idx <- 0 until names) {
+      Calculators.run(calc, "def fn" + idx + "(x) = x + " + idx)
+      Calculators.run(calc, "let value" + idx + " = " + idx)
+    }
+  }
+
+  @Benchmark
+  def identifier(): TabCompleter.Result = TabCompleter.tabComplete(calc, "3 + fn12")
+
+  @Benchmark
+  def identifierEmpty(): TabCompleter.Result = TabCompleter.tabComplete(calc, "3 + ")
+
+  @Benchmark
+  def reference(): TabCompleter.Result = TabCompleter.tabComplete(calc, "#map(l, @fn1")
+}
@@ -1,9 +1,14 @@
 package tuxcalculator.api;
 
+import java.io.Flushable;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
 import java.nio.file.Path;
+import java.time.Duration;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
 public interface TuxCalculator {
 
@@ -27,6 +32,83 @@ public interface TuxCalculator {
      */
     Result parse(String line);
 
+    /**
+     * Parses an input line, aborting the evaluation with an {@link Error} once it exceeds one of the given limits.
+     */
+    Result parse(String line, Limits limits);
+
+    /**
+     * Cancels the evaluation that is currently running, which then returns an {@link Error}. Can be called
+     * from any thread. Does nothing if no evaluation is running.
+     */
+    void cancel();
+
+    /**
+     * Like {@link #parse(String)} but evaluates on a background thread. All asynchronous requests of a calculator
+     * run one after another in the order they were made. Cancelling the returned future before the evaluation
+     * has started drops the request, use {@link #cancel()} to abort a running evaluation. The synchronous methods
+     * must not be used while asynchronous requests are pending.
+     */
+    CompletableFuture<Result> parseAsync(String line);
+
+    /**
+     * Like {@link #parse(String, Limits)} but evaluates on a background thread, see {@link #parseAsync(String)}.
+     */
+    CompletableFuture<Result> parseAsync(String line, Limits limits);
+
+    /**
+     * Like {@link #highlight(String)} but runs on a background thread, see {@link #parseAsync(String)}.
+     * A new highlight request supersedes older ones: Their futures are cancelled and they are dropped if they
+     * have not started yet.
+     */
+    CompletableFuture<List<HighlightPart>> highlightAsync(String line);
+
+    /**
+     * Like {@link #tabComplete(String)} but runs on a background thread, see {@link #parseAsync(String)}.
+     */
+    CompletableFuture<TabCompletion> tabCompleteAsync(String line);
+
+    /**
+     * Parses every line from the given reader in order and writes the results that are not void to the given
+     * output, one per line. Upcoming lines are lexed and parsed in the background while a line is evaluated.
+     * The output is flushed whenever the calculator waits for more input, if it is {@link Flushable}.
+     * The reader is not closed.
+     */
+    void evaluateStream(Reader in, Appendable out) throws IOException;
+
+    /**
+     * Gets runtime statistics by name, like the time spent in each phase of {@link #parse(String)} or the number
+     * of calls to each global function. Times are in nanoseconds. Statistics are only collected while the
+     * {@code stats} property is enabled.
+     */
+    Map<String, Long> stats();
+
+    /**
+     * Starts sampling the calculator call stack (global functions, operators, brackets and specials) in the given
+     * interval. Does nothing if the profiler is already running.
+     */
+    void startProfiler(Duration interval);
+
+    /**
+     * Stops the profiler and returns the samples in the collapsed stack format used by flame graph tools.
+     * {@literal null} if the profiler was not running.
+     */
+    String stopProfiler();
+
+    /**
+     * Limits for a single evaluation. Limits are checked regularly during evaluation, not after every single step.
+     *
+     * @param timeout   The maximum wall clock time, {@literal null} or zero for no limit.
+     * @param maxSteps  The maximum number of evaluation steps (function applications and list or matrix elements
+     *                  processed by specials), zero for no limit.
+     * @param maxMemory The maximum number of bytes the heap may grow during the evaluation, zero for no limit.
+     *                  This is a soft limit as it depends on what the garbage collector reports.
+     */
+    record Limits(Duration timeout, long maxSteps, long maxMemory) {
+        
+        public static final Limits NONE = new Limits(null, 0, 0);
+    }
+
     sealed interface Result permits Success, Void, Error {}
 
     record Success(String value) implements Result {
@@ -147,6 +229,14 @@ public interface TuxCalculator {
          */
         void load(String fileName, Reader in);
 
+        /**
+         * Like {@link #load(Path)} but stores the state of the calculator after loading the file as a snapshot in
+         * the given cache directory. If the format, the files loaded before and the file itself did not change
+         * since, the snapshot is loaded instead of evaluating the file again. Stale or corrupted snapshots are
+         * ignored and the file is evaluated as usual.
+         */
+        void loadCached(Path path, Path cacheDir);
+
         /**
          * Checks for errors that have accumulated while building the calculator.
          * {@literal null} if there were none.
@@ -2,7 +2,7 @@ package tuxcalculator.core
 
 import ch.obermuhlner.math.big.{BigComplex, BigDecimalMath}
 import tuxcalculator.api.TuxFrontend
-import tuxcalculator.core.data.{CalculatorCommands, CalculatorProperties, CalculatorSpecials, PropertyAccess}
+import tuxcalculator.core.data.{CalculatorBudget, CalculatorCommands, CalculatorProfiler, CalculatorProperties, CalculatorSpecials, CalculatorStats, PropertyAccess}
 import tuxcalculator.core.expression.Ast
 import tuxcalculator.core.format.FormatIO
 import tuxcalculator.core.lexer.{CatCode, FmtCode, Lexer, PartialTokenStream, SplitText, TokenStream}
@@ -11,9 +11,11 @@ import tuxcalculator.core.resolution.{BindLogic, ComputationLogic, ResolutionTab
 import tuxcalculator.core.util.{Result, Util}
 import tuxcalculator.core.value._
 
-import java.io.DataOutputStream
+import java.io.{BufferedOutputStream, DataOutputStream}
+import java.lang.{StringBuilder => JStringBuilder}
 import java.math.{MathContext, RoundingMode, BigDecimal => BigDec}
 import java.text.Normalizer
+import scala.annotation.tailrec
 
 class Calculator(val frontend: TuxFrontend, val ini: Boolean) extends ParsingContext with PropertyAccess {
 
@@ -25,6 +27,7 @@ class Calculator(val frontend: TuxFrontend, val ini: Boolean) extends ParsingCon
   
   val properties: CalculatorProperties = new CalculatorProperties(this, () => {
     specials.propertyChange()
+    stats.enabled = properties(CalculatorProperties.Stats)
     _mathContext = null
     _outputMathContext = null
     _constantPi = null
@@ -32,11 +35,15 @@ class Calculator(val frontend: TuxFrontend, val ini: Boolean) extends ParsingCon
   val specials: CalculatorSpecials = new CalculatorSpecials(this)
   val resolution: ResolutionTable = new ResolutionTable(this)
   val commands: CalculatorCommands = new CalculatorCommands(lexer)
+  val stats: CalculatorStats = new CalculatorStats
+  val profiler: CalculatorProfiler = new CalculatorProfiler
 
   private[this] var _mathContext: MathContext = _
   private[this] var _outputMathContext: MathContext = _
   private[this] var _constantPi: BigDec = _
   private[this] var _answer: MathValue = MathVoid
+  @volatile
+  private[this] var _budget: CalculatorBudget = CalculatorBudget.unlimited()
 
   def precision: Int = properties(CalculatorProperties.Precision)
   def mathContext: MathContext = {
@@ -69,76 +76,145 @@ class Calculator(val frontend: TuxFrontend, val ini: Boolean) extends ParsingCon
     ready = true
   }
   
-  private def formatReal(value: BigDecimal, suffix: String = "", allowScientific: Boolean = true, forceSpacedOutSign: Boolean = false): String = {
-    if (forceSpacedOutSign) {
-      val sign = if (value.signum == -1) " - " else " + "
-      sign + formatReal(value.abs, suffix = suffix, allowScientific = allowScientific, forceSpacedOutSign = false)
-    } else new BigDecimal(Util.safeRound(value, outputMathContext).bigDecimal, mathContext) match {
-      case v if v.abs < 1000000 && v.abs >= 0.0001 => Util.formatPlain(this, Util.safeStripTrailingZeros(v)) + suffix
-      case v if v.isWhole && v.abs < 100000000 => Util.formatPlain(this, Util.safeStripTrailingZeros(v)) + suffix
-      case v if allowScientific => Util.formatScientific(this, Util.safeStripTrailingZeros(v)) + (if (suffix.nonEmpty) " " + suffix else "")
-      case v => Util.formatPlain(this, Util.safeStripTrailingZeros(v)) + suffix
+  // Writes values into a single builder. Once more than limit characters are written, the remaining
+  // elements are skipped as they would be truncated anyway. A limit of 0 means no limit.
+  private class ValueWriter(limit: Int) {
+    
+    private[this] val sb: JStringBuilder = new JStringBuilder
+    
+    // Most values only need a few of these.
+    private[this] lazy val open: String = format(FmtCode.Open)
+    private[this] lazy val close: String = format(FmtCode.Close)
+    private[this] lazy val startList: String = format(FmtCode.StartList)
+    private[this] lazy val endList: String = format(FmtCode.EndList)
+    private[this] lazy val startMatrix: String = format(FmtCode.StartMatrix)
+    private[this] lazy val endMatrix: String = format(FmtCode.EndMatrix)
+    private[this] lazy val elementSep: String = format(FmtCode.ElementSep)
+    private[this] lazy val groupSep: String = format(FmtCode.GroupSep)
+    private[this] lazy val decimalSep: String = format(FmtCode.DecimalSep)
+    private[this] lazy val exp: String = format(FmtCode.Exp)
+    private[this] lazy val imaginary: String = format(FmtCode.Imaginary)
+    private[this] lazy val angle: String = format(FmtCode.Angle)
+    private[this] lazy val degree: String = format(FmtCode.Degree)
+    private[this] lazy val variable: String = format(FmtCode.Variable)
+    
+    private[this] val polar: CalculatorProperties.PolarType = properties(CalculatorProperties.Polar)
+    private[this] val outputMc: MathContext = outputMathContext
+    
+    def exceeded: Boolean = limit > 0 && sb.length > limit
+    
+    def result: String = if (limit == 0 || sb.length <= limit) sb.toString else sb.substring(0, limit) + " " + format(FmtCode.Truncate)
+    
+    def write(value: MathValue): Unit = if (!exceeded) value match {
+      case MathVoid => sb.append(open).append(close)
+      case MathError(msg, _) => sb.append("Error: ").append(msg)
+      case MathTrue => sb.append(format(FmtCode.True))
+      case MathFalse => sb.append(format(FmtCode.False))
+      case MathList(values) =>
+        sb.append(startList)
+        writeElements(values, 0)
+        sb.append(endList)
+      case MathMatrix(values) =>
+        sb.append(startMatrix)
+        writeColumns(values, 0)
+        sb.append(endMatrix)
+      case MathInteger(int) => sb.append(int.toString)
+      case MathNumber(num) => writeComplex(num)
+      case MathPolynomial(coefficients) => writePol(coefficients, coefficients.size - 1)
+      case func: MathFunction => sb.append(func.string(Calculator.this))
     }
-  }
-  
-  private def formatComplex(value: BigComplex, forceSpacedOutSign: Boolean = false, inMultiplicativeContext: Boolean = false): String = {
-    value match {
-      case _ if value.isReal => formatReal(value.re, forceSpacedOutSign = forceSpacedOutSign)
-      case _ if properties(CalculatorProperties.Polar) == CalculatorProperties.PolarType.Radians =>
-        formatReal(value.abs(mathContext), forceSpacedOutSign = forceSpacedOutSign) + format(FmtCode.Angle) + formatReal(value.angle(mathContext), allowScientific = false)
-      case _ if properties(CalculatorProperties.Polar) == CalculatorProperties.PolarType.Degrees =>
-        formatReal(value.abs(mathContext), forceSpacedOutSign = forceSpacedOutSign) + format(FmtCode.Angle) + formatReal(value.angle(mathContext).multiply(new BigDec("180"), mathContext).divide(constantPi, mathContext), allowScientific = false, suffix = format(FmtCode.Degree))
+    
+    @tailrec
+    private def writeElements(values: Vector[MathValue], idx: Int): Unit = if (idx < values.size && !exceeded) {
+      if (idx > 0) sb.append(elementSep)
+      write(values(idx))
+      writeElements(values, idx + 1)
+    }
+    
+    @tailrec
+    private def writeColumns(columns: Vector[Vector[MathValue]], idx: Int): Unit = if (idx < columns.size && !exceeded) {
+      if (idx > 0) sb.append(groupSep)
+      writeElements(columns(idx), 0)
+      writeColumns(columns, idx + 1)
+    }
+    
+    private def writeReal(value: BigDecimal, suffix: String = "", allowScientific: Boolean = true, forceSpacedOutSign: Boolean = false): Unit = {
+      if (forceSpacedOutSign) {
+        sb.append(if (value.signum == -1) " - " else " + ")
+        writeReal(value.abs, suffix = suffix, allowScientific = allowScientific, forceSpacedOutSign = false)
+      } else new BigDecimal(Util.safeRound(value, outputMc).bigDecimal, mathContext) match {
+        case v if v.abs < 1000000 && v.abs >= 0.0001 => Util.appendPlain(sb, Util.safeStripTrailingZeros(v), decimalSep).append(suffix)
+        case v if v.isWhole && v.abs < 100000000 => Util.appendPlain(sb, Util.safeStripTrailingZeros(v), decimalSep).append(suffix)
+        case v if allowScientific => Util.appendScientific(sb, Util.safeStripTrailingZeros(v), decimalSep, exp).append(if (suffix.nonEmpty) " " + suffix else "")
+        case v => Util.appendPlain(sb, Util.safeStripTrailingZeros(v), decimalSep).append(suffix)
+      }
+    }
+    
+    private def writeComplex(value: BigComplex, forceSpacedOutSign: Boolean = false, inMultiplicativeContext: Boolean = false): Unit = value match {
+      case _ if value.isReal => writeReal(value.re, forceSpacedOutSign = forceSpacedOutSign)
+      case _ if polar == CalculatorProperties.PolarType.Radians =>
+        writeReal(value.abs(mathContext), forceSpacedOutSign = forceSpacedOutSign)
+        sb.append(angle)
+        writeReal(value.angle(mathContext), allowScientific = false)
+      case _ if polar == CalculatorProperties.PolarType.Degrees =>
+        writeReal(value.abs(mathContext), forceSpacedOutSign = forceSpacedOutSign)
+        sb.append(angle)
+        writeReal(value.angle(mathContext).multiply(new BigDec("180"), mathContext).divide(constantPi, mathContext), allowScientific = false, suffix = degree)
       case _ if inMultiplicativeContext =>
-        val sign = if (value.re.signum == -1) { if (forceSpacedOutSign) " - "  else "-" } else { if (forceSpacedOutSign) " + " else "" }
-        val term = format(FmtCode.Open) + formatReal(value.re.abs) + formatReal(value.im.multiply(BigDec.valueOf(value.re.signum)), suffix = format(FmtCode.Imaginary), forceSpacedOutSign = true) + format(FmtCode.Close)
-        sign + term
-      case _ if inMultiplicativeContext => format(FmtCode.Open) + formatReal(value.re, forceSpacedOutSign = forceSpacedOutSign) + formatReal(value.im, suffix = format(FmtCode.Imaginary), forceSpacedOutSign = true) + format(FmtCode.Close)
-      case _ => formatReal(value.re, forceSpacedOutSign = forceSpacedOutSign) + formatReal(value.im, suffix = format(FmtCode.Imaginary), forceSpacedOutSign = true)
+        sb.append(if (value.re.signum == -1) { if (forceSpacedOutSign) " - "  else "-" } else { if (forceSpacedOutSign) " + " else "" })
+        sb.append(open)
+        writeReal(value.re.abs)
+        writeReal(value.im.multiply(BigDec.valueOf(value.re.signum)), suffix = imaginary, forceSpacedOutSign = true)
+        sb.append(close)
+      case _ =>
+        writeReal(value.re, forceSpacedOutSign = forceSpacedOutSign)
+        writeReal(value.im, suffix = imaginary, forceSpacedOutSign = true)
     }
-  }
-  
-  private def formatPol(coefficients: Vector[MathNumber]): String = {
-    def partString(coefficient: MathNumber, power: Int): Option[String] = {
-      val variable: String = if (coefficient.num.isReal) format(FmtCode.Variable) else " " + format(FmtCode.Variable)
+    
+    // Terms are written from the highest power down.
+    @tailrec
+    private def writePol(coefficients: Vector[MathNumber], power: Int): Unit = if (power >= 0 && !exceeded) {
+      val coefficient: BigComplex = coefficients(power).num
+      val rounded: BigComplex = Util.safeRound(coefficient, outputMc)
       val first = coefficients.size == power + 1
+      val variableStr: String = if (coefficient.isReal) variable else " " + variable
       val plus: String = if (first) "" else " + "
       val minus: String = if (first) "-" else " - "
       power match {
-        case _ if Util.safeRound(coefficient.num, outputMathContext) == BigComplex.ZERO => None
-        case 0 => Some(formatComplex(coefficient.num, forceSpacedOutSign = !first, inMultiplicativeContext = true))
-        case 1 if Util.safeRound(coefficient.num, outputMathContext) == BigComplex.ONE => Some(plus + variable)
-        case 1 if Util.safeRound(coefficient.num, outputMathContext) == BigComplex.ONE.negate() => Some(minus + variable)
-        case 1 => Some(formatComplex(coefficient.num, forceSpacedOutSign = !first, inMultiplicativeContext = true) + variable)
-        case n if Util.safeRound(coefficient.num, outputMathContext) == BigComplex.ONE => Some(plus + variable + Util.toSuperscript(n))
-        case n if Util.safeRound(coefficient.num, outputMathContext) == BigComplex.ONE.negate() => Some(minus + variable + Util.toSuperscript(n))
-        case n => Some(formatComplex(coefficient.num, forceSpacedOutSign = !first, inMultiplicativeContext = true) + variable + Util.toSuperscript(n))
+        case _ if rounded == BigComplex.ZERO =>
+        case 0 => writeComplex(coefficient, forceSpacedOutSign = !first, inMultiplicativeContext = true)
+        case 1 if rounded == BigComplex.ONE => sb.append(plus).append(variableStr)
+        case 1 if rounded == BigComplex.ONE.negate() => sb.append(minus).append(variableStr)
+        case 1 =>
+          writeComplex(coefficient, forceSpacedOutSign = !first, inMultiplicativeContext = true)
+          sb.append(variableStr)
+        case n if rounded == BigComplex.ONE => sb.append(plus).append(variableStr).append(Util.toSuperscript(n))
+        case n if rounded == BigComplex.ONE.negate() => sb.append(minus).append(variableStr).append(Util.toSuperscript(n))
+        case n =>
+          writeComplex(coefficient, forceSpacedOutSign = !first, inMultiplicativeContext = true)
+          sb.append(variableStr).append(Util.toSuperscript(n))
       }
+      writePol(coefficients, power - 1)
     }
-    coefficients.zipWithIndex.reverse.flatMap(entry => partString(entry._1, entry._2)).mkString
-  }
-
-  private def formatNoTrunc(value: MathValue): String = value match {
-    case MathVoid => format(FmtCode.Open) + format(FmtCode.Close)
-    case MathError(msg, _) => "Error: " + msg
-    case MathTrue => format(FmtCode.True)
-    case MathFalse => format(FmtCode.False)
-    case MathList(values) => format(FmtCode.StartList) + values.map(this.formatNoTrunc).mkString(format(FmtCode.ElementSep)) + format(FmtCode.EndList)
-    case MathMatrix(values) => format(FmtCode.StartMatrix) + values.map(col => col.map(this.formatNoTrunc).mkString(format(FmtCode.ElementSep))).mkString(format(FmtCode.GroupSep)) + format(FmtCode.EndMatrix)
-    case MathNumber(num) => formatComplex(num)
-    case MathPolynomial(coefficients) => formatPol(coefficients)
-    case func: MathFunction => func.string(this)
   }
   
   def format(code: FmtCode): String = lexer.format(code)
   def escapeErrorLiteral(msg: String): String = lexer.escapeErrorLiteral(msg)
   
   def format(value: MathValue): String = {
-    val str: String = formatNoTrunc(value)
-    properties(CalculatorProperties.Truncate) match {
-      case 0 => str
-      case max if str.length <= max => str
-      case max => str.substring(0, max) + " " + format(FmtCode.Truncate)
-    }
+    val writer = new ValueWriter(properties(CalculatorProperties.Truncate))
+    writer.write(value)
+    writer.result
+  }
+  
+  // Values in error traces are cut off earlier than regular output, a trace line should stay readable.
+  def formatInTrace(value: MathValue): String = {
+    val writer = new ValueWriter(properties(CalculatorProperties.Truncate) match {
+      case 0 => Calculator.TraceLimit
+      case max => max min Calculator.TraceLimit
+    })
+    writer.write(value)
+    writer.result
   }
   
   def parseNumber(integral: String, fraction: Option[String], exponent: Option[String]): Result[MathValue] = {
@@ -150,6 +226,7 @@ class Calculator(val frontend: TuxFrontend, val ini: Boolean) extends ParsingCon
       case None =>
     }
     try {
+      if (fraction.isEmpty && exponent.isEmpty) return Result.Value(MathInteger(BigInt(integral)))
       val str = integral + fraction.map("." + _).getOrElse("") + exponent.map("E" + _).getOrElse("")
       Result.Value(MathNumber(BigDecimal(BigDecimalMath.toBigDecimal(str, mathContext))))
     } catch {
@@ -157,124 +234,174 @@ class Calculator(val frontend: TuxFrontend, val ini: Boolean) extends ParsingCon
     }
   }
   
-  def parse(rawLine: String): Result[MathValue] = {
-    if (!ready) throw new IllegalStateException("Calculator not ready.")
-    if (dumpedUnusable) throw new IllegalStateException("Can't use calculator after dump.")
-    
+  def budget: CalculatorBudget = _budget
+  
+  // Cancels the current evaluation. Can be called from any thread.
+  def cancel(): Unit = _budget.cancel()
+  
+  def parse(rawLine: String): Result[MathValue] = parse(rawLine, CalculatorBudget.unlimited())
+  def parse(rawLine: String, budget: CalculatorBudget): Result[MathValue] = evaluate(prepare(rawLine), budget)
+  
+  // The part of parse that only depends on the syntax: normalization, catcodes and the precision for number
+  // literals. Only commands change these, so plain expressions can be prepared ahead of evaluation as long
+  // as no command is evaluated in between.
+  def prepare(rawLine: String): Calculator.Prepared = {
+    checkUsable()
     val normalizedLine: String = properties(CalculatorProperties.Normalization) match {
       case Some(normalization) => Normalizer.normalize(rawLine, normalization)
       case None => rawLine
     }
+    normalizedLine match {
+      case commands.Let(_) | commands.Def(_) | commands.Rem(_) | commands.Set(_) | commands.Cat(_) => Calculator.Prepared.Command(normalizedLine)
+      case commands.Dump(_) if ini => Calculator.Prepared.Command(normalizedLine)
+      case _ => try {
+        stats.phase(CalculatorStats.Phase.Lex)(lexer.tokenize(normalizedLine)) match {
+          case Result.Value(TokenStream(Vector())) => Calculator.Prepared.Empty
+          case tokenResult => Calculator.Prepared.Expression(tokenResult ~> (tokens => stats.phase(CalculatorStats.Phase.Parse)(parser.expression(tokens))))
+        }
+      } catch {
+        case _: StackOverflowError => Calculator.Prepared.Expression(Result.Error("stack overflow"))
+        case e: ArithmeticException => Calculator.Prepared.Expression(Result.Error("error: " + e.getMessage))
+      }
+    }
+  }
+  
+  def evaluate(prepared: Calculator.Prepared, budget: CalculatorBudget): Result[MathValue] = {
+    checkUsable()
+    profiler.reset()
+    _budget = budget
     
-    def compute(tokens: TokenStream): Result[MathValue] = parser.expression(tokens) ~ computeAst
+    def compute(tokens: TokenStream): Result[MathValue] = stats.phase(CalculatorStats.Phase.Parse)(parser.expression(tokens)) ~ computeAst
     def computeAst(expr: Ast.Expression): MathValue = {
-      val bound = BindLogic.bind(expr, this, eager = properties(CalculatorProperties.Eager))
-      ComputationLogic.compute(bound, this)
+      val bound = stats.phase(CalculatorStats.Phase.Bind)(BindLogic.bind(expr, this, eager = properties(CalculatorProperties.Eager)))
+      stats.phase(CalculatorStats.Phase.Compute)(ComputationLogic.compute(bound, this))
     }
     
     val result: Result[MathValue] = try {
-      normalizedLine match {
-        case commands.Let(cmdStr) => lexer.maybeTokenizeAssignment(cmdStr) ~> {
-          case Some(PartialTokenStream(tokens, remaining)) => parser.letCommand(tokens) ~> {
-            case Ast.LetCommand(name: String) => lexer.continue(remaining) ~> compute ~ (value => resolution.let(name, value))
-          }
-          case None => lexer.continue(cmdStr) ~> parser.letCommand ~ {
-            case Ast.LetCommand(name: String) => resolution.let(name, answer)
+      prepared match {
+        case Calculator.Prepared.Empty =>
+          // No tokens, return void result without changing answer
+          return Result.Value(MathVoid)
+        case Calculator.Prepared.Expression(expr) => expr ~ computeAst
+        case Calculator.Prepared.Command(normalizedLine) => normalizedLine match {
+          case commands.Let(cmdStr) => lexer.maybeTokenizeAssignment(cmdStr) ~> {
+            case Some(PartialTokenStream(tokens, remaining)) => parser.letCommand(tokens) ~> {
+              case Ast.LetCommand(name: String) => lexer.continue(remaining) ~> compute ~ (value => resolution.let(name, value))
+            }
+            case None => lexer.continue(cmdStr) ~> parser.letCommand ~ {
+              case Ast.LetCommand(name: String) => resolution.let(name, answer)
+            }
           }
-        }
-        case commands.Def(cmdStr) => lexer.tokenizeAssignment(cmdStr) ~> {
-          case PartialTokenStream(tokens, remaining) => parser.defCommand(tokens) ~> {
-            case Ast.DefCommand(target, priority, sig) => lexer.continue(remaining) ~> parser.expression ~> (astExpr => {
-              if (!target.isInstanceOf[Ast.DefTarget.Operator] && !target.isInstanceOf[Ast.DefTarget.SignOrOperator] && priority.isDefined) {
-                Result.Error("Only binary operators can set a priority")
-              } else {
-                val thePriority: Either[Int, MathError] = priority match {
-                  case Some(priorityExpr) => computeAst(priorityExpr).number(this) match {
-                    case MathRealNumeric(real) if real.isWhole => Left(real.toInt)
-                    case err: MathError => Right(err)
-                    case other => Right(MathError("invalid priority: " + format(other)))
+          case commands.Def(cmdStr) => lexer.tokenizeAssignment(cmdStr) ~> {
+            case PartialTokenStream(tokens, remaining) => parser.defCommand(tokens) ~> {
+              case Ast.DefCommand(target, priority, sig) => lexer.continue(remaining) ~> parser.expression ~> (astExpr => {
+                if (!target.isInstanceOf[Ast.DefTarget.Operator] && !target.isInstanceOf[Ast.DefTarget.SignOrOperator] && priority.isDefined) {
+                  Result.Error("Only binary operators can set a priority")
+                } else {
+                  val thePriority: Either[Int, MathError] = priority match {
+                    case Some(priorityExpr) => computeAst(priorityExpr).number(this) match {
+                      case MathRealNumeric(real) if real.isWhole => Left(real.toInt)
+                      case err: MathError => Right(err)
+                      case other => Right(MathError("invalid priority: " + format(other)))
+                    }
+                    case None => Left(0)
                   }
-                  case None => Left(0)
-                }
-                thePriority match {
-                  case Right(err) => Result.Value(err)
-                  case Left(thePriorityNum) => resolution.define(target, sig, astExpr) match {
-                    case err: MathError => Result.Value(err)
-                    case res if priority.isDefined =>
-                      resolution.priority(target.name, thePriorityNum)
-                      Result.Value(res)
-                    case res => Result.Value(res)
+                  thePriority match {
+                    case Right(err) => Result.Value(err)
+                    case Left(thePriorityNum) => resolution.define(target, sig, astExpr) match {
+                      case err: MathError => Result.Value(err)
+                      case res if priority.isDefined =>
+                        resolution.priority(target.name, thePriorityNum)
+                        Result.Value(res)
+                      case res => Result.Value(res)
+                    }
                   }
                 }
-              }
-            })
+              })
+            }
           }
-        }
-        case commands.Rem(cmdStr) => lexer.continue(cmdStr) ~> parser.remCommand ~ {
-          case Ast.RemCommand(target) => resolution.remove(target)
-        }
-        case commands.Set(cmdStr) => cmdStr match {
-          case commands.Fmt(fmtCmdStr) => lexer.splitAssignment(fmtCmdStr) ~> {
-            case SplitText(before, after) => FmtCode.byName(before.string) match {
-              case Some(fmtCode) => lexer.continue(after) ~> parser.errorToken match {
-                case Result.Value(formatString) => lexer.fmtCode(fmtCode, formatString); Result.Value(MathVoid)
-                case err @ Result.Error(_, _) => err
+          case commands.Rem(cmdStr) => lexer.continue(cmdStr) ~> parser.remCommand ~ {
+            case Ast.RemCommand(target) => resolution.remove(target)
+          }
+          case commands.Set(cmdStr) => cmdStr match {
+            case commands.Fmt(fmtCmdStr) => lexer.splitAssignment(fmtCmdStr) ~> {
+              case SplitText(before, after) => FmtCode.byName(before.string) match {
+                case Some(fmtCode) => lexer.continue(after) ~> parser.errorToken match {
+                  case Result.Value(formatString) => lexer.fmtCode(fmtCode, formatString); Result.Value(MathVoid)
+                  case err @ Result.Error(_, _) => err
+                }
+                case None => Result.Error("Unknown format code: '" + before.string.strip() + "'")
               }
-              case None => Result.Error("Unknown format code: '" + before.string.strip() + "'")
             }
-          }
-          case _ => lexer.tokenizeAssignment(cmdStr) ~> {
-            case PartialTokenStream(tokens, remaining) => parser.setCommand(tokens) ~> {
-              case Ast.SetCommand(name: String) => lexer.continue(remaining) ~> compute ~ (value => properties.set(name, value))
+            case _ => lexer.tokenizeAssignment(cmdStr) ~> {
+              case PartialTokenStream(tokens, remaining) => parser.setCommand(tokens) ~> {
+                case Ast.SetCommand(name: String) => lexer.continue(remaining) ~> compute ~ (value => properties.set(name, value))
+              }
             }
           }
-        }
-        case commands.Cat(cmdStr) => lexer.tokenizeAssignment(cmdStr) ~> {
-          case PartialTokenStream(tokens, remaining) => parser.catCommand(tokens) ~> {
-            case Ast.CatCommand(token) => CatCode.byName(remaining.string) match {
-              case Some(catCode) => token.codePoints().toArray match {
-                case Array() => Result.Error("expected a token, got empty string")
-                case Array(codePoint) => lexer.catCode(codePoint, catCode); Result.Value(MathVoid)
-                case _ => lexer.tokCode(token, catCode) ; Result.Value(MathVoid)
+          case commands.Cat(cmdStr) => lexer.tokenizeAssignment(cmdStr) ~> {
+            case PartialTokenStream(tokens, remaining) => parser.catCommand(tokens) ~> {
+              case Ast.CatCommand(token) => CatCode.byName(remaining.string) match {
+                case Some(catCode) => token.codePoints().toArray match {
+                  case Array() => Result.Error("expected a token, got empty string")
+                  case Array(codePoint) => lexer.catCode(codePoint, catCode); Result.Value(MathVoid)
+                  case _ => lexer.tokCode(token, catCode) ; Result.Value(MathVoid)
+                }
+                case None => Result.Error("Unknown catcode: '" + remaining.string.strip() + "'")
               }
-              case None => Result.Error("Unknown catcode: '" + remaining.string.strip() + "'")
             }
           }
-        }
-        case commands.Dump(cmdStr) if ini => lexer.continue(cmdStr) ~> parser.dumpCommand ~ {
-          case Ast.DumpCommand(fileName) =>
-            val out = new DataOutputStream(frontend.openFile(fileName + ".tuxf"))
-            try {
-              FormatIO.dump(this, out)
-            } catch {
-              case e: Exception => frontend.showError(e.getClass.getSimpleName + ": " + e.getMessage)
-            } finally {
+          case commands.Dump(cmdStr) if ini => lexer.continue(cmdStr) ~> parser.dumpCommand ~ {
+            case Ast.DumpCommand(fileName) =>
+              // Formats are written in small pieces.
+              val out = new DataOutputStream(new BufferedOutputStream(frontend.openFile(fileName + ".tuxf")))
               try {
-                out.close()
+                FormatIO.dump(this, out)
+                out.flush()
               } catch {
-                case _: Exception =>
+                case e: Exception => frontend.showError(e.getClass.getSimpleName + ": " + e.getMessage)
+              } finally {
+                try {
+                  out.close()
+                } catch {
+                  case _: Exception =>
+                }
               }
-            }
-            dumpedUnusable = true
-            frontend.exit()
-            // In case exit does not work.
-            return Result.Value(MathVoid)
-        }
-        case _ => lexer.tokenize(normalizedLine) match {
-          case Result.Value(TokenStream(Vector())) =>
-            // No tokens, return void result without changing answer
-            return Result.Value(MathVoid)
-          case tokenResult => tokenResult ~> compute
+              dumpedUnusable = true
+              frontend.exit()
+              // In case exit does not work.
+              return Result.Value(MathVoid)
+          }
+          case _ => Result.Error("Not a command: '" + normalizedLine + "' This is a bug.")
         }
       }
     } catch {
       case _: StackOverflowError => Result.Error("stack overflow")
+      case e: CalculatorBudget.Exceeded => Result.Error(e.getMessage)
       case e: ArithmeticException => Result.Error("error: " + e.getMessage)
     }
     result match {
-      case Result.Value(value) if !value.isInstanceOf[MathError] => _answer = value
+      case Result.Value(err: MathError) => err.resolve()
+      case Result.Value(value) => _answer = value
       case _ =>
     }
     result
   }
+  
+  private def checkUsable(): Unit = {
+    if (!ready) throw new IllegalStateException("Calculator not ready.")
+    if (dumpedUnusable) throw new IllegalStateException("Can't use calculator after dump.")
+  }
+}
+
+object Calculator {
+  val TraceLimit: Int = 100
+  
+  // A line prepared by Calculator.prepare, ready to be evaluated.
+  sealed trait Prepared
+  object Prepared {
+    case object Empty extends Prepared
+    case class Expression(expr: Result[Ast.Expression]) extends Prepared
+    case class Command(line: String) extends Prepared
+  }
 }
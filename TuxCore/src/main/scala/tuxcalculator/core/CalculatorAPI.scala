@@ -2,13 +2,19 @@ package tuxcalculator.core
 
 import tuxcalculator.api.TuxCalculator.HighlightPart
 import tuxcalculator.api.{TuxCalculator, TuxCalculatorAPI, TuxFrontend}
-import tuxcalculator.core.format.{FileLoader, FormatIO, InvalidFormatException}
-import tuxcalculator.core.util.{InputHighlighter, Result, TabCompleter, Util}
-import tuxcalculator.core.value.{MathError, MathVoid}
+import tuxcalculator.core.data.CalculatorBudget
+import tuxcalculator.core.format.{FileLoader, FormatCache, FormatIO, InvalidFormatException, StreamEvaluator}
+import tuxcalculator.core.util.{InputHighlighter, Result, SerialExecutor, TabCompleter, Util}
+import tuxcalculator.core.value.{MathError, MathValue, MathVoid}
 
 import java.io._
+import java.nio.charset.StandardCharsets
 import java.nio.file.{Files, Path}
+import java.security.DigestInputStream
+import java.time.Duration
 import java.util
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.atomic.AtomicReference
 import scala.collection.immutable.ArraySeq
 import scala.collection.mutable
 import scala.jdk.CollectionConverters._
@@ -35,8 +41,12 @@ object CalculatorAPI extends TuxCalculatorAPI {
   
   override def createBy(frontend: TuxFrontend, fmt: InputStream): TuxCalculator.Builder = {
     try {
-      val in = new DataInputStream(fmt)
-      new CalculatorBuilderWrapper(FormatIO.load(frontend, in))
+      // The key for cached snapshots. Bytes after the format data are not part of it, but they are ignored anyway.
+      val digest = FormatCache.newDigest()
+      // Formats are read in small pieces.
+      val in = new DataInputStream(new DigestInputStream(new BufferedInputStream(fmt), digest))
+      val calc = FormatIO.load(frontend, in)
+      new CalculatorBuilderWrapper(calc, digest.digest())
     } catch {
       case e: EOFException => new ErroredCalculatorBuilder(Vector(Result.Error("Truncated format file.")) ++ Option(e.getMessage).map(msg => Result.Error(msg)).toVector)
       case e: UTFDataFormatException => new ErroredCalculatorBuilder(Vector(Result.Error("Charset error.")) ++ Option(e.getMessage).map(msg => Result.Error(msg)).toVector)
@@ -48,11 +58,15 @@ object CalculatorAPI extends TuxCalculatorAPI {
     }
   }
   
-  private class CalculatorBuilderWrapper(private val calc: Calculator) extends TuxCalculator.Builder {
+  private class CalculatorBuilderWrapper(initialCalc: Calculator, formatKey: Array[Byte]) extends TuxCalculator.Builder {
     
     private val errors: mutable.IndexedBuffer[Result.Error] = mutable.ArrayBuffer()
+    private[this] var calc: Calculator = initialCalc
+    // The key of the current state for cached snapshots, None once something has been loaded without cache.
+    private[this] var cacheKey: Option[Array[Byte]] = Some(formatKey)
     
     override def load(path: Path): Unit = {
+      cacheKey = None
       if (Files.isRegularFile(path)) {
         errors.addAll(FileLoader.load(calc, path))
       } else {
@@ -61,7 +75,28 @@ object CalculatorAPI extends TuxCalculatorAPI {
     }
     
     override def load(fileName: String, in: InputStream): Unit = load(fileName, new InputStreamReader(in))
-    override def load(fileName: String, in: Reader): Unit = errors.addAll(FileLoader.load(calc, fileName, in))
+    override def load(fileName: String, in: Reader): Unit = {
+      cacheKey = None
+      errors.addAll(FileLoader.load(calc, fileName, in))
+    }
+    override def loadCached(path: Path, cacheDir: Path): Unit = cacheKey match {
+      case Some(key) if errors.isEmpty && Files.isRegularFile(path) =>
+        val fileName = path.toAbsolutePath.normalize().getFileName.toString
+        val content = try {
+          Files.readAllBytes(path)
+        } catch {
+          case e: IOException => errors.addOne(Result.Error("Failed to read " + fileName + ": " + e.getMessage)); return
+        }
+        val newKey = FormatCache.key(key, content)
+        FormatCache.read(calc.frontend, cacheDir, fileName, newKey) match {
+          case Some(cached) => calc = cached
+          case None =>
+            errors.addAll(FileLoader.load(calc, fileName, new InputStreamReader(new ByteArrayInputStream(content), StandardCharsets.UTF_8)))
+            if (errors.isEmpty) FormatCache.write(calc, cacheDir, fileName, newKey)
+        }
+        cacheKey = if (errors.isEmpty) Some(newKey) else None
+      case _ => load(path)
+    }
     override def checkError(): util.List[TuxCalculator.Error] = if (errors.isEmpty) null else errors.map {
       case Result.Error(msg, trace) => new TuxCalculator.Error(msg, trace.asJava)
     }.to(ArraySeq).asJava
@@ -75,6 +110,7 @@ object CalculatorAPI extends TuxCalculatorAPI {
     override def load(path: Path): Unit = ()
     override def load(fileName: String, in: InputStream): Unit = ()
     override def load(fileName: String, in: Reader): Unit = ()
+    override def loadCached(path: Path, cacheDir: Path): Unit = ()
     override def checkError(): util.List[TuxCalculator.Error] = errors.map {
       case Result.Error(msg, trace) => new TuxCalculator.Error(msg, trace.asJava)
     }.to(ArraySeq).asJava
@@ -82,12 +118,69 @@ object CalculatorAPI extends TuxCalculatorAPI {
   }
   
   private class CalculatorWrapper(val calc: Calculator) extends TuxCalculator {
+    
+    // Only created when asynchronous methods are used.
+    private lazy val executor: SerialExecutor = SerialExecutor.virtual("TuxCalculator")
+    private val pendingHighlight: AtomicReference[CompletableFuture[_]] = new AtomicReference()
+    // Frontends highlight the input line after each edit, so the next line is highlighted incrementally.
+    @volatile private var lastHighlight: InputHighlighter.Highlighted = _
+    
     override def ini(): Boolean = calc.ini
-    override def highlight(line: String): util.List[HighlightPart] = InputHighlighter.highlight(calc, line).asJava
+    override def highlight(line: String): util.List[HighlightPart] = {
+      val highlighted = InputHighlighter.highlight(calc, line, lastHighlight)
+      lastHighlight = highlighted
+      highlighted.parts.asJava
+    }
     override def tabComplete(line: String): TuxCalculator.TabCompletion = TabCompleter.tabComplete(calc, line) match {
       case TabCompleter.Result(prefix, completionString, matches, isIdentifier) => new TuxCalculator.TabCompletion(prefix, completionString, matches.asJava, isIdentifier)
     }
-    override def parse(line: String): TuxCalculator.Result = calc.parse(line) match {
+    override def parse(line: String): TuxCalculator.Result = result(calc.parse(line))
+    override def parse(line: String, limits: TuxCalculator.Limits): TuxCalculator.Result = {
+      val timeout = Option(limits.timeout).map(_.toNanos).getOrElse(0L)
+      result(calc.parse(line, new CalculatorBudget(timeout, limits.maxSteps, limits.maxMemory)))
+    }
+    override def cancel(): Unit = calc.cancel()
+    override def parseAsync(line: String): CompletableFuture[TuxCalculator.Result] = async(parse(line))
+    override def parseAsync(line: String, limits: TuxCalculator.Limits): CompletableFuture[TuxCalculator.Result] = async(parse(line, limits))
+    override def highlightAsync(line: String): CompletableFuture[util.List[HighlightPart]] = {
+      val future = new CompletableFuture[util.List[HighlightPart]]()
+      pendingHighlight.getAndSet(future) match {
+        case null =>
+        case old => old.cancel(false)
+      }
+      submit(future)(highlight(line))
+    }
+    override def tabCompleteAsync(line: String): CompletableFuture[TuxCalculator.TabCompletion] = async(tabComplete(line))
+    override def evaluateStream(in: Reader, out: Appendable): Unit = {
+      def flush(): Unit = out match {
+        case flushable: Flushable => flushable.flush()
+        case _ =>
+      }
+      StreamEvaluator.evaluate(calc, in, () => flush())(line => result(line) match {
+        case _: TuxCalculator.Void =>
+        case res => out.append(res.toString).append(System.lineSeparator())
+      })
+      flush()
+    }
+    override def stats(): util.Map[String, java.lang.Long] = calc.stats.all.map(entry => entry._1 -> java.lang.Long.valueOf(entry._2)).asJava
+    override def startProfiler(interval: Duration): Unit = calc.profiler.start(interval)
+    override def stopProfiler(): String = calc.profiler.stop().orNull
+    
+    private def async[T](action: => T): CompletableFuture[T] = submit(new CompletableFuture[T]())(action)
+    
+    // Requests whose future is already completed (cancelled) when they come up are skipped.
+    private def submit[T](future: CompletableFuture[T])(action: => T): CompletableFuture[T] = {
+      executor.execute(() => if (!future.isDone) {
+        try {
+          future.complete(action)
+        } catch {
+          case e: Throwable => future.completeExceptionally(e)
+        }
+      })
+      future
+    }
+    
+    private def result(result: Result[MathValue]): TuxCalculator.Result = result match {
       case Result.Value(MathVoid) => new TuxCalculator.Void()
       case Result.Value(MathError(msg, trace)) => new TuxCalculator.Error(msg, trace.asJava)
       case Result.Error(msg, trace) => new TuxCalculator.Error(msg, trace.asJava)
@@ -0,0 +1,46 @@
+package tuxcalculator.core.data
+
+// Limits for a single evaluation. Long running code calls step() regularly, the limits are only checked every few
+// steps to keep this cheap. When a limit is exceeded, step() throws CalculatorBudget.Exceeded which is not caught
+// before it reaches Calculator.parse. A value of 0 means no limit. maxMemory is a soft limit on the heap growth
+// during the evaluation as reported by the runtime.
+final class CalculatorBudget(timeoutNanos: Long, maxSteps: Long, maxMemory: Long) {
+
+  private[this] val deadline: Long = if (timeoutNanos > 0) System.nanoTime() + timeoutNanos else 0
+  private[this] val baseMemory: Long = if (maxMemory > 0) CalculatorBudget.usedMemory() else 0
+
+  @volatile
+  private[this] var cancelled: Boolean = false
+  private[this] var steps: Long = 0
+  private[this] var nextCheck: Long = CalculatorBudget.CheckInterval min (if (maxSteps > 0) maxSteps + 1 else Long.MaxValue)
+
+  // Can be called from any thread.
+  def cancel(): Unit = cancelled = true
+
+  def step(): Unit = {
+    steps += 1
+    if (steps >= nextCheck) check()
+  }
+
+  private def check(): Unit = {
+    if (cancelled) throw new CalculatorBudget.Exceeded("Evaluation cancelled.")
+    if (maxSteps > 0 && steps > maxSteps) throw new CalculatorBudget.Exceeded("Evaluation exceeded " + maxSteps + " steps.")
+    if (deadline != 0 && System.nanoTime() - deadline > 0) throw new CalculatorBudget.Exceeded("Evaluation timed out.")
+    if (maxMemory > 0 && CalculatorBudget.usedMemory() - baseMemory > maxMemory) throw new CalculatorBudget.Exceeded("Evaluation exceeded its memory budget.")
+    nextCheck = (steps + CalculatorBudget.CheckInterval) min (if (maxSteps > 0) maxSteps + 1 else Long.MaxValue)
+  }
+}
+
+object CalculatorBudget {
+
+  val CheckInterval: Long = 256
+
+  def unlimited(): CalculatorBudget = new CalculatorBudget(0, 0, 0)
+
+  class Exceeded(msg: String) extends RuntimeException(msg, null, false, false)
+
+  private def usedMemory(): Long = {
+    val runtime = Runtime.getRuntime
+    runtime.totalMemory() - runtime.freeMemory()
+  }
+}
@@ -0,0 +1,87 @@
+package tuxcalculator.core.data
+
+import java.time.Duration
+import java.util.concurrent.locks.LockSupport
+import scala.collection.mutable
+
+// Samples the call stack as seen by the calculator (global functions, operators, brackets and specials) to find
+// out, which parts of a format or rc-file are hot. The result uses the collapsed stack format of flame graph tools.
+// While the profiler is stopped, entering a frame is a single field check.
+class CalculatorProfiler {
+
+  @volatile
+  private[this] var frames: Array[String] = new Array(64)
+  @volatile
+  private[this] var depth: Int = 0
+  @volatile
+  private[this] var sampler: CalculatorProfiler.Sampler = _
+
+  def active: Boolean = sampler != null
+
+  // Returns whether the frame was pushed, only then exit must be called.
+  def enter(frame: String): Boolean = if (sampler == null) false else {
+    if (depth == frames.length) frames = java.util.Arrays.copyOf(frames, depth * 2)
+    frames(depth) = frame
+    depth += 1
+    true
+  }
+
+  def exit(): Unit = if (depth > 0) depth -= 1
+
+  // Frames are popped in finally blocks, even when evaluation is aborted by an exception. The stack is still reset
+  // for each line, in case a stack overflow hits between entering a frame and the try block that pops it.
+  def reset(): Unit = depth = 0
+
+  def start(interval: Duration): Unit = synchronized {
+    if (sampler == null) {
+      val newSampler = new CalculatorProfiler.Sampler(this, interval.toNanos max CalculatorProfiler.MinInterval)
+      newSampler.start()
+      sampler = newSampler
+    }
+  }
+
+  // Stops the profiler and returns the samples, one line per distinct stack.
+  def stop(): Option[String] = synchronized {
+    sampler match {
+      case null => None
+      case oldSampler =>
+        sampler = null
+        oldSampler.interrupt()
+        oldSampler.join()
+        Some(oldSampler.samples.toSeq.sortBy(_._1).map(entry => entry._1 + " " + entry._2 + "\n").mkString)
+    }
+  }
+
+  // May see a partially updated stack, which is fine for sampling.
+  private def snapshot(): Option[String] = {
+    val theFrames = frames
+    (depth min theFrames.length) match {
+      case 0 => None
+      case theDepth => Some(theFrames.iterator.take(theDepth).map(CalculatorProfiler.frameName).mkString(";"))
+    }
+  }
+}
+
+object CalculatorProfiler {
+
+  val MinInterval: Long = 10000
+
+  private def frameName(frame: String): String = frame match {
+    case null => "?"
+    case _ => frame.replace(';', ':').replace('\n', ' ')
+  }
+
+  private class Sampler(profiler: CalculatorProfiler, interval: Long) extends Thread("TuxCalculator Profiler") {
+    setDaemon(true)
+
+    val samples: mutable.Map[String, Long] = mutable.Map()
+
+    override def run(): Unit = while (!isInterrupted) {
+      LockSupport.parkNanos(interval)
+      profiler.snapshot() match {
+        case Some(stack) => samples(stack) = samples.getOrElse(stack, 0L) + 1
+        case None =>
+      }
+    }
+  }
+}
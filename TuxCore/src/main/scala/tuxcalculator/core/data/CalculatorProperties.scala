@@ -43,7 +43,7 @@ object CalculatorProperties {
   
   // New calculator properties must be added to this set, to the apply method and be stored and loaded in FormatIO
   def allProperties: Set[String] = Set[String](
-    "precision", "output", "truncate", "eager", "normalization", "highlight", "polar", "autoref"
+    "precision", "output", "truncate", "eager", "normalization", "highlight", "polar", "autoref", "stats"
   )
   
   def apply(name: String): Either[CalculatorProperty[_], String] = name match {
@@ -55,12 +55,13 @@ object CalculatorProperties {
     case "highlight" => Left(Highlight)
     case "polar" => Left(Polar)
     case "autoref" => Left(Autoref)
+    case "stats" => Left(Stats)
     case _ => Right("Unknown calculator property: '" + name + "'")
   }
   
   case object Precision extends CalculatorProperty[Int] {
     override def default: Int = 16
-    override def from(calc: Calculator, value: MathValue): Either[Int, MathValue] = ValueHelper.make(calc) { ValueHelper.realInt(value).toInt }
+    override def from(calc: Calculator, value: MathValue): Either[Int, MathValue] = ValueHelper.make(calc) { implicit calc => ValueHelper.realInt(value).toInt }
     override def validate(value: Int): Either[Int, String] = value match {
       case _ if value <= 0 => Right("Precision must be positive")
       case _ => Left(value)
@@ -69,7 +70,7 @@ object CalculatorProperties {
   
   case object Output extends CalculatorProperty[Int] {
     override def default: Int = 0
-    override def from(calc: Calculator, value: MathValue): Either[Int, MathValue] = ValueHelper.make(calc) { ValueHelper.realInt(value).toInt }
+    override def from(calc: Calculator, value: MathValue): Either[Int, MathValue] = ValueHelper.make(calc) { implicit calc => ValueHelper.realInt(value).toInt }
     override def validate(value: Int): Either[Int, String] = value match {
       case _ if value < 0 => Right("Output precision must be non-negative")
       case _ => Left(value)
@@ -78,7 +79,7 @@ object CalculatorProperties {
   
   case object Truncate extends CalculatorProperty[Int] {
     override def default: Int = 0
-    override def from(calc: Calculator, value: MathValue): Either[Int, MathValue] = ValueHelper.make(calc) { ValueHelper.realInt(value).toInt }
+    override def from(calc: Calculator, value: MathValue): Either[Int, MathValue] = ValueHelper.make(calc) { implicit calc => ValueHelper.realInt(value).toInt }
     override def validate(value: Int): Either[Int, String] = value match {
       case _ if value < 0 => Right("Truncation can't be negative")
       case _ => Left(value)
@@ -87,7 +88,7 @@ object CalculatorProperties {
   
   case object Eager extends CalculatorProperty[Boolean] {
     override def default: Boolean = false
-    override def from(calc: Calculator, value: MathValue): Either[Boolean, MathValue] = ValueHelper.make(calc) { ValueHelper.boolean(value) }
+    override def from(calc: Calculator, value: MathValue): Either[Boolean, MathValue] = ValueHelper.make(calc) { implicit calc => ValueHelper.boolean(value) }
   }
   
   case object Normalization extends CalculatorProperty[Option[Normalizer.Form]] {
@@ -105,7 +106,7 @@ object CalculatorProperties {
   
   case object Highlight extends CalculatorProperty[Boolean] {
     override def default: Boolean = false
-    override def from(calc: Calculator, value: MathValue): Either[Boolean, MathValue] = ValueHelper.make(calc) { ValueHelper.boolean(value) }
+    override def from(calc: Calculator, value: MathValue): Either[Boolean, MathValue] = ValueHelper.make(calc) { implicit calc => ValueHelper.boolean(value) }
   }
   
   case object Polar extends CalculatorProperty[PolarType] {
@@ -115,7 +116,7 @@ object CalculatorProperties {
       case MathError("rad", _) => Left(PolarType.Radians)
       case MathError("deg", _) => Left(PolarType.Degrees)
       case MathError(str, _) => Right(MathError("Invalid value for polar formatting: " + str))
-      case _ => ValueHelper.make(calc) {
+      case _ => ValueHelper.make(calc) { implicit calc =>
         if (ValueHelper.boolean(value)) PolarType.Radians else PolarType.None
       }
     }
@@ -129,6 +130,11 @@ object CalculatorProperties {
   
   case object Autoref extends CalculatorProperty[Boolean] {
     override def default: Boolean = false
-    override def from(calc: Calculator, value: MathValue): Either[Boolean, MathValue] = ValueHelper.make(calc) { ValueHelper.boolean(value) }
+    override def from(calc: Calculator, value: MathValue): Either[Boolean, MathValue] = ValueHelper.make(calc) { implicit calc => ValueHelper.boolean(value) }
+  }
+  
+  case object Stats extends CalculatorProperty[Boolean] {
+    override def default: Boolean = false
+    override def from(calc: Calculator, value: MathValue): Either[Boolean, MathValue] = ValueHelper.make(calc) { implicit calc => ValueHelper.boolean(value) }
   }
 }
@@ -53,6 +53,8 @@ class CalculatorSpecials(private val calc: PropertyAccess) {
     ListOperators.Idx,
     ListOperators.Sort,
     ListOperators.Fill,
+    ListOperators.Forall,
+    ListOperators.Exists,
     MatrixOperators.Wd,
     MatrixOperators.Ht,
     MatrixOperators.Mflat,
@@ -75,8 +77,14 @@ class CalculatorSpecials(private val calc: PropertyAccess) {
     BuiltinFunctions.Asin,
     BuiltinFunctions.Atan,
     BuiltinFunctions.If,
+    BuiltinFunctions.Stats,
     BuiltinFunctions.Gcd,
     BuiltinFunctions.Bezout,
+    BuiltinFunctions.Root,
+    BuiltinFunctions.Prime,
+    BuiltinFunctions.Factor,
+    BuiltinFunctions.Totient,
+    BuiltinFunctions.Digits,
     BuiltinFunctions.Rd,
     BuiltinFunctions.Cl,
     BuiltinFunctions.Fl,
@@ -114,21 +122,64 @@ object CalculatorSpecial {
   }
   abstract class Function(name: String) extends Constant(name) {
     override def value: MathValue = new SpecialFunction(name) {
-      override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = result(calc, args)
+      override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
+        val start = calc.stats.start()
+        val profiled = calc.profiler.enter(frame)
+        try {
+          result(calc, args)
+        } finally {
+          if (profiled) calc.profiler.exit()
+          calc.stats.special(this.name, start)
+        }
+      }
     }
     protected def result(calc: Calculator, args: Vector[MathValue]): MathValue
   }
   abstract class SimpleFunction(name: String, argNum: Int) extends Constant(name) {
     override def value: MathValue = new SpecialFunction(name) {
       override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = args.size match {
-        case s if s == argNum => result(calc, args)
+        case s if s == argNum =>
+          val start = calc.stats.start()
+          val profiled = calc.profiler.enter(frame)
+          try {
+            result(calc, args)
+          } finally {
+            if (profiled) calc.profiler.exit()
+            calc.stats.special(this.name, start)
+          }
         case s => MathError(calc.format(FmtCode.Special) + this.name + " is only defined for " + argNum + " arguments, got " + s + ".")
       }
     }
     protected def result(calc: Calculator, args: Vector[MathValue]): MathValue
   }
+  // Arguments are only computed when the special asks for them. When it is called with computed
+  // arguments (e.g. partially applied or splatted), these are passed as already computed thunks.
+  abstract class LazyFunction(name: String, argNum: Int) extends Constant(name) {
+    override def value: MathValue = new LazySpecialFunction(name) {
+      override def applyLazy(calc: Calculator, args: Vector[() => MathValue]): MathValue = args.size match {
+        case s if s == argNum =>
+          val start = calc.stats.start()
+          val profiled = calc.profiler.enter(frame)
+          try {
+            result(calc, args)
+          } finally {
+            if (profiled) calc.profiler.exit()
+            calc.stats.special(this.name, start)
+          }
+        case s => MathError(calc.format(FmtCode.Special) + this.name + " is only defined for " + argNum + " arguments, got " + s + ".")
+      }
+    }
+    protected def result(calc: Calculator, args: Vector[() => MathValue]): MathValue
+  }
 }
 
 sealed abstract class SpecialFunction(val name: String) extends MathFunction {
+  // Name of this special in profiler output.
+  protected val frame: String = "#" + name
   override def string(calc: Calculator): String = calc.format(FmtCode.Special) + name
 }
+
+sealed abstract class LazySpecialFunction(name: String) extends SpecialFunction(name) {
+  def applyLazy(calc: Calculator, args: Vector[() => MathValue]): MathValue
+  override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = applyLazy(calc, args.map(arg => () => arg))
+}
@@ -0,0 +1,127 @@
+package tuxcalculator.core.data
+
+import tuxcalculator.core.value.{MathList, MathMatrix, MathValue}
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.LongAdder
+import scala.collection.immutable.TreeMap
+
+// Runtime statistics of a calculator. Nothing is recorded unless enabled, which is controlled by the stats
+// property. Recording methods that measure time take a start value from start(), which is 0 if disabled.
+class CalculatorStats {
+
+  @volatile
+  private[this] var _enabled: Boolean = false
+
+  private[this] val phases: Map[CalculatorStats.Phase, CalculatorStats.Histogram] = CalculatorStats.Phase.values.toSeq.map(phase => phase -> new CalculatorStats.Histogram).toMap
+  private[this] val functions: ConcurrentHashMap[String, CalculatorStats.Counter] = new ConcurrentHashMap()
+  private[this] val specials: ConcurrentHashMap[String, CalculatorStats.Counter] = new ConcurrentHashMap()
+  private[this] val memoizeHits: LongAdder = new LongAdder
+  private[this] val memoizeMisses: LongAdder = new LongAdder
+  private[this] val lookups: LongAdder = new LongAdder
+  private[this] val largeValues: LongAdder = new LongAdder
+
+  def enabled: Boolean = _enabled
+  def enabled_=(enabled: Boolean): Unit = _enabled = enabled
+
+  def start(): Long = if (_enabled) System.nanoTime() else 0
+
+  def phase[T](phase: CalculatorStats.Phase)(action: => T): T = if (!_enabled) action else {
+    val start = System.nanoTime()
+    val result = action
+    phases(phase).record(System.nanoTime() - start)
+    result
+  }
+
+  def function(name: String, start: Long): Unit = if (start != 0) functions.computeIfAbsent(name, _ => new CalculatorStats.Counter).record(System.nanoTime() - start)
+  def special(name: String, start: Long): Unit = if (start != 0) specials.computeIfAbsent(name, _ => new CalculatorStats.Counter).record(System.nanoTime() - start)
+  def memoize(hit: Boolean): Unit = if (_enabled) { if (hit) memoizeHits.increment() else memoizeMisses.increment() }
+  def lookup(): Unit = if (_enabled) lookups.increment()
+
+  def value(value: MathValue): Unit = if (_enabled) value match {
+    case MathList(values) if values.size >= CalculatorStats.LargeValue => largeValues.increment()
+    case MathMatrix(values) if values.size * values.head.size >= CalculatorStats.LargeValue => largeValues.increment()
+    case _ =>
+  }
+
+  // All statistics by name. Times are in nanoseconds.
+  def all: Map[String, Long] = {
+    val builder = TreeMap.newBuilder[String, Long]
+    for ((phase, histogram) <- phases) {
+      builder.addOne(phase.toString + ".count" -> histogram.count)
+      builder.addOne(phase.toString + ".time" -> histogram.total)
+      builder.addOne(phase.toString + ".p50" -> histogram.percentile(0.5))
+      builder.addOne(phase.toString + ".p99" -> histogram.percentile(0.99))
+    }
+    functions.forEach((name, counter) => {
+      builder.addOne("function." + name + ".calls" -> counter.calls.sum())
+      builder.addOne("function." + name + ".time" -> counter.time.sum())
+    })
+    specials.forEach((name, counter) => {
+      builder.addOne("special." + name + ".calls" -> counter.calls.sum())
+      builder.addOne("special." + name + ".time" -> counter.time.sum())
+    })
+    builder.addOne("memoize.hits" -> memoizeHits.sum())
+    builder.addOne("memoize.misses" -> memoizeMisses.sum())
+    builder.addOne("resolution.lookups" -> lookups.sum())
+    builder.addOne("values.large" -> largeValues.sum())
+    builder.result()
+  }
+}
+
+object CalculatorStats {
+
+  // Lists and matrices with at least this many elements are counted as large values.
+  val LargeValue: Int = 10000
+
+  type Phase = Phase.Value
+  object Phase extends Enumeration {
+    val Lex: Phase = Value("lex")
+    val Parse: Phase = Value("parse")
+    val Bind: Phase = Value("bind")
+    val Compute: Phase = Value("compute")
+  }
+
+  class Counter {
+    val calls: LongAdder = new LongAdder
+    val time: LongAdder = new LongAdder
+
+    def record(nanos: Long): Unit = {
+      calls.increment()
+      time.add(nanos)
+    }
+  }
+
+  // Log-linear buckets: Each power of two is split into 4 buckets, so a percentile is off by at most 25%.
+  class Histogram {
+    private[this] val buckets: Array[LongAdder] = Array.fill(248)(new LongAdder)
+    private[this] val sum: LongAdder = new LongAdder
+
+    def record(nanos: Long): Unit = {
+      buckets(Histogram.bucket(nanos max 0)).increment()
+      sum.add(nanos)
+    }
+
+    def count: Long = buckets.map(_.sum()).sum
+    def total: Long = sum.sum()
+
+    // The lower bound of the bucket that contains the given percentile.
+    def percentile(p: Double): Long = {
+      val counts = buckets.map(_.sum())
+      val rank = math.ceil(counts.sum * p).toLong max 1
+      counts.scanLeft(0L)(_ + _).tail.indexWhere(_ >= rank) match {
+        case -1 => 0
+        case idx => Histogram.lowerBound(idx)
+      }
+    }
+  }
+
+  object Histogram {
+    def bucket(value: Long): Int = if (value < 4) value.toInt else {
+      val exp = 63 - java.lang.Long.numberOfLeadingZeros(value)
+      4 * (exp - 1) + ((value >>> (exp - 2)) & 3).toInt
+    }
+
+    def lowerBound(bucket: Int): Long = if (bucket < 4) bucket else (4L + (bucket & 3)) << (bucket / 4 - 1)
+  }
+}
@@ -8,103 +8,103 @@ import java.io.{DataInput, DataOutput}
 object AstIO {
 
   def read(ctx: FormatContext, in: DataInput): Ast.Expression = in.readUnsignedByte() match {
-    case 0 => Ast.Group(ctx.ast.get(in.readInt()))
+    case 0 => Ast.Group(ctx.ast.read(in))
     case 1 => Ast.Answer
-    case 2 => Ast.Variable(ctx.strings.get(in.readInt()))
-    case 3 => Ast.Value(ctx.values.get(in.readInt()))
+    case 2 => Ast.Variable(ctx.strings.read(in))
+    case 3 => Ast.Value(ctx.values.read(in))
     case 4 =>
-      val head: String = ctx.strings.get(in.readInt())
-      val tailLen = in.readInt()
+      val head: String = ctx.strings.read(in)
+      val tailLen = ctx.readCount(in)
       val tail: Vector[Ast.Error.TailPart] = (for (_ <- 0 until tailLen) yield {
-        val prefix = ctx.strings.get(in.readInt())
-        val variableName = ctx.strings.get(in.readInt())
-        val followingText = ctx.strings.get(in.readInt())
+        val prefix = ctx.strings.read(in)
+        val variableName = ctx.strings.read(in)
+        val followingText = ctx.strings.read(in)
         Ast.Error.TailPart(prefix, variableName, followingText)
       }).toVector
       Ast.Error(head, tail)
-    case 5 => Ast.Reference(Ast.DefTarget.Function(ctx.strings.get(in.readInt())))
-    case 6 => Ast.Reference(Ast.DefTarget.Operator(ctx.strings.get(in.readInt())))
-    case 7 => Ast.Reference(Ast.DefTarget.SignOrOperator(ctx.strings.get(in.readInt())))
-    case 8 => Ast.Reference(Ast.DefTarget.Post(ctx.strings.get(in.readInt())))
-    case 9 => Ast.Reference(Ast.DefTarget.PrimaryBracket(ctx.strings.get(in.readInt()), ctx.strings.get(in.readInt())))
-    case 10 => Ast.Reference(Ast.DefTarget.SecondaryBracket(ctx.strings.get(in.readInt()), ctx.strings.get(in.readInt())))
-    case 11 => Ast.Reference(Ast.DefTarget.TertiaryBracket(ctx.strings.get(in.readInt()), ctx.strings.get(in.readInt())))
-    case 12 => Ast.Special(ctx.strings.get(in.readInt()))
+    case 5 => Ast.Reference(Ast.DefTarget.Function(ctx.strings.read(in)))
+    case 6 => Ast.Reference(Ast.DefTarget.Operator(ctx.strings.read(in)))
+    case 7 => Ast.Reference(Ast.DefTarget.SignOrOperator(ctx.strings.read(in)))
+    case 8 => Ast.Reference(Ast.DefTarget.Post(ctx.strings.read(in)))
+    case 9 => Ast.Reference(Ast.DefTarget.PrimaryBracket(ctx.strings.read(in), ctx.strings.read(in)))
+    case 10 => Ast.Reference(Ast.DefTarget.SecondaryBracket(ctx.strings.read(in), ctx.strings.read(in)))
+    case 11 => Ast.Reference(Ast.DefTarget.TertiaryBracket(ctx.strings.read(in), ctx.strings.read(in)))
+    case 12 => Ast.Special(ctx.strings.read(in))
     case 13 =>
-      val sig = ctx.signatures.get(in.readInt())
-      val code = ctx.ast.get(in.readInt())
-      val defCode = ctx.ast.get(in.readInt())
+      val sig = ctx.signatures.read(in)
+      val code = ctx.ast.read(in)
+      val defCode = ctx.ast.read(in)
       Ast.Lambda(sig, code, defCode)
     case 14 =>
-      val len = in.readInt()
+      val len = ctx.readCount(in)
       val entries = for (_ <- 0 until len) yield {
-        val sig = ctx.signatures.get(in.readInt())
+        val sig = ctx.signatures.read(in)
         val argGuards = for (_ <- sig.names.indices) yield if (in.readBoolean()) {
-          Some(Ast.DefExpression(ctx.ast.get(in.readInt()), ctx.ast.get(in.readInt())))
+          Some(Ast.DefExpression(ctx.ast.read(in), ctx.ast.read(in)))
         } else {
           None
         }
         val mainGuard = if (in.readBoolean()) {
-          Some(Ast.DefExpression(ctx.ast.get(in.readInt()), ctx.ast.get(in.readInt())))
+          Some(Ast.DefExpression(ctx.ast.read(in), ctx.ast.read(in)))
         } else {
           None
         }
-        val code = ctx.ast.get(in.readInt())
-        val defCode = ctx.ast.get(in.readInt())
+        val code = ctx.ast.read(in)
+        val defCode = ctx.ast.read(in)
         Ast.MatchEntry(sig, argGuards.toVector, mainGuard, code, defCode)
       }
       Ast.Match(entries.toVector)
     case 15 =>
-      val name = ctx.strings.get(in.readInt())
-      val len = in.readInt()
+      val name = ctx.strings.read(in)
+      val len = ctx.readCount(in)
       val args = for (_ <- 0 until len) yield readArgument(ctx, in, ArgumentType.Partial)
       Ast.Invocation(name, args.toVector)
     case 16 =>
-      val name = ctx.strings.get(in.readInt())
-      val len = in.readInt()
+      val name = ctx.strings.read(in)
+      val len = ctx.readCount(in)
       val args = for (_ <- 0 until len) yield readArgument(ctx, in, ArgumentType.Partial)
       Ast.PartialInvocation(name, args.toVector)
     case 17 =>
-      val name = ctx.strings.get(in.readInt())
-      val partialLen = in.readInt()
-      val partialArgs = for (_ <- 0 until partialLen) yield ctx.ast.get(in.readInt())
-      val arg = ctx.ast.get(in.readInt())
+      val name = ctx.strings.read(in)
+      val partialLen = ctx.readCount(in)
+      val partialArgs = for (_ <- 0 until partialLen) yield ctx.ast.read(in)
+      val arg = ctx.ast.read(in)
       Ast.ShorthandInvocation(name, partialArgs.toVector, arg)
     case 18 =>
-      val value = ctx.ast.get(in.readInt())
-      val len = in.readInt()
+      val value = ctx.ast.read(in)
+      val len = ctx.readCount(in)
       val args = for (_ <- 0 until len) yield readArgument(ctx, in, ArgumentType.Partial)
       Ast.Application(value, args.toVector)
     case 19 =>
-      val value = ctx.ast.get(in.readInt())
-      val len = in.readInt()
+      val value = ctx.ast.read(in)
+      val len = ctx.readCount(in)
       val args = for (_ <- 0 until len) yield readArgument(ctx, in, ArgumentType.Partial)
       Ast.PartialApplication(value, args.toVector)
-    case 20 => Ast.SignApplication(ctx.strings.get(in.readInt()), ctx.ast.get(in.readInt()))
-    case 21 => Ast.PostApplication(ctx.strings.get(in.readInt()), ctx.ast.get(in.readInt()))
+    case 20 => Ast.SignApplication(ctx.strings.read(in), ctx.ast.read(in))
+    case 21 => Ast.PostApplication(ctx.strings.read(in), ctx.ast.read(in))
     case 22 =>
-      val len = in.readInt()
-      val head = ctx.ast.get(in.readInt())
-      val tail = for (_ <- 0 until len) yield ctx.strings.get(in.readInt()) -> ctx.ast.get(in.readInt())
+      val len = ctx.readCount(in)
+      val head = ctx.ast.read(in)
+      val tail = for (_ <- 0 until len) yield ctx.strings.read(in) -> ctx.ast.read(in)
       Ast.OperatorApplication(head, tail.toVector)
     case 23 =>
-      val open = ctx.strings.get(in.readInt())
-      val close = ctx.strings.get(in.readInt())
-      val expr = ctx.ast.get(in.readInt())
+      val open = ctx.strings.read(in)
+      val close = ctx.strings.read(in)
+      val expr = ctx.ast.read(in)
       Ast.PrimaryBracket(open, close, expr)
     case 24 =>
-      val open = ctx.strings.get(in.readInt())
-      val close = ctx.strings.get(in.readInt())
-      val len = in.readInt()
+      val open = ctx.strings.read(in)
+      val close = ctx.strings.read(in)
+      val len = ctx.readCount(in)
       val args = for (_ <- 0 until len) yield readArgument(ctx, in, ArgumentType.Default)
       Ast.SecondaryBracket(open, close, args.toVector)
     case 25 =>
-      val open = ctx.strings.get(in.readInt())
-      val close = ctx.strings.get(in.readInt())
-      val width = in.readInt()
+      val open = ctx.strings.read(in)
+      val close = ctx.strings.read(in)
+      val width = ctx.readCount(in)
       val values = for (_ <- 0 until width) yield {
-        val height = in.readInt()
-        (for (_ <- 0 until height) yield ctx.ast.get(in.readInt())).toVector
+        val height = ctx.readCount(in)
+        (for (_ <- 0 until height) yield ctx.ast.read(in)).toVector
       }
       Ast.TertiaryBracket(open, close, values.toVector)
     case b => throw new InvalidFormatException("Corrupted format: Unknown AST type: " + b)
@@ -112,112 +112,112 @@ object AstIO {
   
   def write(ctx: FormatContext, ast: Ast.Expression, out: DataOutput): Unit = ast match {
     case Ast.Group(expr) => out.writeByte(0)
-      out.writeInt(ctx.ast.add(expr))
+      ctx.ast.write(expr, out)
     case Ast.Answer => out.writeByte(1)
     case Ast.Variable(name) => out.writeByte(2)
-      out.writeInt(ctx.strings.add(name))
+      ctx.strings.write(name, out)
     case Ast.Value(value) => out.writeByte(3)
-      out.writeInt(ctx.values.add(value))
+      ctx.values.write(value, out)
     case Ast.Error(head, tail) => out.writeByte(4)
-      out.writeInt(ctx.strings.add(head))
-      out.writeInt(tail.length)
+      ctx.strings.write(head, out)
+      ctx.writeCount(out, tail.length)
       for (Ast.Error.TailPart(prefix, variableName, followingText) <- tail) {
-        out.writeInt(ctx.strings.add(prefix))
-        out.writeInt(ctx.strings.add(variableName))
-        out.writeInt(ctx.strings.add(followingText))
+        ctx.strings.write(prefix, out)
+        ctx.strings.write(variableName, out)
+        ctx.strings.write(followingText, out)
       }
     case Ast.Reference(Ast.DefTarget.Function(name)) => out.writeByte(5)
-      out.writeInt(ctx.strings.add(name))
+      ctx.strings.write(name, out)
     case Ast.Reference(Ast.DefTarget.Operator(name)) => out.writeByte(6)
-      out.writeInt(ctx.strings.add(name))
+      ctx.strings.write(name, out)
     case Ast.Reference(Ast.DefTarget.SignOrOperator(name)) => out.writeByte(7)
-      out.writeInt(ctx.strings.add(name))
+      ctx.strings.write(name, out)
     case Ast.Reference(Ast.DefTarget.Post(name)) => out.writeByte(8)
-      out.writeInt(ctx.strings.add(name))
+      ctx.strings.write(name, out)
     case Ast.Reference(Ast.DefTarget.PrimaryBracket(name, close)) => out.writeByte(9)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(ctx.strings.add(close))
+      ctx.strings.write(name, out)
+      ctx.strings.write(close, out)
     case Ast.Reference(Ast.DefTarget.SecondaryBracket(name, close)) => out.writeByte(10)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(ctx.strings.add(close))
+      ctx.strings.write(name, out)
+      ctx.strings.write(close, out)
     case Ast.Reference(Ast.DefTarget.TertiaryBracket(name, close)) => out.writeByte(11)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(ctx.strings.add(close))
+      ctx.strings.write(name, out)
+      ctx.strings.write(close, out)
     case Ast.Special(name) => out.writeByte(12)
-      out.writeInt(ctx.strings.add(name))
+      ctx.strings.write(name, out)
     case Ast.Lambda(sig, code, defCode) => out.writeByte(13)
-      out.writeInt(ctx.signatures.add(sig))
-      out.writeInt(ctx.ast.add(code))
-      out.writeInt(ctx.ast.add(defCode))
+      ctx.signatures.write(sig, out)
+      ctx.ast.write(code, out)
+      ctx.ast.write(defCode, out)
     case Ast.Match(entries) => out.writeByte(14)
-      out.writeInt(entries.length)
+      ctx.writeCount(out, entries.length)
       for (Ast.MatchEntry(sig, elemGuards, mainGuard, code, defCode) <- entries) {
-        out.writeInt(ctx.signatures.add(sig))
+        ctx.signatures.write(sig, out)
         for (guard <- elemGuards) guard match {
           case Some(func) => out.writeBoolean(true)
-            out.writeInt(ctx.ast.add(func.code))
-            out.writeInt(ctx.ast.add(func.definitionCode))
+            ctx.ast.write(func.code, out)
+            ctx.ast.write(func.definitionCode, out)
           case None => out.writeBoolean(false)
         }
         mainGuard match {
           case Some(func) => out.writeBoolean(true)
-            out.writeInt(ctx.ast.add(func.code))
-            out.writeInt(ctx.ast.add(func.definitionCode))
+            ctx.ast.write(func.code, out)
+            ctx.ast.write(func.definitionCode, out)
           case None => out.writeBoolean(false)
         }
-        out.writeInt(ctx.ast.add(code))
-        out.writeInt(ctx.ast.add(defCode))
+        ctx.ast.write(code, out)
+        ctx.ast.write(defCode, out)
       }
     case Ast.Invocation(name, args) => out.writeByte(15)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(args.length)
+      ctx.strings.write(name, out)
+      ctx.writeCount(out, args.length)
       for (elem <- args) writeArgument(ctx, elem, out)
     case Ast.PartialInvocation(name, args) => out.writeByte(16)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(args.length)
+      ctx.strings.write(name, out)
+      ctx.writeCount(out, args.length)
       for (elem <- args) writeArgument(ctx, elem, out)
     case Ast.ShorthandInvocation(name, partialArgs, arg) => out.writeByte(17)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(partialArgs.length)
-      for (partialArg <- partialArgs) out.writeInt(ctx.ast.add(partialArg))
-      out.writeInt(ctx.ast.add(arg))
+      ctx.strings.write(name, out)
+      ctx.writeCount(out, partialArgs.length)
+      for (partialArg <- partialArgs) ctx.ast.write(partialArg, out)
+      ctx.ast.write(arg, out)
     case Ast.Application(expr, args) => out.writeByte(18)
-      out.writeInt(ctx.ast.add(expr))
-      out.writeInt(args.length)
+      ctx.ast.write(expr, out)
+      ctx.writeCount(out, args.length)
       for (elem <- args) writeArgument(ctx, elem, out)
     case Ast.PartialApplication(expr, args) => out.writeByte(19)
-      out.writeInt(ctx.ast.add(expr))
-      out.writeInt(args.length)
+      ctx.ast.write(expr, out)
+      ctx.writeCount(out, args.length)
       for (elem <- args) writeArgument(ctx, elem, out)
     case Ast.SignApplication(name, expr) => out.writeByte(20)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(ctx.ast.add(expr))
+      ctx.strings.write(name, out)
+      ctx.ast.write(expr, out)
     case Ast.PostApplication(name, expr) => out.writeByte(21)
-      out.writeInt(ctx.strings.add(name))
-      out.writeInt(ctx.ast.add(expr))
+      ctx.strings.write(name, out)
+      ctx.ast.write(expr, out)
     case Ast.OperatorApplication(head, tail) => out.writeByte(22)
-      out.writeInt(tail.size)
-      out.writeInt(ctx.ast.add(head))
+      ctx.writeCount(out, tail.size)
+      ctx.ast.write(head, out)
       for ((op, value) <- tail) {
-        out.writeInt(ctx.strings.add(op))
-        out.writeInt(ctx.ast.add(value))
+        ctx.strings.write(op, out)
+        ctx.ast.write(value, out)
       }
     case Ast.PrimaryBracket(open, close, expr) => out.writeByte(23)
-      out.writeInt(ctx.strings.add(open))
-      out.writeInt(ctx.strings.add(close))
-      out.writeInt(ctx.ast.add(expr))
+      ctx.strings.write(open, out)
+      ctx.strings.write(close, out)
+      ctx.ast.write(expr, out)
     case Ast.SecondaryBracket(open, close, args) => out.writeByte(24)
-      out.writeInt(ctx.strings.add(open))
-      out.writeInt(ctx.strings.add(close))
-      out.writeInt(args.length)
+      ctx.strings.write(open, out)
+      ctx.strings.write(close, out)
+      ctx.writeCount(out, args.length)
       for (elem <- args) writeArgument(ctx, elem, out)
     case Ast.TertiaryBracket(open, close, values) => out.writeByte(25)
-      out.writeInt(ctx.strings.add(open))
-      out.writeInt(ctx.strings.add(close))
-      out.writeInt(values.length)
+      ctx.strings.write(open, out)
+      ctx.strings.write(close, out)
+      ctx.writeCount(out, values.length)
       for (col <- values) {
-        out.writeInt(col.length)
-        for (elem <- col) out.writeInt(ctx.ast.add(elem))
+        ctx.writeCount(out, col.length)
+        for (elem <- col) ctx.ast.write(elem, out)
       }
     case _ => throw new IllegalStateException("Can't dump ast (" + ast.getClass + "): " + ast + " (this is a bug!)")
   }
@@ -231,36 +231,36 @@ object AstIO {
   private def readArgument[T <: Ast.PartialArgument](ctx: FormatContext, in: DataInput, argType: ArgumentType[T]): T = in.readByte() match {
     case 2 if argType == ArgumentType.Partial => Ast.Placeholder.asInstanceOf[T]
     case 2 => throw new InvalidFormatException("Corrupted format: Placeholder in non-partial argument.")
-    case 1 => Ast.SplattedArgument(ctx.ast.get(in.readInt())).asInstanceOf[T]
-    case 0 => ctx.ast.get(in.readInt()).asInstanceOf[T]
+    case 1 => Ast.SplattedArgument(ctx.ast.read(in)).asInstanceOf[T]
+    case 0 => ctx.ast.read(in).asInstanceOf[T]
     case n => throw new InvalidFormatException("Corrupted format: Invalid argument type: " + n)
   }
   
   private def writeArgument(ctx: FormatContext, ast: Ast.PartialArgument, out: DataOutput): Unit = ast match {
     case Ast.Placeholder => out.writeByte(2)
     case Ast.SplattedArgument(expr) => out.writeByte(1)
-      out.writeInt(ctx.ast.add(expr))
+      ctx.ast.write(expr, out)
     case expr: Ast.Expression => out.writeByte(0)
-      out.writeInt(ctx.ast.add(expr))
+      ctx.ast.write(expr, out)
   }
 
-  def readDescriptor(in: DataInput): Descriptor = Descriptor(in.readInt(), in.readBoolean())
+  def readDescriptor(ctx: FormatContext, in: DataInput): Descriptor = Descriptor(ctx.readCount(in), in.readBoolean())
 
-  def writeDescriptor(desc: Descriptor, out: DataOutput): Unit = {
-    out.writeInt(desc.args)
+  def writeDescriptor(ctx: FormatContext, desc: Descriptor, out: DataOutput): Unit = {
+    ctx.writeCount(out, desc.args)
     out.writeBoolean(desc.vararg)
   }
 
   def readSignature(ctx: FormatContext, in: DataInput): Ast.Signature = {
-    val len = in.readInt()
-    val names = for (_ <- 0 until len) yield ctx.strings.get(in.readInt())
+    val len = ctx.readCount(in)
+    val names = for (_ <- 0 until len) yield ctx.strings.read(in)
     val vararg = in.readBoolean()
     Ast.Signature(names.toVector, vararg)
   }
 
   def writeSignature(ctx: FormatContext, ast: Ast.Signature, out: DataOutput): Unit = {
-    out.writeInt(ast.names.length)
-    for (name <- ast.names) out.writeInt(ctx.strings.add(name))
+    ctx.writeCount(out, ast.names.length)
+    for (name <- ast.names) ctx.strings.write(name, out)
     out.writeBoolean(ast.vararg)
   }
 }
@@ -4,32 +4,31 @@ import tuxcalculator.core.Calculator
 import tuxcalculator.core.util.Result
 import tuxcalculator.core.value.MathError
 
-import java.io.{BufferedReader, Reader}
+import java.io.Reader
 import java.nio.file.{Files, Path}
 import scala.collection.mutable
 
 object FileLoader {
   
   def load(calc: Calculator, path: Path): Seq[Result.Error] = {
-    FileLoader.load(calc, path.toAbsolutePath.normalize.getFileName.toString, Files.lines(path).toArray.toVector.map(_.toString))
+    FileLoader.load(calc, path.toAbsolutePath.normalize.getFileName.toString, Files.newBufferedReader(path))
   }
   
   def load(calc: Calculator, fileName: String, reader: Reader): Seq[Result.Error] = {
+    val errors = mutable.ArrayBuffer[Result.Error]()
+    var lineNum = 0
     try {
-      val bufferedReader = new BufferedReader(reader)
-      FileLoader.load(calc, fileName, bufferedReader.lines.toArray.toVector.map(_.toString))
+      StreamEvaluator.evaluate(calc, reader, () => ()) { result =>
+        lineNum += 1
+        result match {
+          case Result.Error(err, trace) => errors.addOne(Result.Error("In " + fileName + ":" + lineNum + ": " + err.strip(), trace))
+          case Result.Value(MathError(err, trace)) => errors.addOne(Result.Error("In " + fileName + ":" + lineNum + ": " + err.strip(), trace))
+          case _ =>
+        }
+      }
     } finally {
       reader.close()
     }
-  }
-  
-  def load(calc: Calculator, fileName: String, lines: Vector[String]): Seq[Result.Error] = {
-    val errors = mutable.ArrayBuffer[Result.Error]()
-    for ((line, lineNum) <- lines.zipWithIndex) calc.parse(line) match {
-      case Result.Error(err, trace) => errors.addOne(Result.Error("In " + fileName + ":" + (lineNum + 1) + ": " + err.strip(), trace))
-      case Result.Value(MathError(err, trace)) => errors.addOne(Result.Error("In " + fileName + ":" + (lineNum + 1) + ": " + err.strip(), trace))
-      case _ =>
-    }
     errors.toSeq
   }
 }
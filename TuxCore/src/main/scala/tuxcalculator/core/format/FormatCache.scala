@@ -0,0 +1,101 @@
+package tuxcalculator.core.format
+
+import tuxcalculator.api.{TuxCalculatorAPI, TuxFrontend}
+import tuxcalculator.core.Calculator
+
+import java.io.{ByteArrayInputStream, ByteArrayOutputStream, DataInputStream, DataOutputStream, IOException}
+import java.nio.charset.StandardCharsets
+import java.nio.file.{Files, Path, StandardCopyOption}
+import java.security.MessageDigest
+import java.util
+import scala.jdk.CollectionConverters._
+
+// Snapshots of the calculator state after loading a file, so the file does not need to be evaluated again
+// on the next start. A snapshot is keyed by a hash of the calculator version, the format and the contents of
+// all files loaded before, so it is never used for a different state. A snapshot file starts with a hash of
+// its content followed by the format data. Everything here is best effort: Snapshots that can't be read are
+// deleted and failing to write one just means the file is evaluated again next time.
+object FormatCache {
+
+  val Algorithm: String = "SHA-256"
+  val DigestLength: Int = 32
+
+  // A digest for the key of a format, the format data has to be fed into it.
+  def newDigest(): MessageDigest = {
+    val digest = MessageDigest.getInstance(Algorithm)
+    digest.update(TuxCalculatorAPI.VERSION.getBytes(StandardCharsets.UTF_8))
+    digest
+  }
+
+  // The key of the state after loading a file with the given contents into the state with the given key.
+  def key(previous: Array[Byte], content: Array[Byte]): Array[Byte] = {
+    val digest = newDigest()
+    digest.update(previous)
+    digest.update(content)
+    digest.digest()
+  }
+
+  def read(frontend: TuxFrontend, cacheDir: Path, fileName: String, key: Array[Byte]): Option[Calculator] = {
+    val path = snapshotPath(cacheDir, fileName, key)
+    if (!Files.isRegularFile(path)) None else try {
+      val data = Files.readAllBytes(path)
+      if (data.length < DigestLength) throw new InvalidFormatException("Truncated snapshot.")
+      val digest = MessageDigest.getInstance(Algorithm)
+      digest.update(data, DigestLength, data.length - DigestLength)
+      if (!MessageDigest.isEqual(digest.digest(), util.Arrays.copyOf(data, DigestLength))) throw new InvalidFormatException("Corrupted snapshot.")
+      Some(FormatIO.load(frontend, new DataInputStream(new ByteArrayInputStream(data, DigestLength, data.length - DigestLength))))
+    } catch {
+      case _: Exception =>
+        try {
+          Files.deleteIfExists(path)
+        } catch {
+          case _: IOException =>
+        }
+        None
+    }
+  }
+
+  // Also removes older snapshots for the same file name.
+  def write(calc: Calculator, cacheDir: Path, fileName: String, key: Array[Byte]): Unit = try {
+    val payload = new ByteArrayOutputStream()
+    val payloadOut = new DataOutputStream(payload)
+    FormatIO.dump(calc, payloadOut)
+    payloadOut.close()
+    val data = payload.toByteArray
+
+    val path = snapshotPath(cacheDir, fileName, key)
+    Files.createDirectories(cacheDir)
+    // Other processes may read or write the same snapshot at the same time, so it must only appear when complete.
+    val tmp = Files.createTempFile(cacheDir, path.getFileName.toString, ".tmp")
+    try {
+      val out = Files.newOutputStream(tmp)
+      try {
+        out.write(MessageDigest.getInstance(Algorithm).digest(data))
+        out.write(data)
+      } finally {
+        out.close()
+      }
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING)
+    } finally {
+      Files.deleteIfExists(tmp)
+    }
+
+    val files = Files.list(cacheDir)
+    try {
+      for (file <- files.iterator().asScala if file != path && isSnapshot(file, fileName)) Files.deleteIfExists(file)
+    } finally {
+      files.close()
+    }
+  } catch {
+    case _: Exception =>
+  }
+
+  private def snapshotPath(cacheDir: Path, fileName: String, key: Array[Byte]): Path = {
+    cacheDir.resolve(fileName + "-" + key.map(b => "%02x".format(b & 0xFF)).mkString + ".tuxf")
+  }
+
+  private def isSnapshot(file: Path, fileName: String): Boolean = {
+    val name = file.getFileName.toString
+    name.startsWith(fileName + "-") && name.endsWith(".tuxf") && name.length == fileName.length + 2 * DigestLength + 6
+  }
+}
@@ -6,41 +6,52 @@ import tuxcalculator.core.value.{MathFunction, MathValue}
 
 import java.io.{DataInput, DataOutput}
 
-class FormatContext private(val specials: CalculatorSpecials, in: Option[DataInput]) {
-  
-  def this(specials: CalculatorSpecials) = this(specials, None)
-  def this(specials: CalculatorSpecials, in: DataInput) = this(specials, Some(in))
-  
+// Formats are always written in the current revision. Counts and indices are unsigned variable length integers,
+// other integers are signed ones. Formats before revision 3 are read with fixed size integers and modified UTF-8.
+class FormatContext(val specials: CalculatorSpecials, val revision: Int) {
+
+  def this(specials: CalculatorSpecials) = this(specials, FormatIO.Revision)
+
+  private[this] val legacy: Boolean = revision < FormatIO.InlineRevision
+
+  def readCount(in: DataInput): Int = if (legacy) in.readInt() else VarInt.readUnsigned(in)
+  def writeCount(out: DataOutput, value: Int): Unit = VarInt.writeUnsigned(out, value)
+  def readInteger(in: DataInput): Int = if (legacy) in.readInt() else VarInt.readSigned(in)
+  def writeInteger(out: DataOutput, value: Int): Unit = VarInt.writeSigned(out, value)
+  def readString(in: DataInput): String = if (legacy) in.readUTF() else VarInt.readString(in)
+  def writeString(out: DataOutput, value: String): Unit = VarInt.writeString(out, value)
+
   val strings: SymbolTable[String] = new SymbolTable[String]("strings", new SymbolEncoder[String] {
-    override def read(in: DataInput): String = in.readUTF()
-    override def write(value: String, out: DataOutput): Unit = out.writeUTF(value)
-  }, in)
-  
+    override def read(in: DataInput): String = readString(in)
+    override def write(value: String, out: DataOutput): Unit = writeString(out, value)
+  })
+
   val values: SymbolTable[MathValue] = new SymbolTable[MathValue]("values", new SymbolEncoder[MathValue] {
     override def read(in: DataInput): MathValue = ValueIO.read(FormatContext.this, in)
     override def write(value: MathValue, out: DataOutput): Unit = ValueIO.write(FormatContext.this, value, out)
-  }, in)
-  
+  })
+
   val functions: SymbolTable[MathFunction] = new SymbolTable[MathFunction]("functions", new SymbolEncoder[MathFunction] {
     override def read(in: DataInput): MathFunction = ValueIO.readFunction(FormatContext.this, in)
     override def write(value: MathFunction, out: DataOutput): Unit = ValueIO.writeFunction(FormatContext.this, value, out)
-  }, in)
-  
+  })
+
   val signatures: SymbolTable[Ast.Signature] = new SymbolTable[Ast.Signature]("signatures", new SymbolEncoder[Ast.Signature] {
     override def read(in: DataInput): Ast.Signature = AstIO.readSignature(FormatContext.this, in)
     override def write(value: Ast.Signature, out: DataOutput): Unit = AstIO.writeSignature(FormatContext.this, value, out)
-  }, in)
-  
+  })
+
   val ast: SymbolTable[Ast.Expression] = new SymbolTable[Ast.Expression]("ast", new SymbolEncoder[Ast.Expression] {
     override def read(in: DataInput): Ast.Expression = AstIO.read(FormatContext.this, in)
     override def write(value: Ast.Expression, out: DataOutput): Unit = AstIO.write(FormatContext.this, value, out)
-  }, in)
-  
-  def writeSymbols(out: DataOutput): Unit = {
-    strings.write(out)
-    values.write(out)
-    functions.write(out)
-    signatures.write(out)
-    ast.write(out)
+  })
+
+  // In formats before revision 3, the symbol tables come right before the resolution table.
+  def readLegacySymbolTables(in: DataInput): Unit = if (legacy) {
+    strings.readLegacy(in)
+    values.readLegacy(in)
+    functions.readLegacy(in)
+    signatures.readLegacy(in)
+    ast.readLegacy(in)
   }
 }
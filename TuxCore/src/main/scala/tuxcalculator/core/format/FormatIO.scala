@@ -10,6 +10,17 @@ import java.text.Normalizer
 
 object FormatIO {
   
+  // Revision 2 added the stats property. Revision 3 uses variable length integers and writes symbols inline,
+  // the revisions before it use fixed size integers and keep the symbol tables in front of the data. They are
+  // still read but no longer written. Revisions are told apart by the magic number at the start of the file.
+  val StatsRevision: Int = 2
+  val InlineRevision: Int = 3
+  val Revision: Int = 3
+  
+  private val MagicRevision1: Int = 0x40956A19
+  private val MagicRevision2: Int = 0x40956A1A
+  private val Magic: Int = 0x40956A1B
+  
   @throws[InvalidFormatException]
   def load(frontend: TuxFrontend, in: DataInput): Calculator = {
     val magic: Int = try {
@@ -21,30 +32,36 @@ object FormatIO {
     } catch {
       case _: EOFException => throw new InvalidFormatException("Not a TuxCalculator Format file.");
     }
-    if (magic != 0x40956A19) throw new InvalidFormatException("Not a TuxCalculator Format file.")
+    val revision = magic match {
+      case Magic => Revision
+      case MagicRevision2 => StatsRevision
+      case MagicRevision1 => 1
+      case _ => throw new InvalidFormatException("Not a TuxCalculator Format file.")
+    }
     val ver = in.readUTF()
     if (ver != TuxCalculatorAPI.VERSION) throw new InvalidFormatException("Format file was compiled for version " + ver +  ". Can't load it on version " + TuxCalculatorAPI.VERSION + ".")
     
     val calc = new Calculator(frontend, ini = false)
+    val ctx = new FormatContext(calc.specials, revision)
     
-    val catLen = in.readInt()
+    val catLen = ctx.readCount(in)
     for (_ <- 0 until catLen) {
-      calc.lexer.catCode(in.readInt(), CatCode(in.readByte()))
+      calc.lexer.catCode(ctx.readCount(in), CatCode(in.readByte()))
     }
     
-    val tokLen = in.readInt()
+    val tokLen = ctx.readCount(in)
     for (_ <- 0 until tokLen) {
-      calc.lexer.tokCode(in.readUTF(), CatCode(in.readByte()))
+      calc.lexer.tokCode(ctx.readString(in), CatCode(in.readByte()))
     }
     
-    val fmtLen = in.readInt()
+    val fmtLen = ctx.readCount(in)
     for (_ <- 0 until fmtLen) {
-      calc.lexer.fmtCode(FmtCode(in.readByte()), in.readUTF())
+      calc.lexer.fmtCode(FmtCode(in.readByte()), ctx.readString(in))
     }
     
-    calc.properties.set(CalculatorProperties.Precision, in.readInt())
-    calc.properties.set(CalculatorProperties.Output, in.readInt())
-    calc.properties.set(CalculatorProperties.Truncate, in.readInt())
+    calc.properties.set(CalculatorProperties.Precision, ctx.readInteger(in))
+    calc.properties.set(CalculatorProperties.Output, ctx.readInteger(in))
+    calc.properties.set(CalculatorProperties.Truncate, ctx.readInteger(in))
     calc.properties.set(CalculatorProperties.Eager, in.readBoolean())
     calc.properties.set(CalculatorProperties.Normalization, in.readUnsignedByte() match {
       case 0xFF => None
@@ -61,44 +78,47 @@ object FormatIO {
       case _ => throw new InvalidFormatException("Invalid polar formatting in format.")
     })
     calc.properties.set(CalculatorProperties.Autoref, in.readBoolean())
+    // Formats of revision 1 were written before the stats property existed, it stays off for them.
+    if (revision >= StatsRevision) calc.properties.set(CalculatorProperties.Stats, in.readBoolean())
     
-    val answer = calc.resolution.read(in)
+    val answer = calc.resolution.read(ctx, in)
     calc.finish(answer)
     
     calc
   }
   
   def dump(calc: Calculator, out: DataOutput): Unit = {
-    out.writeInt(0x40956A19)
+    out.writeInt(Magic)
     out.writeUTF(TuxCalculatorAPI.VERSION)
+    val ctx = new FormatContext(calc.specials)
     
     val catCodes = calc.lexer.allChangedCatCodes
-    out.writeInt(catCodes.size)
+    ctx.writeCount(out, catCodes.size)
     for ((codePoint, catCode) <- catCodes.toSeq.sortBy(_._1)) {
       if (catCode.id >= 128) throw new IllegalStateException("Can't write catcode " + catCode + ". This is a bug.")
-      out.writeInt(codePoint)
+      ctx.writeCount(out, codePoint)
       out.writeByte(catCode.id)
     }
     
     val tokCodes = calc.lexer.allChangedTokCodes
-    out.writeInt(tokCodes.size)
+    ctx.writeCount(out, tokCodes.size)
     for ((token, catCode) <- tokCodes.toSeq.sortBy(_._1)) {
       if (catCode.id >= 128) throw new IllegalStateException("Can't write catcode " + catCode + ". This is a bug.")
-      out.writeUTF(token)
+      ctx.writeString(out, token)
       out.writeByte(catCode.id)
     }
     
     val fmtCodes = calc.lexer.allChangedFmtCodes
-    out.writeInt(fmtCodes.size)
+    ctx.writeCount(out, fmtCodes.size)
     for ((fmtCode, format) <- fmtCodes.toSeq.sortBy(_._1)) {
       if (fmtCode.id >= 128) throw new IllegalStateException("Can't write fmtcode " + fmtCode + ". This is a bug.")
       out.writeByte(fmtCode.id)
-      out.writeUTF(format)
+      ctx.writeString(out, format)
     }
     
-    out.writeInt(calc.properties(CalculatorProperties.Precision))
-    out.writeInt(calc.properties(CalculatorProperties.Output))
-    out.writeInt(calc.properties(CalculatorProperties.Truncate))
+    ctx.writeInteger(out, calc.properties(CalculatorProperties.Precision))
+    ctx.writeInteger(out, calc.properties(CalculatorProperties.Output))
+    ctx.writeInteger(out, calc.properties(CalculatorProperties.Truncate))
     out.writeBoolean(calc.properties(CalculatorProperties.Eager))
     calc.properties(CalculatorProperties.Normalization) match {
       case Some(normalization) if normalization.ordinal() >= 128 => throw new IllegalStateException("Can't write normalization " + normalization + ". This is a bug.")
@@ -112,7 +132,8 @@ object FormatIO {
       case CalculatorProperties.PolarType.Degrees => out.writeByte(2)
     }
     out.writeBoolean(calc.properties(CalculatorProperties.Autoref))
+    out.writeBoolean(calc.properties(CalculatorProperties.Stats))
     
-    calc.resolution.write(out)
+    calc.resolution.write(ctx, out)
   }
 }
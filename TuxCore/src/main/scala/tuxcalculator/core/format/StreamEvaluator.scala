@@ -0,0 +1,98 @@
+package tuxcalculator.core.format
+
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.data.CalculatorBudget
+import tuxcalculator.core.util.Result
+import tuxcalculator.core.value.MathValue
+
+import java.io.{BufferedReader, Reader}
+import java.util.concurrent.{ArrayBlockingQueue, Semaphore}
+
+// Evaluates all lines from a reader in order. Reading, normalization, lexing and parsing of the following lines
+// runs on a separate thread while the current line is evaluated. Commands may change the syntax, so lines after
+// a command are only prepared once the command has been evaluated. With a single processor, preparing ahead
+// can't overlap with evaluation and handing lines to another thread only costs time, so lines are evaluated one
+// after another on the calling thread.
+object StreamEvaluator {
+
+  val BufferSize: Int = 1 << 16
+  val QueueSize: Int = 1024
+
+  // idle is called when no prepared line is available, before waiting for input. Exceptions while reading are
+  // rethrown on the calling thread. The reader is not closed: If evaluation stops early, the reading thread may
+  // still be blocked in readLine, for example on standard input, and closing the reader would wait for it.
+  def evaluate(calc: Calculator, in: Reader, idle: () => Unit)(action: Result[MathValue] => Unit): Unit = {
+    val reader = new BufferedReader(in, BufferSize)
+    if (Runtime.getRuntime.availableProcessors() > 1) {
+      evaluateAhead(calc, reader, idle)(action)
+    } else {
+      evaluateInline(calc, reader, idle)(action)
+    }
+  }
+
+  private def evaluateInline(calc: Calculator, reader: BufferedReader, idle: () => Unit)(action: Result[MathValue] => Unit): Unit = {
+    if (!reader.ready()) idle()
+    var line = reader.readLine()
+    while (line != null) {
+      action(calc.evaluate(calc.prepare(line), CalculatorBudget.unlimited()))
+      if (!reader.ready()) idle()
+      line = reader.readLine()
+    }
+  }
+
+  private def evaluateAhead(calc: Calculator, reader: BufferedReader, idle: () => Unit)(action: Result[MathValue] => Unit): Unit = {
+    val queue = new ArrayBlockingQueue[Entry](QueueSize)
+    val commandDone = new Semaphore(0)
+    val preparer = newThread(() => {
+      try {
+        var line = reader.readLine()
+        while (line != null) {
+          val prepared = calc.prepare(line)
+          queue.put(Line(prepared))
+          if (prepared.isInstanceOf[Calculator.Prepared.Command]) commandDone.acquire()
+          line = reader.readLine()
+        }
+        queue.put(End)
+      } catch {
+        case _: InterruptedException =>
+        case e: Throwable => queue.put(Failed(e))
+      }
+    })
+    preparer.start()
+    try {
+      var done = false
+      while (!done) {
+        val entry = queue.poll() match {
+          case null =>
+            idle()
+            queue.take()
+          case entry => entry
+        }
+        entry match {
+          case Line(prepared) =>
+            val result = calc.evaluate(prepared, CalculatorBudget.unlimited())
+            if (prepared.isInstanceOf[Calculator.Prepared.Command]) commandDone.release()
+            action(result)
+          case End => done = true
+          case Failed(e) => throw e
+        }
+      }
+    } finally {
+      preparer.interrupt()
+    }
+  }
+
+  private def newThread(action: Runnable): Thread = try {
+    Thread.ofVirtual().name("TuxCalculator Reader").unstarted(action)
+  } catch {
+    case _: LinkageError =>
+      val thread = new Thread(action, "TuxCalculator Reader")
+      thread.setDaemon(true)
+      thread
+  }
+
+  private sealed trait Entry
+  private case class Line(prepared: Calculator.Prepared) extends Entry
+  private case object End extends Entry
+  private case class Failed(e: Throwable) extends Entry
+}
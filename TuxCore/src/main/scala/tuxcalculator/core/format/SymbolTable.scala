@@ -3,77 +3,63 @@ package tuxcalculator.core.format
 import java.io._
 import scala.collection.mutable
 
-class SymbolTable[T] private(private[this] val isMutable: Boolean, val name: String, private[this] val encoder: SymbolEncoder[T]) {
+// Symbols are written inline where they are first used: A reference is the distance back from the next symbol
+// of the same table, or 0 followed by the encoded symbol. A symbol is numbered after it has been encoded, so the
+// symbols it references always come before it and a format can be written and read in a single pass.
+// Formats before revision 3 have all symbols of a table in front of the data, referenced by their index.
+class SymbolTable[T](val name: String, private[this] val encoder: SymbolEncoder[T]) {
 
   private[this] val items: mutable.ArrayBuffer[T] = mutable.ArrayBuffer()
   private[this] val map: mutable.Map[T, Int] = mutable.Map()
-  
-  private[this] var dataIn: DataInputStream = _
-  private[this] var maxLen: Int = 0
-  private[this] val dataOut: ByteArrayOutputStream = new ByteArrayOutputStream()
-  
+
+  private[this] var legacyIn: DataInputStream = _
+  private[this] var legacyLen: Int = 0
   private[this] var readingAhead: Boolean = false
-  
-  def this(name: String, encoder: SymbolEncoder[T], in: Option[DataInput]) = {
-    this(isMutable = in.isEmpty, name, encoder)
-    in match {
-      case Some(input) =>
-        val byteLen = input.readInt()
-        maxLen = input.readInt()
-        items.sizeHint(maxLen)
-        val allData = new Array[Byte](byteLen)
-        input.readFully(allData)
-        dataOut.write(allData)
-        dataIn = new DataInputStream(new ByteArrayInputStream(allData))
-      case None =>
-    }
+
+  def readLegacy(input: DataInput): Unit = {
+    val byteLen = input.readInt()
+    legacyLen = input.readInt()
+    items.sizeHint(legacyLen)
+    val allData = new Array[Byte](byteLen)
+    input.readFully(allData)
+    legacyIn = new DataInputStream(new ByteArrayInputStream(allData))
   }
 
-  def add(value: T): Int = map.get(value) match {
-    case Some(id) => id
+  def write(value: T, out: DataOutput): Unit = map.get(value) match {
+    case Some(id) => VarInt.writeUnsigned(out, items.length - id)
     case None =>
-      if (!isMutable) throw new IllegalStateException("Can't extend immutable symbol table")
-      // Write to extra stream, as the write method may add new
-      // items to the table
-      val theData = new ByteArrayOutputStream()
-      val theOut = new DataOutputStream(theData)
-      encoder.write(value, theOut)
-      theOut.close()
-      dataOut.write(theData.toByteArray)
+      VarInt.writeUnsigned(out, 0)
+      encoder.write(value, out)
+      map(value) = items.length
+      items.addOne(value)
+  }
+
+  def read(in: DataInput): T = if (legacyIn != null) legacyGet(in.readInt()) else VarInt.readUnsigned(in) match {
+    case 0 =>
+      val value = encoder.read(in)
       items.addOne(value)
-      map(value) = items.length - 1
-      maxLen = items.length
-      items.length - 1
+      value
+    case distance if distance > 0 && distance <= items.length => items(items.length - distance)
+    case distance => throw new InvalidFormatException("Invalid " + name + " symbol table reference: " + distance + " back (there are " + items.length + ")")
   }
-  
-  def get(id: Int): T = {
+
+  private def legacyGet(id: Int): T = {
     if (items.indices.contains(id)) {
       items(id)
-    } else if (id >= 0 && id < maxLen) {
+    } else if (id >= 0 && id < legacyLen) {
       if (readingAhead) {
         throw new InvalidFormatException("Invalid symbol table order: Forward reference in " + name)
       } else {
         // Read ahead until id
         readingAhead = true
-        for (i <- items.length to id) {
-          val value = encoder.read(dataIn)
-          items.addOne(value)
-          map(value) = i
-        }
+        for (_ <- items.length to id) items.addOne(encoder.read(legacyIn))
         readingAhead = false
         items(id)
       }
     } else {
-      throw new InvalidFormatException("Invalid " + name + " symbol table entry: " + id + " (max is " + maxLen + ")")
+      throw new InvalidFormatException("Invalid " + name + " symbol table entry: " + id + " (max is " + legacyLen + ")")
     }
   }
-  
-  def write(out: DataOutput): Unit = {
-    val theData = dataOut.toByteArray
-    out.writeInt(theData.length)
-    out.writeInt(items.length)
-    out.write(theData)
-  }
 }
 
 trait SymbolEncoder[T] {
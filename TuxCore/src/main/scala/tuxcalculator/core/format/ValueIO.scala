@@ -14,189 +14,199 @@ object ValueIO {
   def read(ctx: FormatContext, in: DataInput): MathValue = in.readByte() match {
     case 0 => MathVoid
     case 1 =>
-      val msg = ctx.strings.get(in.readInt())
-      val len = in.readInt()
-      val trace = for (_ <- 0 until len) yield ctx.strings.get(in.readInt())
+      val msg = ctx.strings.read(in)
+      val len = ctx.readCount(in)
+      val trace = for (_ <- 0 until len) yield ctx.strings.read(in)
       MathError(msg, trace.toVector)
     case 2 => MathNumber(BigComplex.valueOf(readNumber(ctx, in)))
     case 3 => MathNumber(BigComplex.valueOf(readNumber(ctx, in), readNumber(ctx, in)))
     case 4 => MathTrue
     case 5 => MathFalse
     case 6 =>
-      val len = in.readInt()
-      val values = for (_ <- 0 until len) yield ctx.values.get(in.readInt())
+      val len = ctx.readCount(in)
+      val values = for (_ <- 0 until len) yield ctx.values.read(in)
       MathList(values.toVector)
     case 7 =>
-      val height = in.readInt()
-      val width = in.readInt()
-      val values = for (_ <- 0 until height) yield (for (_ <- 0 until width) yield ctx.values.get(in.readInt())).toVector
+      val height = ctx.readCount(in)
+      val width = ctx.readCount(in)
+      val values = for (_ <- 0 until height) yield (for (_ <- 0 until width) yield ctx.values.read(in)).toVector
       MathMatrix(values.toVector)
     case 8 =>
-      val degree = in.readInt()
-      val values = (for (_ <- 0 until degree) yield ctx.values.get(in.readInt())).toVector
+      val degree = ctx.readCount(in)
+      val values = (for (_ <- 0 until degree) yield ctx.values.read(in)).toVector
       if (values.exists(value => !value.isInstanceOf[MathNumber])) throw new InvalidFormatException("Corrupted format: Polynomial did contain non-numerics.")
       MathPolynomial(values.map(_.asInstanceOf[MathNumber]))
-    case 9 => ctx.functions.get(in.readInt());
+    case 9 => ctx.functions.read(in);
+    case 10 =>
+      val len = ctx.readCount(in)
+      if (len < 0) throw new InvalidFormatException("Corrupted format: Negative array length while reading integer.")
+      val data = new Array[Byte](len)
+      in.readFully(data)
+      MathInteger(BigInt(data))
     case b => throw new InvalidFormatException("Corrupted format: Unknown value type: " + b)
   }
 
   def write(ctx: FormatContext, value: MathValue, out: DataOutput): Unit = value match {
     case MathVoid => out.writeByte(0)
     case MathError(msg, trace) => out.writeByte(1)
-      out.writeInt(ctx.strings.add(msg))
-      out.writeInt(trace.length)
-      for (line <- trace) out.writeInt(ctx.strings.add(line))
+      ctx.strings.write(msg, out)
+      ctx.writeCount(out, trace.length)
+      for (line <- trace) ctx.strings.write(line, out)
+    case MathInteger(int) => out.writeByte(10)
+      val data = int.toByteArray
+      ctx.writeCount(out, data.length)
+      out.write(data)
     case MathNumber(num) if num.im == BigDec.ZERO => out.writeByte(2)
-     writeNumber(num.re, out)
+     writeNumber(ctx, num.re, out)
     case MathNumber(num) => out.writeByte(3)
-     writeNumber(num.re, out)
-     writeNumber(num.im, out)
+     writeNumber(ctx, num.re, out)
+     writeNumber(ctx, num.im, out)
     case MathTrue => out.writeByte(4)
     case MathFalse => out.writeByte(5)
     case MathList(values) => out.writeByte(6)
-      out.writeInt(values.length)
-      for (elem <- values) out.writeInt(ctx.values.add(elem))
+      ctx.writeCount(out, values.length)
+      for (elem <- values) ctx.values.write(elem, out)
     case mat @ MathMatrix(values) => out.writeByte(7)
-      out.writeInt(mat.height)
-      out.writeInt(mat.width)
-      for (col <- values; elem <- col) out.writeInt(ctx.values.add(elem))
+      ctx.writeCount(out, mat.height)
+      ctx.writeCount(out, mat.width)
+      for (col <- values; elem <- col) ctx.values.write(elem, out)
     case pol: MathPolynomial => out.writeByte(8)
-      out.writeInt(pol.coefficients.length)
-      for (elem <- pol.coefficients) out.writeInt(ctx.values.add(elem))
+      ctx.writeCount(out, pol.coefficients.length)
+      for (elem <- pol.coefficients) ctx.values.write(elem, out)
     case func: MathFunction => out.writeByte(9)
-      out.writeInt(ctx.functions.add(func))
+      ctx.functions.write(func, out)
     case _ => throw new IllegalStateException("Can't dump value: " + value + " (this is a bug!)")
   }
 
   private def readNumber(ctx: FormatContext, in: DataInput): BigDec = {
-    val scale = in.readInt()
-    val len = in.readInt()
+    val scale = ctx.readInteger(in)
+    val len = ctx.readCount(in)
     if (len < 0) throw new InvalidFormatException("Corrupted format: Negative array length while reading number.")
     val data = new Array[Byte](len)
     in.readFully(data)
     new BigDec(new BigInteger(data), scale)
   }
 
-  private def writeNumber(value: BigDec, out: DataOutput): Unit = {
+  private def writeNumber(ctx: FormatContext, value: BigDec, out: DataOutput): Unit = {
     val strippedValue = Util.safeStripTrailingZeros(value)
-    out.writeInt(strippedValue.scale)
+    ctx.writeInteger(out, strippedValue.scale)
     val data = strippedValue.unscaledValue.toByteArray
-    out.writeInt(data.length)
+    ctx.writeCount(out, data.length)
     out.write(data)
   }
 
   def readFunction(ctx: FormatContext, in: DataInput): MathFunction = in.readByte() match {
     case 0 =>
-      val name = ctx.strings.get(in.readInt())
+      val name = ctx.strings.read(in)
       ctx.specials(name) match {
         case func: MathFunction => func
         case value => throw new InvalidFormatException("Corrupted format: Special does not yield a function: " + value)
       }
     case 1 =>
-      val sig = ctx.signatures.get(in.readInt())
-      val code = ctx.ast.get(in.readInt())
-      val defCode = ctx.ast.get(in.readInt())
+      val sig = ctx.signatures.read(in)
+      val code = ctx.ast.read(in)
+      val defCode = ctx.ast.read(in)
       new LambdaFunction(sig, code, defCode)
     case 2 =>
-      val name = ctx.strings.get(in.readInt())
-      val len = in.readInt()
-      val map = for (_ <- 0 until len) yield AstIO.readDescriptor(in) -> ctx.functions.get(in.readInt())
+      val name = ctx.strings.read(in)
+      val len = ctx.readCount(in)
+      val map = for (_ <- 0 until len) yield AstIO.readDescriptor(ctx, in) -> ctx.functions.read(in)
       new GlobalFunction(name, map.toMap)
-    case 3 => new OperatorFunction(ctx.strings.get(in.readInt()), ctx.functions.get(in.readInt()))
-    case 4 => new BracketFunction(ctx.strings.get(in.readInt()), ctx.strings.get(in.readInt()), ctx.functions.get(in.readInt()))
+    case 3 => new OperatorFunction(ctx.strings.read(in), ctx.functions.read(in))
+    case 4 => new BracketFunction(ctx.strings.read(in), ctx.strings.read(in), ctx.functions.read(in))
     case 5 =>
-      val name = ctx.strings.get(in.readInt())
-      val priority = in.readInt()
+      val name = ctx.strings.read(in)
+      val priority = ctx.readInteger(in)
       val mask = in.readByte()
-      val function1 = if ((mask & 0x1) != 0) Some(ctx.functions.get(in.readInt())) else None
-      val functionN = if ((mask & 0x2) != 0) Some(ctx.functions.get(in.readInt())) else None
+      val function1 = if ((mask & 0x1) != 0) Some(ctx.functions.read(in)) else None
+      val functionN = if ((mask & 0x2) != 0) Some(ctx.functions.read(in)) else None
       new ChainedOperatorFunction(name, priority, function1, functionN)
     case 6 =>
-      val value = ctx.values.get(in.readInt())
-      val len = in.readInt()
-      val args = for (_ <- 0 until len) yield if (in.readBoolean()) Some(ctx.values.get(in.readInt())) else None
+      val value = ctx.values.read(in)
+      val len = ctx.readCount(in)
+      val args = for (_ <- 0 until len) yield if (in.readBoolean()) Some(ctx.values.read(in)) else None
       PartialAppliedFunction.create(value, args.toVector)
     case 7 =>
-      val len = in.readInt()
+      val len = ctx.readCount(in)
       val entries = for (_ <- 0 until len) yield {
-        val sig = ctx.signatures.get(in.readInt())
+        val sig = ctx.signatures.read(in)
         val argGuards = for (_ <- sig.names.indices) yield if (in.readBoolean()) {
-          Some(ctx.functions.get(in.readInt()))
+          Some(ctx.functions.read(in))
         } else {
           None
         }
         val mainGuard = if (in.readBoolean()) {
-          Some(ctx.functions.get(in.readInt()))
+          Some(ctx.functions.read(in))
         } else {
           None
         }
-        val code = ctx.functions.get(in.readInt())
+        val code = ctx.functions.read(in)
         new MatchFunctionEntry(sig, argGuards.toVector, mainGuard, code)
       }
-      val defCode = ctx.ast.get(in.readInt())
+      val defCode = ctx.ast.read(in)
       new MatchFunction(entries.toVector, defCode)
-    case 8 => new MemoizedFunction(ctx.functions.get(in.readInt()))
-    case 9 => new SelfReferenceFunction(ctx.values.get(in.readInt()))
+    case 8 => new MemoizedFunction(ctx.functions.read(in))
+    case 9 => new SelfReferenceFunction(ctx.values.read(in))
     case b => throw new InvalidFormatException("Corrupted format: Unknown function type: " + b)
   }
   
   def writeFunction(ctx: FormatContext, func: MathFunction, out: DataOutput): Unit = func match {
     case special: SpecialFunction => out.writeByte(0)
-      out.writeInt(ctx.strings.add(special.name))
+      ctx.strings.write(special.name, out)
     case lambda: LambdaFunction => out.writeByte(1)
-      out.writeInt(ctx.signatures.add(lambda.sig))
-      out.writeInt(ctx.ast.add(lambda.code))
-      out.writeInt(ctx.ast.add(lambda.definitionCode))
+      ctx.signatures.write(lambda.sig, out)
+      ctx.ast.write(lambda.code, out)
+      ctx.ast.write(lambda.definitionCode, out)
     case global: GlobalFunction => out.writeByte(2)
-      out.writeInt(ctx.strings.add(global.name))
-      out.writeInt(global.map.size)
+      ctx.strings.write(global.name, out)
+      ctx.writeCount(out, global.map.size)
       for ((k, v) <- global.map) {
-        AstIO.writeDescriptor(k, out)
-        out.writeInt(ctx.functions.add(v))
+        AstIO.writeDescriptor(ctx, k, out)
+        ctx.functions.write(v, out)
       }
     case op: OperatorFunction => out.writeByte(3)
-      out.writeInt(ctx.strings.add(op.name))
-      out.writeInt(ctx.functions.add(op.function))
+      ctx.strings.write(op.name, out)
+      ctx.functions.write(op.function, out)
     case op: BracketFunction => out.writeByte(4)
-      out.writeInt(ctx.strings.add(op.open))
-      out.writeInt(ctx.strings.add(op.close))
-      out.writeInt(ctx.functions.add(op.function))
+      ctx.strings.write(op.open, out)
+      ctx.strings.write(op.close, out)
+      ctx.functions.write(op.function, out)
     case op: ChainedOperatorFunction => out.writeByte(5)
-      out.writeInt(ctx.strings.add(op.name))
-      out.writeInt(op.priority)
+      ctx.strings.write(op.name, out)
+      ctx.writeInteger(out, op.priority)
       val mask = (0x1 * op.function1.size) | (0x2 * op.functionN.size)
       out.writeByte(mask)
-      if (op.function1.isDefined) out.writeInt(ctx.functions.add(op.function1.get))
-      if (op.functionN.isDefined) out.writeInt(ctx.functions.add(op.functionN.get))
+      if (op.function1.isDefined) ctx.functions.write(op.function1.get, out)
+      if (op.functionN.isDefined) ctx.functions.write(op.functionN.get, out)
     case partial: PartialAppliedFunction => out.writeByte(6)
-      out.writeInt(ctx.values.add(partial.value))
-      out.writeInt(partial.partialArgs.length)
+      ctx.values.write(partial.value, out)
+      ctx.writeCount(out, partial.partialArgs.length)
       for (arg <- partial.partialArgs) arg match {
         case Some(a) => out.writeBoolean(true)
-          out.writeInt(ctx.values.add(a))
+          ctx.values.write(a, out)
         case None => out.writeBoolean(false)
       }
     case matched: MatchFunction => out.writeByte(7)
-      out.writeInt(matched.entries.length)
+      ctx.writeCount(out, matched.entries.length)
       for (entry <- matched.entries) {
-        out.writeInt(ctx.signatures.add(entry.sig))
+        ctx.signatures.write(entry.sig, out)
         for (guard <- entry.elementGuards) guard match {
           case Some(func) => out.writeBoolean(true)
-            out.writeInt(ctx.functions.add(func))
+            ctx.functions.write(func, out)
           case None => out.writeBoolean(false)
         }
         entry.mainGuard match {
           case Some(func) => out.writeBoolean(true)
-            out.writeInt(ctx.functions.add(func))
+            ctx.functions.write(func, out)
           case None => out.writeBoolean(false)
         }
-        out.writeInt(ctx.functions.add(entry.code))
+        ctx.functions.write(entry.code, out)
       }
-      out.writeInt(ctx.ast.add(matched.definitionCode))
+      ctx.ast.write(matched.definitionCode, out)
     case memoized: MemoizedFunction => out.writeByte(8)
-      out.writeInt(ctx.functions.add(memoized.function))
+      ctx.functions.write(memoized.function, out)
     case selfReference: SelfReferenceFunction => out.writeByte(9)
-      out.writeInt(ctx.values.add(selfReference.value))
+      ctx.values.write(selfReference.value, out)
     case _ => throw new IllegalStateException("Can't dump function: " + func + " (this is a bug!)")
   }
 }
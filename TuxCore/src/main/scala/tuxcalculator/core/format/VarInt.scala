@@ -0,0 +1,53 @@
+package tuxcalculator.core.format
+
+import java.io.{DataInput, DataOutput}
+import java.nio.charset.StandardCharsets
+
+// LEB128 variable length integers: 7 bits per byte, the high bit is set on all but the last byte. Signed values
+// are zigzag encoded first, so small negative values stay small.
+object VarInt {
+
+  def writeUnsigned(out: DataOutput, value: Int): Unit = {
+    var remaining = value
+    while ((remaining & ~0x7F) != 0) {
+      out.writeByte((remaining & 0x7F) | 0x80)
+      remaining >>>= 7
+    }
+    out.writeByte(remaining)
+  }
+
+  def readUnsigned(in: DataInput): Int = {
+    var value = 0
+    var shift = 0
+    var byte = in.readUnsignedByte()
+    while ((byte & 0x80) != 0) {
+      value |= (byte & 0x7F) << shift
+      shift += 7
+      if (shift > 28) throw new InvalidFormatException("Corrupted format: Variable length integer is too long.")
+      byte = in.readUnsignedByte()
+    }
+    value | (byte << shift)
+  }
+
+  def writeSigned(out: DataOutput, value: Int): Unit = writeUnsigned(out, (value << 1) ^ (value >> 31))
+
+  def readSigned(in: DataInput): Int = {
+    val raw = readUnsigned(in)
+    (raw >>> 1) ^ -(raw & 1)
+  }
+
+  // Unlike writeUTF, this is not limited to 65535 bytes.
+  def writeString(out: DataOutput, value: String): Unit = {
+    val data = value.getBytes(StandardCharsets.UTF_8)
+    writeUnsigned(out, data.length)
+    out.write(data)
+  }
+
+  def readString(in: DataInput): String = {
+    val len = readUnsigned(in)
+    if (len < 0) throw new InvalidFormatException("Corrupted format: Negative string length.")
+    val data = new Array[Byte](len)
+    in.readFully(data)
+    new String(data, StandardCharsets.UTF_8)
+  }
+}
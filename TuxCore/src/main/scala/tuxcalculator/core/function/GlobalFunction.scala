@@ -15,17 +15,39 @@ class GlobalFunction(val name: String, val map: Map[Descriptor, MathFunction] =
   // Need to make a new function as all values are immutable
   def extend(sig: Signature, func: MathFunction): GlobalFunction = new GlobalFunction(name, map ++ ((sig.descriptor, func) :: Nil))
   
+  // The function to call for each argument count. The last entry is used for all larger argument counts, these
+  // can only be handled by the definition with the most varargs. Built on first call as most intermediate
+  // functions created by extend are never called.
+  private[this] lazy val byArgCount: Vector[Option[MathFunction]] = {
+    val maxArgs = if (map.isEmpty) 0 else map.keys.map(_.args).max
+    Vector.tabulate(maxArgs + 2)(lookup)
+  }
+  
+  private def lookup(argCount: Int): Option[MathFunction] = map.get(Descriptor(argCount, vararg = false)) match {
+    case Some(func) => Some(func)
+    case None =>
+      @tailrec
+      def lookupVararg(len: Int): Option[MathFunction] = map.get(Descriptor(len, vararg = true)) match {
+        case Some(func) => Some(func)
+        case None if len == 0 => None
+        case None => lookupVararg(len - 1)
+      }
+      lookupVararg(argCount + 1) // We can call at most vararg with one more parameter (where vararg gets an empty list)
+  }
+  
   override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
-    map.get(Descriptor(args.length, vararg = false)) match {
-      case Some(func) => func.applyTo(calc, args)
-      case None =>
-        @tailrec
-        def tryApplyVararg(len: Int): MathValue = map.get(Descriptor(len, vararg = true)) match {
-          case Some(func) => func.applyTo(calc, args)
-          case None if len == 0 => MathError("Function '" + name + "' is not defined for " + args.length + " arguments.")
-          case None => tryApplyVararg(len - 1)
+    val table = byArgCount
+    table(args.length min (table.length - 1)) match {
+      case Some(func) =>
+        val start = calc.stats.start()
+        val profiled = calc.profiler.enter(name)
+        try {
+          func.applyTo(calc, args)
+        } finally {
+          if (profiled) calc.profiler.exit()
+          calc.stats.function(name, start)
         }
-        tryApplyVararg(args.length + 1) // We can call at most vararg with one more parameter (where vararg gets an empty list)
+      case None => MathError("Function '" + name + "' is not defined for " + args.length + " arguments.")
     }
   }
 }
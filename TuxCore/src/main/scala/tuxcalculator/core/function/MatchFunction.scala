@@ -1,8 +1,10 @@
 package tuxcalculator.core.function
 
 import tuxcalculator.core.Calculator
+import tuxcalculator.core.data.SpecialFunction
 import tuxcalculator.core.expression.Ast
 import tuxcalculator.core.expression.Ast.Signature
+import tuxcalculator.core.special.TestOperators
 import tuxcalculator.core.value._
 
 import scala.annotation.tailrec
@@ -11,14 +13,13 @@ class MatchFunction(val entries: Vector[MatchFunctionEntry], val definitionCode:
   override def string(calc: Calculator): String = definitionCode.string(calc)
   override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
     @tailrec
-    def applyToFirst(theEntries: List[MatchFunctionEntry]): MathValue = theEntries match {
-      case head :: tail => head.tryApply(calc, args) match {
-        case Some(result) => result
-        case None => applyToFirst(tail)
-      }
-      case Nil => MathError("Function is not defined for arguments (" + args.map(arg => calc.format(arg)).mkString(", ") + ")")
+    def applyFrom(idx: Int): MathValue = if (idx >= entries.length) {
+      MathError("Function is not defined for arguments (" + args.map(arg => calc.format(arg)).mkString(", ") + ")")
+    } else entries(idx).tryApply(calc, args) match {
+      case Some(result) => result
+      case None => applyFrom(idx + 1)
     }
-    applyToFirst(entries.toList)
+    applyFrom(0)
   }
 }
 
@@ -29,20 +30,18 @@ class MatchFunction(val entries: Vector[MatchFunctionEntry], val definitionCode:
 class MatchFunctionEntry(val sig: Signature, val elementGuards: Vector[Option[MathFunction]], val mainGuard: Option[MathFunction], val code: MathFunction) {
   if (sig.names.length != elementGuards.length) throw new IllegalArgumentException("Guard count does not match signature. This is a bug.")
   
+  private[this] val compiledGuards: Vector[Option[MatchFunctionEntry.ElementGuard]] = elementGuards.map(_.map(MatchFunctionEntry.compileGuard))
+  
   def tryApply(calc: Calculator, args: Vector[MathValue]): Option[MathValue] = {
     LambdaFunction.makeArgValues(sig, args) match {
       case Some(argValues) =>
         @tailrec
-        def checkElementGuards(theGuards: List[(MathValue, Option[MathFunction])]): Either[Boolean, MathValue] = theGuards match {
-          case (value, guard) :: tail => checkGuard(calc, Vector(value), guard.map(_.applyTo(calc, Vector()))) match {
-            case Left(true) => checkElementGuards(tail)
-            case Left(false) => Left(false)
-            case Right(err) => Right(err)
-          }
-          case Nil => Left(true)
+        def checkElementGuards(idx: Int): Either[Boolean, MathValue] = if (idx >= argValues.length) Left(true) else checkElementGuard(calc, argValues(idx), compiledGuards(idx)) match {
+          case Left(true) => checkElementGuards(idx + 1)
+          case result => result
         }
 
-        checkElementGuards((argValues zip elementGuards).toList) match {
+        checkElementGuards(0) match {
           case Left(true) => checkGuard(calc, args, mainGuard) match {
             case Left(true) => Some(code.applyTo(calc, args))
             case Left(false) => None
@@ -55,12 +54,50 @@ class MatchFunctionEntry(val sig: Signature, val elementGuards: Vector[Option[Ma
     }
   }
   
+  private def checkElementGuard(calc: Calculator, value: MathValue, guard: Option[MatchFunctionEntry.ElementGuard]): Either[Boolean, MathValue] = guard match {
+    case Some(MatchFunctionEntry.TypeGuard(test)) => Left(test(value))
+    case Some(MatchFunctionEntry.ValueGuard(guardFunc)) => checkGuard(calc, Vector(value), Some(guardFunc))
+    case Some(MatchFunctionEntry.LazyGuard(guardFunc)) => checkGuard(calc, Vector(value), Some(guardFunc.applyTo(calc, Vector())))
+    case None => Left(true)
+  }
+  
   private def checkGuard(calc: Calculator, values: Vector[MathValue], guard: Option[MathValue]): Either[Boolean, MathValue] = guard match {
     case Some(guardFunc) => guardFunc.applyTo(calc, values) match {
       case MathVoid => Right(MathVoid)
-      case err: MathError => Right(err.trace("Used as guard with (" + values.map(calc.format).mkString(", ") + ")"))
-      case resultValue => ValueHelper.make(calc) { ValueHelper.boolean(resultValue) }
+      case err: MathError => Right(err.trace("Used as guard with (" + values.map(calc.formatInTrace).mkString(", ") + ")"))
+      case resultValue => ValueHelper.make(calc) { implicit calc => ValueHelper.boolean(resultValue) }
     }
     case None => Left(true)
   }
 }
+
+object MatchFunctionEntry {
+  
+  // How an element guard is checked, decided once when the entry is created.
+  sealed trait ElementGuard
+  // The guard is a special that tests the kind of value, so the value can be tested directly.
+  case class TypeGuard(test: MathValue => Boolean) extends ElementGuard
+  // The guard was already bound to a value, so there is nothing left to resolve.
+  case class ValueGuard(guard: MathFunction) extends ElementGuard
+  // The guard must be resolved on every call as it may depend on the current bindings.
+  case class LazyGuard(guard: MathFunction) extends ElementGuard
+  
+  private def compileGuard(guard: MathFunction): ElementGuard = guard match {
+    case lambda: LambdaFunction if lambda.sig.names.isEmpty && !lambda.sig.vararg => boundValue(lambda.code) match {
+      case Some(special: SpecialFunction) => TestOperators.typeTest(special.name) match {
+        case Some(test) => TypeGuard(test)
+        case None => ValueGuard(special)
+      }
+      case Some(func: MathFunction) => ValueGuard(func)
+      case _ => LazyGuard(guard)
+    }
+    case _ => LazyGuard(guard)
+  }
+  
+  @tailrec
+  private def boundValue(code: Ast.Expression): Option[MathValue] = code match {
+    case Ast.Group(nested) => boundValue(nested)
+    case Ast.Value(value) => Some(value)
+    case _ => None
+  }
+}
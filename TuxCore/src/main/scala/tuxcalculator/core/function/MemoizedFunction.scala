@@ -30,7 +30,17 @@ class MemoizedFunction(val function: MathFunction) extends MathFunction {
       makeNewCache()
       _precision = calc.precision
     }
-    cache.getOrElseUpdate(args, function.applyTo(calc, args))
+    val theCache = cache
+    theCache.get(args) match {
+      case Some(result) =>
+        calc.stats.memoize(hit = true)
+        result
+      case None =>
+        calc.stats.memoize(hit = false)
+        val result = function.applyTo(calc, args)
+        theCache(args) = result
+        result
+    }
   }
   override def string(calc: Calculator): String = function.string(calc)
 }
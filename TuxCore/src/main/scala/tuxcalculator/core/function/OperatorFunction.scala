@@ -6,12 +6,27 @@ import tuxcalculator.core.value.{MathError, MathFunction, MathValue}
 
 class OperatorFunction(val name: String, val function: MathFunction) extends MathFunction {
   override def string(calc: Calculator): String = name
-  override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = function.applyTo(calc, args)
+  override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
+    val profiled = calc.profiler.enter(name)
+    try {
+      function.applyTo(calc, args)
+    } finally {
+      if (profiled) calc.profiler.exit()
+    }
+  }
 }
 
 class BracketFunction(val open: String, val close: String, val function: MathFunction) extends MathFunction {
+  private[this] val frame: String = open + close
   override def string(calc: Calculator): String = open + calc.format(FmtCode.VarArg) + close
-  override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = function.applyTo(calc, args)
+  override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
+    val profiled = calc.profiler.enter(frame)
+    try {
+      function.applyTo(calc, args)
+    } finally {
+      if (profiled) calc.profiler.exit()
+    }
+  }
 }
 
 class ChainedOperatorFunction(val name: String, val priority: Int, val function1: Option[MathFunction], val functionN: Option[MathFunction]) extends MathFunction {
@@ -51,10 +51,19 @@ class Lexer {
 
   private[this] val catCodes: CatCodes = new CatCodes
   private[this] val fmtCodes: FmtCodes = new FmtCodes
+  // Changes whenever a catcode or tokcode changes, so results depending on them can be cached.
+  private[this] var _version: Int = 0
 
+  def version: Int = _version
   def catCode(codePoint: Int): CatCode = this.catCodes.catCode(codePoint)
-  def catCode(codePoint: Int, code: CatCode): Unit = this.catCodes.catCode(codePoint, code)
-  def tokCode(token: String, code: CatCode): Unit = this.catCodes.tokCode(Util.decomposeString(token), code)
+  def catCode(codePoint: Int, code: CatCode): Unit = {
+    this.catCodes.catCode(codePoint, code)
+    _version += 1
+  }
+  def tokCode(token: String, code: CatCode): Unit = {
+    this.catCodes.tokCode(Util.decomposeString(token), code)
+    _version += 1
+  }
   def fmtCode(code: FmtCode, format: String): Unit = this.fmtCodes.fmtCode(code, format)
   def escapeCodePoints: Set[Int] = this.catCodes.escapeCodePoints
   def allChangedCatCodes: Map[Int, CatCode] = this.catCodes.allChangedCatCodes
@@ -7,35 +7,89 @@ import java.math.{MathContext, RoundingMode, BigDecimal => BigDec}
 
 object IncompleteGamma {
   
+  // Guard digits for the continued fraction, which does not suffer from cancellation like the series does.
+  private val GUARD_DIGITS = 10
+  
+  // Upper incomplete gamma function Gamma(p,x)
   def gamma(p: BigComplex, x: BigComplex, mc: MathContext): BigComplex = {
     if (BigComplex.ZERO.equals(x)) return gammaC(p, mc)
     if (BigComplex.ZERO.equals(p)) return gammaP0(x, mc)
-    val theMc = new MathContext(mc.getPrecision << 1, RoundingMode.HALF_EVEN)
-    val gammaP: BigComplex = gammaC(p, theMc)
-    val sum = gammaSum(p, x, mc, theMc)
-    val lGammaN = BigComplexMath.pow(x, p, theMc).multiply(BigComplexMath.exp(x.negate(), theMc)).multiply(sum, theMc)
-    gammaP.subtract(lGammaN.multiply(gammaP, theMc), theMc).round(mc)
+    if (p.isReal && isNonPositiveInt(p.re)) ValueHelper.error("Gamma(" + p.re + ") is undefined")
+    if (useContinuedFraction(p, x, mc)) {
+      val theMc = new MathContext(mc.getPrecision + GUARD_DIGITS, RoundingMode.HALF_EVEN)
+      powExp(p, x, theMc).multiply(continuedFraction(p, x, mc, theMc), theMc).round(mc)
+    } else {
+      val theMc = new MathContext(mc.getPrecision << 1, RoundingMode.HALF_EVEN)
+      val gammaP: BigComplex = gammaC(p, theMc)
+      val lowerGamma = powExp(p, x, theMc).multiply(series(p, x, mc, theMc), theMc)
+      gammaP.subtract(lowerGamma, theMc).round(mc)
+    }
+  }
+  
+  // The continued fraction converges quickly for large x, the series needs more than |x| terms there and loses
+  // precision as Gamma(p,x) becomes tiny compared to Gamma(p).
+  private def useContinuedFraction(p: BigComplex, x: BigComplex, mc: MathContext): Boolean = {
+    x.re.compareTo(p.abs(mc).add(BigDec.ONE, mc)) > 0
+  }
+  
+  // x^p * e^(-x)
+  private def powExp(p: BigComplex, x: BigComplex, theMc: MathContext): BigComplex = {
+    BigComplexMath.exp(p.multiply(BigComplexMath.log(x, theMc), theMc).subtract(x, theMc), theMc)
   }
   
-  private def gammaSum(p: BigComplex, x: BigComplex, checkMc: MathContext, theMc: MathContext): BigComplex = {
-    // gamma(p,x)/Gamma(p)
+  private def series(p: BigComplex, x: BigComplex, checkMc: MathContext, theMc: MathContext): BigComplex = {
+    // gamma(p,x) / (x^p * e^(-x)) = sum x^k / (p * (p+1) * ... * (p+k))
+    // Each term follows from the previous one, so no powers or Gamma values are needed per term.
     var last: BigComplex = null
-    var sum: BigComplex = BigComplex.ZERO
+    var term: BigComplex = BigComplex.ONE.divide(p, theMc)
+    var sum: BigComplex = term
     var k: Int = 0
     while (last != sum.round(checkMc)) {
       last = sum.round(checkMc)
-      val xk: BigComplex = BigComplexMath.pow(x, k, theMc)
-      val gamma: BigComplex = gammaC(p.add(BigComplex.valueOf(k), theMc).add(BigComplex.ONE, theMc), theMc)
-      sum = sum.add(xk.divide(gamma, theMc), theMc)
       k += 1
+      term = term.multiply(x, theMc).divide(p.add(BigComplex.valueOf(k), theMc), theMc)
+      sum = sum.add(term, theMc)
     }
     sum
   }
-
+  
+  private def continuedFraction(p: BigComplex, x: BigComplex, checkMc: MathContext, theMc: MathContext): BigComplex = {
+    // Gamma(p,x) / (x^p * e^(-x)) = 1/(x+1-p- 1*(1-p)/(x+3-p- 2*(2-p)/(x+5-p- ...)))
+    // Evaluated with the modified Lentz method.
+    val tiny = BigComplex.valueOf(BigDec.ONE.movePointLeft(theMc.getPrecision << 1))
+    val epsilon = BigDec.ONE.movePointLeft(checkMc.getPrecision + 1)
+    var b: BigComplex = x.add(BigComplex.ONE, theMc).subtract(p, theMc)
+    var c: BigComplex = BigComplex.ONE.divide(tiny, theMc)
+    var d: BigComplex = BigComplex.ONE.divide(b, theMc)
+    var result: BigComplex = d
+    var i: Int = 1
+    var done: Boolean = false
+    while (!done) {
+      val iC = BigComplex.valueOf(i)
+      val an = iC.multiply(iC.subtract(p, theMc), theMc).negate()
+      b = b.add(MathHelper.C_TWO, theMc)
+      d = an.multiply(d, theMc).add(b, theMc)
+      if (BigComplex.ZERO.equals(d)) d = tiny
+      c = b.add(an.divide(c, theMc), theMc)
+      if (BigComplex.ZERO.equals(c)) c = tiny
+      d = BigComplex.ONE.divide(d, theMc)
+      val delta = d.multiply(c, theMc)
+      result = result.multiply(delta, theMc)
+      done = delta.subtract(BigComplex.ONE, theMc).abs(theMc).compareTo(epsilon) < 0
+      i += 1
+    }
+    result
+  }
+  
+  private def isNonPositiveInt(p: BigDec): Boolean = {
+    val d: BigDecimal = p
+    d.isWhole && d <= 0
+  }
+  
   private def gammaR(p: BigDec, mc: MathContext): BigDec = {
     val d: BigDecimal = p
     if (d.isWhole) {
-      if (d <= 0) ValueHelper.plainError("Gamma(" + p + ") is undefined")
+      if (d <= 0) ValueHelper.error("Gamma(" + p + ") is undefined")
       else if (d.isValidInt) BigDecimalMath.factorial(d.toInt - 1).round(mc)
       else BigDecimalMath.gamma(p, mc)
     } else {
@@ -52,7 +106,7 @@ object IncompleteGamma {
   }
   
   private def gammaP0(x: BigComplex, mc: MathContext): BigComplex = {
-    if (BigComplex.ZERO.equals(x)) ValueHelper.plainError("Gamma(" + x + ") is undefined")
+    if (BigComplex.ZERO.equals(x)) ValueHelper.error("Gamma(" + x + ") is undefined")
     // Special case: Our usual approach does not work when p=0 as Gamma(0) and such Gamma(p) is undefined.
     // Use the exponential integral instead.
     val theMc = new MathContext(mc.getPrecision << 1, RoundingMode.HALF_EVEN)
@@ -0,0 +1,260 @@
+package tuxcalculator.core.math
+
+import scala.collection.mutable
+
+object NumberTheory {
+
+  // Everything below this is answered by the sieve. Must fit an Int.
+  private val SieveLimit: Int = 1 << 16
+  // Largest bound for which the first 13 primes as Miller-Rabin bases are known to be deterministic.
+  private val MillerRabinBound: BigInt = BigInt("3317044064679887385961981")
+  private val MillerRabinBases: Vector[BigInt] = Vector(2, 3, 5, 7, 11, 13, 17, 19, 23, 29, 31, 37, 41).map(BigInt(_))
+  // Pollard rho needs about sqrt(p) steps to find a factor p, so this finds factors up to about 2^38 within a few
+  // seconds. Numbers with only larger prime factors are not factored.
+  private val PollardMaxSteps: Int = 1 << 19
+  private val PollardMaxAttempts: Int = 3
+
+  // Bit is set for composite numbers. Built once on first use, its size is fixed by SieveLimit.
+  private lazy val composite: java.util.BitSet = {
+    val bits = new java.util.BitSet(SieveLimit)
+    bits.set(0)
+    bits.set(1)
+    var p = 2
+    while (p * p < SieveLimit) {
+      if (!bits.get(p)) {
+        var multiple = p * p
+        while (multiple < SieveLimit) {
+          bits.set(multiple)
+          multiple += p
+        }
+      }
+      p += 1
+    }
+    bits
+  }
+
+  private lazy val smallPrimes: Vector[Int] = (2 until SieveLimit).filter(n => !composite.get(n)).toVector
+
+  def isPrime(n: BigInt): Boolean = {
+    if (n < SieveLimit) {
+      n >= 2 && !composite.get(n.toInt)
+    } else if (smallPrimes.iterator.takeWhile(_ < 1000).exists(p => n % p == 0)) {
+      false
+    } else if (n < MillerRabinBound) {
+      MillerRabinBases.forall(base => strongProbablePrime(n, base))
+    } else {
+      // Baillie-PSW: no counterexample is known.
+      strongProbablePrime(n, 2) && strongLucasProbablePrime(n)
+    }
+  }
+
+  // Prime factors in ascending order with their multiplicity. n must be positive. step is called regularly while
+  // splitting large numbers, so the caller can stop a factorization that takes too long.
+  def factor(n: BigInt, step: () => Unit): Vector[(BigInt, Int)] = {
+    if (n <= 0) throw new ArithmeticException("Can only factor positive integers.")
+    val factors = mutable.Map[BigInt, Int]()
+    var remaining = n
+    val primes = smallPrimes.iterator
+    while (remaining >= SieveLimit && primes.hasNext) {
+      val p = primes.next()
+      if (BigInt(p) * p > remaining) {
+        factors(remaining) = factors.getOrElse(remaining, 0) + 1
+        remaining = 1
+      } else {
+        while (remaining % p == 0) {
+          factors(p) = factors.getOrElse(p, 0) + 1
+          remaining /= p
+        }
+      }
+    }
+    if (remaining < SieveLimit) {
+      // The remaining part is small, so we can divide it directly.
+      var p = 2
+      while (p * p <= remaining) {
+        while (remaining % p == 0) {
+          factors(p) = factors.getOrElse(p, 0) + 1
+          remaining /= p
+        }
+        p += 1
+      }
+      if (remaining > 1) factors(remaining) = factors.getOrElse(remaining, 0) + 1
+    } else {
+      splitLarge(remaining, factors, step)
+    }
+    factors.toVector.sortBy(_._1)
+  }
+
+  // n must be positive.
+  def totient(n: BigInt, step: () => Unit): BigInt = factor(n, step).foldLeft(BigInt(1)) {
+    case (result, (p, k)) => result * (p - 1) * p.pow(k - 1)
+  }
+
+  // Most significant digit first. n must not be negative and the base must be at least 2.
+  def digits(base: BigInt, n: BigInt): Vector[BigInt] = {
+    if (base < 2) throw new ArithmeticException("Invalid digit base.")
+    if (n < 0) throw new ArithmeticException("Can only get digits of positive integers.")
+    if (base <= Character.MAX_RADIX) {
+      if (n == 0) Vector() else n.toString(base.toInt).map(chr => BigInt(Character.digit(chr, base.toInt))).toVector
+    } else {
+      val digits = mutable.ArrayBuffer[BigInt]()
+      var remaining = n
+      while (remaining > 0) {
+        val (quot, rem) = remaining /% base
+        digits.addOne(rem)
+        remaining = quot
+      }
+      digits.reverseIterator.toVector
+    }
+  }
+
+  // n has no factors below the sieve limit.
+  private def splitLarge(n: BigInt, factors: mutable.Map[BigInt, Int], step: () => Unit): Unit = {
+    if (isPrime(n)) {
+      factors(n) = factors.getOrElse(n, 0) + 1
+    } else {
+      var c = BigInt(1)
+      var divisor = pollardBrent(n, c, step)
+      while (divisor == n) {
+        if (c >= PollardMaxAttempts) throw new ArithmeticException("Can't factor " + n + ", its prime factors are too large.")
+        c += 1
+        divisor = pollardBrent(n, c, step)
+      }
+      splitLarge(divisor, factors, step)
+      splitLarge(n / divisor, factors, step)
+    }
+  }
+
+  // Brent's variant of pollard rho. Yields n itself, if no divisor was found for c within PollardMaxSteps.
+  private def pollardBrent(n: BigInt, c: BigInt, step: () => Unit): BigInt = {
+    val batch = 128
+    def next(value: BigInt): BigInt = (value * value + c) mod n
+    var y = BigInt(2)
+    var x = y
+    var ys = y
+    var q = BigInt(1)
+    var g = BigInt(1)
+    var r = 1
+    while (g == 1) {
+      if (r > PollardMaxSteps) return n
+      x = y
+      for (_ <- 0 until r) y = next(y)
+      var k = 0
+      while (k < r && g == 1) {
+        step()
+        ys = y
+        for (_ <- 0 until (batch min (r - k))) {
+          y = next(y)
+          q = (q * (x - y).abs) mod n
+        }
+        g = q gcd n
+        k += batch
+      }
+      r <<= 1
+    }
+    if (g == n) {
+      // The batched product hit zero, retrace the last batch one step at a time.
+      g = BigInt(1)
+      while (g == 1) {
+        ys = next(ys)
+        g = (x - ys).abs gcd n
+      }
+    }
+    g
+  }
+
+  private def strongProbablePrime(n: BigInt, base: BigInt): Boolean = {
+    val nm1 = n - 1
+    val s = nm1.lowestSetBit
+    var x = base.modPow(nm1 >> s, n)
+    if (x == 1 || x == nm1) return true
+    var i = 1
+    while (i < s) {
+      x = (x * x) mod n
+      if (x == nm1) return true
+      if (x == 1) return false
+      i += 1
+    }
+    false
+  }
+
+  // Strong lucas test with parameters chosen by Selfridge's method A. n must be odd and larger than the sieve limit.
+  private def strongLucasProbablePrime(n: BigInt): Boolean = {
+    if (isSquare(n)) return false
+    var d = BigInt(5)
+    while (jacobi(d, n) != -1) {
+      d = if (d.signum > 0) -(d + 2) else -d + 2
+    }
+    val p = BigInt(1)
+    val q = (BigInt(1) - d) / 4
+    def half(value: BigInt): BigInt = {
+      val v = value mod n
+      (if (v.testBit(0)) v + n else v) >> 1
+    }
+
+    val np1 = n + 1
+    val s = np1.lowestSetBit
+    val k = np1 >> s
+    var u = BigInt(1)
+    var v = p
+    var qk = q mod n
+    for (bit <- (k.bitLength - 2) to 0 by -1) {
+      u = (u * v) mod n
+      v = (v * v - qk * 2) mod n
+      qk = (qk * qk) mod n
+      if (k.testBit(bit)) {
+        val nextU = half(p * u + v)
+        val nextV = half(d * u + p * v)
+        u = nextU
+        v = nextV
+        qk = (qk * q) mod n
+      }
+    }
+    if (u == 0 || v == 0) return true
+    var i = 1
+    while (i < s) {
+      v = (v * v - qk * 2) mod n
+      if (v == 0) return true
+      qk = (qk * qk) mod n
+      i += 1
+    }
+    false
+  }
+
+  // n must be odd and positive.
+  private def jacobi(a: BigInt, n: BigInt): Int = {
+    var theA = a mod n
+    var theN = n
+    var result = 1
+    while (theA != 0) {
+      while (!theA.testBit(0)) {
+        theA >>= 1
+        val r = (theN & 7).toInt
+        if (r == 3 || r == 5) result = -result
+      }
+      val tmp = theA
+      theA = theN
+      theN = tmp
+      if ((theA & 3) == 3 && (theN & 3) == 3) result = -result
+      theA = theA mod theN
+    }
+    if (theN == 1) result else 0
+  }
+
+  private def isSquare(n: BigInt): Boolean = {
+    val root = isqrt(n)
+    root * root == n
+  }
+
+  // Floor of the square root of a non-negative integer.
+  def isqrt(n: BigInt): BigInt = {
+    if (n < 0) throw new ArithmeticException("Square root of negative integer.")
+    if (n < 2) return n
+    var x = BigInt(1) << ((n.bitLength + 1) / 2)
+    var next = (x + n / x) >> 1
+    while (next < x) {
+      x = next
+      next = (x + n / x) >> 1
+    }
+    x
+  }
+}
@@ -0,0 +1,117 @@
+package tuxcalculator.core.math
+
+import ch.obermuhlner.math.big.BigComplex
+
+import java.math.{MathContext, RoundingMode, BigDecimal => BigDec}
+
+object Roots {
+
+  // Principal n-th root. n must be positive.
+  def root(x: BigComplex, n: Int, mc: MathContext): BigComplex = {
+    if (n <= 0) throw new ArithmeticException("Invalid root index: " + n)
+    if (n == 1 || x == BigComplex.ZERO) {
+      x.round(mc)
+    } else if (x.isReal && x.re.signum() > 0) {
+      BigComplex.valueOf(realRoot(x.re, n, mc))
+    } else if (x.isReal && n == 2) {
+      BigComplex.valueOf(BigDec.ZERO, realRoot(x.re.negate(), 2, mc))
+    } else {
+      complexRoot(x, n, mc)
+    }
+  }
+
+  // The exact n-th root of a non-negative integer if it is a perfect power.
+  def integerRoot(x: BigInt, n: Int): Option[BigInt] = {
+    if (n <= 0 || x.signum < 0) return None
+    if (n == 1 || x < 2) return Some(x)
+    // For these, the root is between 1 and 2
+    if (n >= x.bitLength) return None
+    var r = BigInt(1) << ((x.bitLength + n - 1) / n)
+    var next = ((n - 1) * r + x / r.pow(n - 1)) / n
+    while (next < r) {
+      r = next
+      next = ((n - 1) * r + x / r.pow(n - 1)) / n
+    }
+    if (r.pow(n) == x) Some(r) else None
+  }
+
+  // x must be positive.
+  private def realRoot(x: BigDec, n: Int, mc: MathContext): BigDec = {
+    val theMc = new MathContext(mc.getPrecision + 4, RoundingMode.HALF_EVEN)
+    val theN = BigDec.valueOf(n)
+    val theNm1 = BigDec.valueOf(n - 1)
+    def step(y: BigDec, stepMc: MathContext): BigDec = y.multiply(theNm1, stepMc).add(x.divide(y.pow(n - 1, stepMc), stepMc), stepMc).divide(theN, stepMc)
+
+    // Each newton step doubles the amount of correct digits, so there is no need to compute
+    // the early steps at full precision.
+    var y: BigDec = magnitudeGuess(log10(x), n)
+    var precision = 8
+    while (precision < theMc.getPrecision) {
+      precision = (precision << 1) min theMc.getPrecision
+      y = step(y, new MathContext(precision, RoundingMode.HALF_EVEN))
+    }
+    // Rounding may make the last digit alternate between two values, so the iteration is bounded.
+    val maxItr = Math.max(10, mc.getPrecision / 2)
+    var itr = 0
+    var next = step(y, theMc)
+    while (itr < maxItr && next.round(mc).compareTo(y.round(mc)) != 0) {
+      y = next
+      next = step(y, theMc)
+      itr += 1
+    }
+    next.round(mc)
+  }
+
+  private def complexRoot(x: BigComplex, n: Int, mc: MathContext): BigComplex = {
+    val theMc = new MathContext(mc.getPrecision + 4, RoundingMode.HALF_EVEN)
+    val theN = BigComplex.valueOf(BigDec.valueOf(n))
+    val theNm1 = BigComplex.valueOf(BigDec.valueOf(n - 1))
+    def step(y: BigComplex, stepMc: MathContext): BigComplex = y.multiply(theNm1, stepMc).add(x.divide(pow(y, n - 1, stepMc), stepMc), stepMc).divide(theN, stepMc)
+
+    // Start close enough to the principal root, so newton converges to it and not to any other root.
+    val exp = exponent(x.re) max exponent(x.im)
+    val re = x.re.scaleByPowerOfTen(-exp).doubleValue()
+    val im = x.im.scaleByPowerOfTen(-exp).doubleValue()
+    val magnitude = magnitudeGuess(exp + Math.log10(Math.hypot(re, im)), n)
+    val angle = Math.atan2(im, re) / n
+    var y: BigComplex = BigComplex.valueOf(magnitude.multiply(BigDec.valueOf(Math.cos(angle))), magnitude.multiply(BigDec.valueOf(Math.sin(angle))))
+    var precision = 8
+    while (precision < theMc.getPrecision) {
+      precision = (precision << 1) min theMc.getPrecision
+      y = step(y, new MathContext(precision, RoundingMode.HALF_EVEN))
+    }
+    val maxItr = Math.max(10, mc.getPrecision / 2)
+    var itr = 0
+    var next = step(y, theMc)
+    while (itr < maxItr && next.round(mc) != y.round(mc)) {
+      y = next
+      next = step(y, theMc)
+      itr += 1
+    }
+    next.round(mc)
+  }
+
+  private def pow(x: BigComplex, n: Int, mc: MathContext): BigComplex = n match {
+    case 0 => BigComplex.ONE
+    case 1 => x
+    case n if n % 2 == 0 =>
+      val half = pow(x, n / 2, mc)
+      half.multiply(half, mc)
+    case n => pow(x, n - 1, mc).multiply(x, mc)
+  }
+
+  // 10^(log10 / n) with double precision
+  private def magnitudeGuess(log10: Double, n: Int): BigDec = {
+    val exp = log10 / n
+    val intExp = Math.floor(exp)
+    BigDec.valueOf(Math.pow(10, exp - intExp)).scaleByPowerOfTen(intExp.toInt)
+  }
+
+  private def log10(x: BigDec): Double = {
+    val exp = exponent(x)
+    exp + Math.log10(x.scaleByPowerOfTen(-exp).doubleValue())
+  }
+
+  // Position of the most significant digit
+  private def exponent(x: BigDec): Int = if (x.signum() == 0) Int.MinValue else x.precision() - x.scale() - 1
+}
@@ -0,0 +1,373 @@
+package tuxcalculator.core.parser
+
+import tuxcalculator.core.expression.Ast
+import tuxcalculator.core.lexer.{ContextualToken, Token, TokenStream}
+import tuxcalculator.core.util.Result
+
+import scala.annotation.tailrec
+
+// Hand-written recursive descent version of CalculatorParsers working on the indices of a token stream.
+// It yields the same ast and the same errors. There is no precedence to handle here, operator chains are
+// resolved while binding.
+//
+// Backtracking follows the combinator parser: A failure lets the caller try something else, a fatal
+// failure (an Error in the combinator parser) ends parsing. When alternatives fail, the failure of the last
+// alternative is reported. Failures from nested token streams are reported after the token that holds them.
+class DescentParser(val ctx: ParsingContext) {
+
+  import DescentParser._
+
+  def expression(tokens: TokenStream): Result[Ast.Expression] = wrap(parseAll(tokens.tokens)(expression(tokens.tokens, _)))
+
+  def letCommand(tokens: TokenStream): Result[Ast.LetCommand] = wrap(parseAll(tokens.tokens)(i => identifier(tokens.tokens, i).map(name => Ast.LetCommand(name))))
+  def defCommand(tokens: TokenStream): Result[Ast.DefCommand] = wrap(parseAll(tokens.tokens)(defCommand(tokens.tokens, _)))
+  def remCommand(tokens: TokenStream): Result[Ast.RemCommand] = wrap(parseAll(tokens.tokens)(i => target(tokens.tokens, i).map(name => Ast.RemCommand(name))))
+  def setCommand(tokens: TokenStream): Result[Ast.SetCommand] = wrap(parseAll(tokens.tokens)(i => identifier(tokens.tokens, i).map(name => Ast.SetCommand(name))))
+  def catCommand(tokens: TokenStream): Result[Ast.CatCommand] = wrap(parseAll(tokens.tokens)(i => string(tokens.tokens, i, "token").map(codePoint => Ast.CatCommand(codePoint))))
+  def dumpCommand(tokens: TokenStream): Result[Ast.DumpCommand] = wrap(parseAll(tokens.tokens)(i => string(tokens.tokens, i, "file name").map(fileName => Ast.DumpCommand(fileName))))
+
+  def errorToken(tokens: TokenStream): Result[String] = wrap(parseAll(tokens.tokens)(i => tokenAt(tokens.tokens, i) match {
+    case Token.Error(msg, _, _) => Ok(msg, i + 1)
+    case _ => expected("string", tokens.tokens, i)
+  }))
+
+  private def wrap[T](result: Parsed[T]): Result[T] = result match {
+    case Ok(value, _) => Result.Value(value)
+    case Fail(msg, context, _) => Result.Error(msg) ~@ context.getOrElse("At end of line")
+  }
+
+  private def parseAll[T](ts: Tokens)(parser: Int => Parsed[T]): Parsed[T] = parser(0) match {
+    // Skipping one token gives a better error message if there are still tokens behind it.
+    case Ok(_, next) if next < ts.length => fatal("Input not fully consumed", ts, if (next + 1 >= ts.length) next else next + 1)
+    case result => result
+  }
+
+  // The result of parsing the tokens of a nested stream held by the token at i.
+  private def nested[T](result: Parsed[T], ts: Tokens, i: Int): Parsed[T] = result match {
+    case Ok(value, _) => Ok(value, i + 1)
+    case Fail(msg, _, false) => fail(msg, ts, i + 1)
+    case result => result
+  }
+
+  private def repsep[T](ts: Tokens, i: Int, sep: Token)(parser: Int => Parsed[T]): Parsed[Vector[T]] = {
+    // A failed element after a separator ends the list before that separator.
+    @tailrec
+    def elementsFrom(elems: List[T], pos: Int): Parsed[Vector[T]] = if (tokenAt(ts, pos) != sep) Ok(elems.reverseIterator.toVector, pos) else parser(pos + 1) match {
+      case Ok(elem, next) => elementsFrom(elem :: elems, next)
+      case result: Fail if result.fatal => result
+      case _ => Ok(elems.reverseIterator.toVector, pos)
+    }
+    parser(i) match {
+      case Ok(first, next) => elementsFrom(first :: Nil, next)
+      case result: Fail if result.fatal => result
+      case _ => Ok(Vector(), i)
+    }
+  }
+
+  // Utilities
+  private def identifier(ts: Tokens, i: Int): Parsed[String] = tokenAt(ts, i) match {
+    case Token.Identifier(name) => Ok(name, i + 1)
+    case _ => expected("identifier", ts, i)
+  }
+
+  private def parameter(ts: Tokens, i: Int): Parsed[(String, Boolean)] = identifier(ts, i) match {
+    case Ok(name, next) if tokenAt(ts, next) == Token.Vararg => Ok((name, true), next + 1)
+    case Ok(name, next) => Ok((name, false), next)
+    case result: Fail => result
+  }
+
+  private def signature(ts: Tokens, i: Int): Parsed[Ast.Signature] = repsep(ts, i, Token.ElementSep)(parameter(ts, _)) match {
+    case Ok(args, next) => makeSignature(args.map(_._1), args.map(_._2)) match {
+      case Some(sig) => Ok(sig, next)
+      case None => fail("Only the last parameter can be vararg", ts, next)
+    }
+    case result: Fail => result
+  }
+
+  private def guard(ts: Tokens, i: Int): Parsed[Option[Ast.Expression]] = tokenAt(ts, i) match {
+    case Token.Guard => expression(ts, i + 1) match {
+      case Ok(expr, next) => Ok(Some(expr), next)
+      case result: Fail if result.fatal => result
+      case _ => Ok(None, i)
+    }
+    case _ => Ok(None, i)
+  }
+
+  private def guardedSignature(ts: Tokens, i: Int): Parsed[(Ast.Signature, Vector[Option[Ast.Expression]])] = {
+    def guardedParameter(i: Int): Parsed[(String, Boolean, Option[Ast.Expression])] = parameter(ts, i) match {
+      case Ok((name, vararg), next) => guard(ts, next).map(guard => (name, vararg, guard))
+      case result: Fail => result
+    }
+    repsep(ts, i, Token.ElementSep)(guardedParameter) match {
+      case Ok(args, next) => makeSignature(args.map(_._1), args.map(_._2)) match {
+        case Some(sig) => Ok((sig, args.map(_._3)), next)
+        case None => fail("Only the last parameter can be vararg", ts, next)
+      }
+      case result: Fail => result
+    }
+  }
+
+  private def target(ts: Tokens, i: Int): Parsed[Ast.DefTarget] = tokenAt(ts, i) match {
+    case _ if i >= ts.length => fail("end of input", ts, i)
+    case Token.Identifier(name) => Ok(Ast.DefTarget.Function(name), i + 1)
+    case Token.Operator(name) => Ok(Ast.DefTarget.Operator(name), i + 1)
+    case Token.Sign(name) => Ok(Ast.DefTarget.SignOrOperator(name), i + 1)
+    case Token.Post(name) => Ok(Ast.DefTarget.Post(name), i + 1)
+    case Token.PrimaryBracket(_, _, tokens) if tokens.tokens.nonEmpty => fail("No tokens are allowed in bracket reference.", ts, i + 1)
+    case Token.PrimaryBracket(open, close, _) => Ok(Ast.DefTarget.PrimaryBracket(open, close), i + 1)
+    case Token.SecondaryBracket(_, _, tokens) if tokens.tokens.nonEmpty => fail("No tokens are allowed in bracket reference.", ts, i + 1)
+    case Token.SecondaryBracket(open, close, _) => Ok(Ast.DefTarget.SecondaryBracket(open, close), i + 1)
+    case Token.TertiaryBracket(_, _, tokens) if tokens.tokens.nonEmpty => fail("No tokens are allowed in bracket reference.", ts, i + 1)
+    case Token.TertiaryBracket(open, close, _) => Ok(Ast.DefTarget.TertiaryBracket(open, close), i + 1)
+    case _ => fail("identifier or operator expected", ts, i + 1)
+  }
+
+  // Basic values
+  private def value(ts: Tokens, i: Int): Parsed[Ast.Expression] = tokenAt(ts, i) match {
+    case Token.Number(integral, fraction, exponent) => ctx.parseNumber(integral, fraction, exponent) match {
+      case Result.Value(num) => Ok(Ast.Value(num), i + 1)
+      case Result.Error(msg, _) => Fail(msg, None, fatal = true)
+    }
+    case Token.Answer => Ok(Ast.Answer, i + 1)
+    case Token.Error(_, head, tail) => Ok(Ast.Error(head, tail.map(part => Ast.Error.TailPart(part.prefix, part.variableName, part.followingText))), i + 1)
+    case Token.Group(tokens) => nested(parseAll(tokens.tokens)(expression(tokens.tokens, _)).map(expr => Ast.Group(expr)), ts, i)
+    case Token.PrimaryBracket(open, close, tokens) => nested(parseAll(tokens.tokens)(expression(tokens.tokens, _)).map(expr => Ast.PrimaryBracket(open, close, expr)), ts, i)
+    case Token.SecondaryBracket(open, close, tokens) => nested(parseAll(tokens.tokens)(argumentList(tokens.tokens, _)).map(args => Ast.SecondaryBracket(open, close, args)), ts, i)
+    case Token.TertiaryBracket(open, close, tokens) => nested(parseAll(tokens.tokens)(j => repsep(tokens.tokens, j, Token.GroupSep)(expressionList(tokens.tokens, _))).map(values => Ast.TertiaryBracket(open, close, values)), ts, i)
+    case Token.Match(tokens) => nested(parseAll(tokens.tokens)(j => repsep(tokens.tokens, j, Token.GroupSep)(matchEntry(tokens.tokens, _))).map(entries => Ast.Match(entries)), ts, i)
+    case Token.Lambda(args, tokens) => nested(parseAll(args.tokens)(signature(args.tokens, _)) match {
+      case Ok(sig, _) => parseAll(tokens.tokens)(expression(tokens.tokens, _)).map(expr => Ast.Lambda(sig, expr))
+      case result: Fail => result
+    }, ts, i)
+    case _ => expected("struct", ts, i)
+  }
+
+  private def matchEntry(ts: Tokens, i: Int): Parsed[Ast.MatchEntry] = tokenAt(ts, i) match {
+    case Token.Group(tokens) => nested(parseAll(tokens.tokens)(guardedSignature(tokens.tokens, _)), ts, i) match {
+      case Ok((sig, elementGuards), afterSig) => guard(ts, afterSig) match {
+        case Ok(mainGuard, afterGuard) if tokenAt(ts, afterGuard) == Token.Follow => expression(ts, afterGuard + 1).map(expr => {
+          Ast.MatchEntry(sig, elementGuards.map(_.map(ex => Ast.DefExpression(ex, ex))), mainGuard.map(ex => Ast.DefExpression(ex, ex)), expr, expr)
+        })
+        case Ok(_, afterGuard) => expected("'Follow'", ts, afterGuard)
+        case result: Fail => result
+      }
+      case result: Fail => result
+    }
+    case _ => expected("guarded argument list", ts, i)
+  }
+
+  // value | variable | reference | special
+  private def simpleExpression(ts: Tokens, i: Int): Parsed[Ast.Expression] = tokenAt(ts, i) match {
+    case Token.Identifier(name) => Ok(Ast.Variable(name), i + 1)
+    case Token.Reference => target(ts, i + 1).map(target => Ast.Reference(target))
+    case Token.Special => identifier(ts, i + 1).map(name => Ast.Special(name))
+    case _ => value(ts, i)
+  }
+
+  private def basicExpression(ts: Tokens, i: Int): Parsed[Ast.Expression] = simpleExpression(ts, i) match {
+    case result: Fail if !result.fatal => fail("expression expected", ts, i)
+    case result => result
+  }
+
+  // Used by post actions and shorthand expressions
+  private def partialApplySimple(ts: Tokens, i: Int): Parsed[Ast.Expression] = tokenAt(ts, i) match {
+    case Token.PartialApplication => tokenAt(ts, i + 1) match {
+      case Token.Sign(sgn) => simpleExpression(ts, i + 2).map(value => Ast.SignApplication(sgn, value))
+      case _ => simpleExpression(ts, i + 1)
+    }
+    case _ => expected("'PartialApplication'", ts, i)
+  }
+
+  private def postApplication(ts: Tokens, i: Int): Parsed[PostOperation] = tokenAt(ts, i) match {
+    case Token.PartialApplication => tokenAt(ts, i + 1) match {
+      case Token.Application(tokens) => nested(parseAll(tokens.tokens)(partialArgumentList(tokens.tokens, _)), ts, i + 1).map(args => PostOperation.PartialApplication(args))
+      case _ => partialApplySimple(ts, i) match {
+        case Ok(value, next) => Ok(PostOperation.PartialApplication(Vector(value)), next)
+        case result: Fail if result.fatal => result
+        case _ => expected("application", ts, i)
+      }
+    }
+    case Token.Application(tokens) => nested(parseAll(tokens.tokens)(partialArgumentList(tokens.tokens, _)), ts, i).map(args => PostOperation.Application(args))
+    case _ => expected("application", ts, i)
+  }
+
+  private def appliedExpression(ts: Tokens, i: Int): Parsed[Ast.Expression] = basicExpression(ts, i) match {
+    case Ok(base, afterBase) =>
+      @tailrec
+      def applyFrom(expr: Ast.Expression, pos: Int): Parsed[Ast.Expression] = postApplication(ts, pos) match {
+        case Ok(op, next) => applyFrom((expr, op) match {
+          case (Ast.Variable(name), PostOperation.Application(app)) => Ast.Invocation(name, app)
+          case (Ast.Variable(name), PostOperation.PartialApplication(app)) => Ast.PartialInvocation(name, app)
+          case (expr, PostOperation.Application(app)) => Ast.Application(expr, app)
+          case (expr, PostOperation.PartialApplication(app)) => Ast.PartialApplication(expr, app)
+          case _ => throw new IllegalStateException("Parser error: Encountered invalid post operation type while parsing applications. This is a bug.")
+        }, next)
+        case result: Fail if result.fatal => result
+        case _ => Ok(expr, pos)
+      }
+      applyFrom(base, afterBase)
+    case result => result
+  }
+
+  private def signedExpression(ts: Tokens, i: Int): Parsed[Ast.Expression] = tokenAt(ts, i) match {
+    case Token.Sign(sgn) => signedExpression(ts, i + 1) match {
+      case Ok(expr, next) => Ok(Ast.SignApplication(sgn, expr), next)
+      case result: Fail if result.fatal => result
+      case _ => appliedExpression(ts, i)
+    }
+    case _ => appliedExpression(ts, i)
+  }
+
+  private def postExpression(ts: Tokens, i: Int): Parsed[Ast.Expression] = signedExpression(ts, i) match {
+    case Ok(base, afterBase) => tokenAt(ts, afterBase) match {
+      case Token.Post(name) =>
+        def postAction(pos: Int): Parsed[PostOperation] = postApplication(ts, pos) match {
+          case result: Fail if !result.fatal => tokenAt(ts, pos) match {
+            case Token.Post(name) => Ok(PostOperation.Operator(name), pos + 1)
+            case _ => result
+          }
+          case result => result
+        }
+        @tailrec
+        def applyFrom(expr: Ast.Expression, pos: Int): Parsed[Ast.Expression] = postAction(pos) match {
+          case Ok(op, next) => applyFrom(op match {
+            case PostOperation.Application(app) => Ast.Application(expr, app)
+            case PostOperation.PartialApplication(app) => Ast.PartialApplication(expr, app)
+            case PostOperation.Operator(name) => Ast.PostApplication(name, expr)
+          }, next)
+          case result: Fail if result.fatal => result
+          case _ => Ok(expr, pos)
+        }
+        applyFrom(Ast.PostApplication(name, base), afterBase + 1)
+      case _ => Ok(base, afterBase)
+    }
+    case result => result
+  }
+
+  // Tries the longest possible prefix of shorthand invocations first, followed by every shorter one
+  // down to the no-token prefix.
+  private def shorthandExpression(ts: Tokens, i: Int): Parsed[Ast.Expression] = {
+    // Calls are in reverse, the longest possibility comes first.
+    @tailrec
+    def partialTail(pos: Int, args: List[Ast.Expression]): (Vector[Ast.Expression], Int) = partialApplySimple(ts, pos) match {
+      case Ok(arg, next) => partialTail(next, arg :: args)
+      case _ => (args.reverseIterator.toVector, pos)
+    }
+    @tailrec
+    def findPossibilities(calls: List[(String, Vector[Ast.Expression])], pos: Int, found: List[(List[(String, Vector[Ast.Expression])], Int)]): List[(List[(String, Vector[Ast.Expression])], Int)] = tokenAt(ts, pos) match {
+      case Token.Identifier(name) =>
+        val (args, rest) = partialTail(pos + 1, Nil)
+        val nextCalls = (name, args) :: calls
+        findPossibilities(nextCalls, rest, (nextCalls, rest) :: found)
+      case _ => found
+    }
+    val possibilities = findPossibilities(Nil, i, (Nil, i) :: Nil)
+
+    @tailrec
+    def solution(possibilities: List[(List[(String, Vector[Ast.Expression])], Int)]): Parsed[Ast.Expression] = possibilities match {
+      case (calls, start) :: tail => postExpression(ts, start) match {
+        case Ok(expr, next) => Ok(calls.foldLeft(expr)((expr, call) => Ast.ShorthandInvocation(call._1, call._2, expr)), next)
+        case result if tail.isEmpty => result
+        case _ => solution(tail)
+      }
+      case Nil => fail("No shorthand. This is a bug.", ts, i)
+    }
+    solution(possibilities)
+  }
+
+  private def expression(ts: Tokens, i: Int): Parsed[Ast.Expression] = shorthandExpression(ts, i) match {
+    case Ok(head, afterHead) =>
+      @tailrec
+      def operators(ops: List[(String, Ast.Expression)], pos: Int): Parsed[Ast.Expression] = {
+        def done: Parsed[Ast.Expression] = if (ops.isEmpty) Ok(head, pos) else Ok(Ast.OperatorApplication(head, ops.reverseIterator.toVector), pos)
+        tokenAt(ts, pos) match {
+          case Token.Operator(op) => shorthandExpression(ts, pos + 1) match {
+            case Ok(expr, next) => operators((op, expr) :: ops, next)
+            case result: Fail if result.fatal => result
+            case _ => done
+          }
+          case _ => done
+        }
+      }
+      operators(Nil, afterHead)
+    case result => result
+  }
+
+  private def expressionList(ts: Tokens, i: Int): Parsed[Vector[Ast.Expression]] = repsep(ts, i, Token.ElementSep)(expression(ts, _))
+
+  private def argument(ts: Tokens, i: Int): Parsed[Ast.Argument] = expression(ts, i) match {
+    case Ok(expr, next) if tokenAt(ts, next) == Token.Vararg => Ok(Ast.SplattedArgument(expr), next + 1)
+    case result => result
+  }
+  private def argumentList(ts: Tokens, i: Int): Parsed[Vector[Ast.Argument]] = repsep(ts, i, Token.ElementSep)(argument(ts, _))
+
+  private def partialArgument(ts: Tokens, i: Int): Parsed[Ast.PartialArgument] = argument(ts, i) match {
+    case result: Fail if !result.fatal && tokenAt(ts, i) == Token.PartialApplication => Ok(Ast.Placeholder, i + 1)
+    case result => result
+  }
+  private def partialArgumentList(ts: Tokens, i: Int): Parsed[Vector[Ast.PartialArgument]] = repsep(ts, i, Token.ElementSep)(partialArgument(ts, _))
+
+  private def defCommand(ts: Tokens, i: Int): Parsed[Ast.DefCommand] = {
+    val (priority, afterPriority) = tokenAt(ts, i) match {
+      case Parenthesized(tokens) => nested(parseAll(tokens.tokens)(expression(tokens.tokens, _)), ts, i) match {
+        case Ok(expr, next) => (Some(expr), next)
+        case result: Fail if result.fatal => return result
+        case _ => (None, i)
+      }
+      case _ => (None, i)
+    }
+    target(ts, afterPriority) match {
+      case Ok(name, afterTarget) => tokenAt(ts, afterTarget) match {
+        case Parenthesized(tokens) => nested(parseAll(tokens.tokens)(signature(tokens.tokens, _)), ts, afterTarget).map(sig => Ast.DefCommand(name, priority, sig))
+        case _ => expected("argument list", ts, afterTarget)
+      }
+      case result: Fail => result
+    }
+  }
+
+  // The content of an error token, used for commands that take a string.
+  private def string(ts: Tokens, i: Int, what: String): Parsed[String] = tokenAt(ts, i) match {
+    case Token.Error("", _, _) => fail("expected a " + what + ", got empty string", ts, i + 1)
+    case Token.Error(msg, _, _) => Ok(msg, i + 1)
+    case _ => expected(what, ts, i)
+  }
+}
+
+object DescentParser {
+
+  private[parser] type Tokens = Vector[ContextualToken]
+
+  private[parser] sealed trait Parsed[+T] {
+    def map[U](func: T => U): Parsed[U]
+  }
+
+  private[parser] case class Ok[+T](value: T, next: Int) extends Parsed[T] {
+    override def map[U](func: T => U): Parsed[U] = Ok(func(value), next)
+  }
+
+  // The context of the token where parsing failed, None at the end of the input.
+  private[parser] case class Fail(msg: String, context: Option[String], fatal: Boolean) extends Parsed[Nothing] {
+    override def map[U](func: Nothing => U): Parsed[U] = this
+  }
+
+  private object Parenthesized {
+    def unapply(token: Token): Option[TokenStream] = token match {
+      case Token.Group(tokens) => Some(tokens)
+      case Token.Application(tokens) => Some(tokens)
+      case _ => None
+    }
+  }
+
+  private def tokenAt(ts: Tokens, i: Int): Token = if (i < ts.length) ts(i).token else Token.Eof
+
+  private def fail(msg: String, ts: Tokens, i: Int): Fail = Fail(msg, if (i < ts.length) Some(ts(i).context) else None, fatal = false)
+  private def fatal(msg: String, ts: Tokens, i: Int): Fail = Fail(msg, if (i < ts.length) Some(ts(i).context) else None, fatal = true)
+  private def expected(what: String, ts: Tokens, i: Int): Fail = fail(if (i < ts.length) what + " expected" else "end of input", ts, i)
+
+  private def makeSignature(names: Vector[String], vararg: Vector[Boolean]): Option[Ast.Signature] = {
+    if (vararg.isEmpty) Some(Ast.Signature(Vector(), vararg = false))
+    else if (vararg.forall(!_)) Some(Ast.Signature(names, vararg = false))
+    else if (vararg.init.forall(!_)) Some(Ast.Signature(names, vararg = true))
+    else None
+  }
+}
@@ -12,9 +12,12 @@ trait ParsingContext {
   def parseNumber(integral: String, fraction: Option[String], exponent: Option[String]): Result[MathValue]
 }
 
-class Parser(val ctx: ParsingContext) {
+// Parses with DescentParser. The combinator based CalculatorParsers are kept to compare both, they are used
+// when legacy is set or by default when the system property tuxcalculator.parser.legacy is true.
+class Parser(val ctx: ParsingContext, val legacy: Boolean = Parser.LegacyDefault) {
   
-  private[this] val parsers: CalculatorParsers = new CalculatorParsers(ctx)
+  private[this] lazy val parsers: CalculatorParsers = new CalculatorParsers(ctx)
+  private[this] val descent: DescentParser = new DescentParser(ctx)
   
   private def wrap[T](res: parsers.ParseResult[T]): Result[T] = res match {
     case parsers.Success(value, _) => Result.Value(value.asInstanceOf[T])
@@ -22,16 +25,20 @@ class Parser(val ctx: ParsingContext) {
     case parsers.Error(msg, rest) => Result.Error(msg) ~@ rest.pos.toString
   }
   
-  def expression(tokens: TokenStream): Result[Ast.Expression] = wrap(parsers.parseTokens(parsers.expression, tokens))
+  def expression(tokens: TokenStream): Result[Ast.Expression] = if (legacy) wrap(parsers.parseTokens(parsers.expression, tokens)) else descent.expression(tokens)
   
-  def letCommand(tokens: TokenStream): Result[Ast.LetCommand] = wrap(parsers.parseTokens(parsers.cmd_let, tokens))
-  def defCommand(tokens: TokenStream): Result[Ast.DefCommand] = wrap(parsers.parseTokens(parsers.cmd_def, tokens))
-  def remCommand(tokens: TokenStream): Result[Ast.RemCommand] = wrap(parsers.parseTokens(parsers.cmd_rem, tokens))
-  def setCommand(tokens: TokenStream): Result[Ast.SetCommand] = wrap(parsers.parseTokens(parsers.cmd_set, tokens))
-  def catCommand(tokens: TokenStream): Result[Ast.CatCommand] = wrap(parsers.parseTokens(parsers.cmd_cat, tokens))
-  def dumpCommand(tokens: TokenStream): Result[Ast.DumpCommand] = wrap(parsers.parseTokens(parsers.cmd_dump, tokens))
+  def letCommand(tokens: TokenStream): Result[Ast.LetCommand] = if (legacy) wrap(parsers.parseTokens(parsers.cmd_let, tokens)) else descent.letCommand(tokens)
+  def defCommand(tokens: TokenStream): Result[Ast.DefCommand] = if (legacy) wrap(parsers.parseTokens(parsers.cmd_def, tokens)) else descent.defCommand(tokens)
+  def remCommand(tokens: TokenStream): Result[Ast.RemCommand] = if (legacy) wrap(parsers.parseTokens(parsers.cmd_rem, tokens)) else descent.remCommand(tokens)
+  def setCommand(tokens: TokenStream): Result[Ast.SetCommand] = if (legacy) wrap(parsers.parseTokens(parsers.cmd_set, tokens)) else descent.setCommand(tokens)
+  def catCommand(tokens: TokenStream): Result[Ast.CatCommand] = if (legacy) wrap(parsers.parseTokens(parsers.cmd_cat, tokens)) else descent.catCommand(tokens)
+  def dumpCommand(tokens: TokenStream): Result[Ast.DumpCommand] = if (legacy) wrap(parsers.parseTokens(parsers.cmd_dump, tokens)) else descent.dumpCommand(tokens)
   
-  def errorToken(tokens: TokenStream): Result[String] = wrap(parsers.parseTokens(parsers.tk_error, tokens))
+  def errorToken(tokens: TokenStream): Result[String] = if (legacy) wrap(parsers.parseTokens(parsers.tk_error, tokens)) else descent.errorToken(tokens)
+}
+
+object Parser {
+  val LegacyDefault: Boolean = java.lang.Boolean.getBoolean("tuxcalculator.parser.legacy")
 }
 
 class CalculatorParsers(val ctx: ParsingContext) extends Parsers  {
@@ -43,7 +50,7 @@ class CalculatorParsers(val ctx: ParsingContext) extends Parsers  {
     case result => result
   }
   
-  def flatAcceptMatch[U](expected: String, f: PartialFunction[Elem, ParseResult[U]]): this.Parser[U] = Parser {
+  def flatAcceptMatch[U](expected: String, f: PartialFunction[Elem, ParseResult[U]]): this.Parser[U] = this.Parser {
     case in if in.atEnd => Failure("end of input", in)
     case in if f.isDefinedAt(in.first) => f.apply(in.first) match {
       case Success(result, _) => Success(result, in.rest)
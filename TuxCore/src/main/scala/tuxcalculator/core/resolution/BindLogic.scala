@@ -25,7 +25,7 @@ object BindLogic {
     val errors: mutable.Set[String] = mutable.Set()
     
     def checkError(name: String, result: MathValue): MathValue = result match {
-      case res @ MathError(_, _) => errors.add(name); res
+      case res: MathError => errors.add(name); res.resolve()
       case res => res
     }
     
@@ -85,7 +85,7 @@ object BindLogic {
       case Ast.TertiaryBracket(open, close, values) =>
         val width = values.length
         val height = if (values.isEmpty) 0 else values.head.size
-        Ast.Application(Ast.Value(checkError(open + close, calc.resolution.tertiaryBracket(open, close))), Vector(Ast.Value(MathNumber(BigDecimal(height))), Ast.Value(MathNumber(BigDecimal(width)))) ++ values.flatMap(col => col.map(process)))
+        Ast.Application(Ast.Value(checkError(open + close, calc.resolution.tertiaryBracket(open, close))), Vector(Ast.Value(MathNumber(height)), Ast.Value(MathNumber(width))) ++ values.flatMap(col => col.map(process)))
       case Ast.Match(entries) if eager => Ast.Match(entries.map {
         case Ast.MatchEntry(sig, elementGuards, mainGuard, code, defCode) =>
           val boundElementGuards = elementGuards.map(eg => eg.map(expr => bindDef(expr, calc, eager, freeVars, specialValues)))
@@ -120,43 +120,33 @@ object BindLogic {
     }
     
     def processOps(elem: Ast.OperatorApplication): Ast.Expression = {
-      // Make two lists, one with the expressions, one with the operators.
-      // Then for each priority we have, slice matching elements out of the list and merge
-      // Also process all sub-expressions first
-      val expressions: ListBuffer[Ast.Expression] = (elem.head :: elem.tail.map(_._2).toList).map(process).to(ListBuffer)
-      val operators: ListBuffer[String] = elem.tail.map(_._1).to(ListBuffer)
-      val priorityMap: Map[String, Int] = operators.toSet.map((name: String) => name -> calc.resolution.priority(name)).toMap
-      val prioritiesSortedHighToLow: Seq[Int] = priorityMap.values.toSeq.distinct.sortBy(-_)
-      for (currentPriority <- prioritiesSortedHighToLow) {
-        if (currentPriority % 2 != 0) {
-          // right associative
-          var i = operators.length - 1
-          while (i >= 0) {
-            val op: String = operators(i)
-            if (priorityMap(op) == currentPriority) {
-              val newExpr = Ast.Application(Ast.Value(checkError(op, calc.resolution.operator(op))), Vector(expressions(i), expressions(i + 1)))
-              operators.remove(i)
-              expressions.remove(i + 1)
-              expressions(i) = newExpr
-            }
-            i -= 1
-          }
-        } else {
-          // left associative
-          var i = 0
-          while (i < operators.length) {
-            val op: String = operators(i)
-            if (priorityMap(op) == currentPriority) {
-              val newExpr = Ast.Application(Ast.Value(checkError(op, calc.resolution.operator(op))), Vector(expressions(i), expressions(i + 1)))
-              operators.remove(i)
-              expressions.remove(i + 1)
-              expressions(i) = newExpr
-              i -= 1
-            }
-            i += 1
-          }
+      // Shunting yard: Keep a stack of operands and one of operators waiting for their right operand.
+      // Before an operator is pushed, merge all operators on the stack that bind stronger. These are the ones
+      // with higher priority and for left associative operators (even priority) also the ones with the same priority.
+      val priorities: mutable.Map[String, Int] = mutable.Map()
+      val operatorValues: mutable.Map[String, MathValue] = mutable.Map()
+      def priority(op: String): Int = priorities.getOrElseUpdate(op, calc.resolution.priority(op))
+      def operatorValue(op: String): MathValue = operatorValues.getOrElseUpdate(op, checkError(op, calc.resolution.operator(op)))
+      
+      val expressions: mutable.ArrayBuffer[Ast.Expression] = mutable.ArrayBuffer(process(elem.head))
+      val operators: mutable.ArrayBuffer[String] = mutable.ArrayBuffer()
+      def merge(): Unit = {
+        val op = operators.remove(operators.length - 1)
+        val right = expressions.remove(expressions.length - 1)
+        val left = expressions.remove(expressions.length - 1)
+        expressions.addOne(Ast.Application(Ast.Value(operatorValue(op)), Vector(left, right)))
+      }
+      
+      for ((op, operand) <- elem.tail) {
+        val currentPriority = priority(op)
+        while (operators.nonEmpty && (priority(operators.last) > currentPriority || (priority(operators.last) == currentPriority && currentPriority % 2 == 0))) {
+          merge()
         }
+        operators.addOne(op)
+        expressions.addOne(process(operand))
       }
+      while (operators.nonEmpty) merge()
+      
       if (expressions.length != 1) {
         Ast.Value(MathError("Operator resolution failed. This is a bug."))
       } else {
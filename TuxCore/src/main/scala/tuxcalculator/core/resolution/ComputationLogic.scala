@@ -1,6 +1,7 @@
 package tuxcalculator.core.resolution
 
 import tuxcalculator.core.Calculator
+import tuxcalculator.core.data.LazySpecialFunction
 import tuxcalculator.core.expression.{Ast, BoundExpression}
 import tuxcalculator.core.function.{LambdaFunction, MatchFunction, MatchFunctionEntry, PartialAppliedFunction}
 import tuxcalculator.core.value._
@@ -8,6 +9,8 @@ import tuxcalculator.core.value._
 object ComputationLogic {
 
   def compute(expr: BoundExpression, calc: Calculator): MathValue = {
+    val budget = calc.budget
+    
     def processPartialArg(arg: Ast.PartialArgument): Seq[Option[MathValue]] = arg match {
       case Ast.Placeholder => Seq(None)
       case a: Ast.Argument => processArg(a).map(Some(_))
@@ -37,14 +40,18 @@ object ComputationLogic {
           new LambdaFunction(sig, code, definitionCode)
         )
       }, ast)
-      case Ast.Application(value, args) => doApply(process(value), args.flatMap(processPartialArg), forcePartial = false)
+      case Ast.Application(value, args) => process(value) match {
+        case special: LazySpecialFunction if args.forall(_.isInstanceOf[Ast.Expression]) => doApplyLazy(special, args.map(_.asInstanceOf[Ast.Expression]))
+        case func => doApply(func, args.flatMap(processPartialArg), forcePartial = false)
+      }
       case Ast.PartialApplication(value, args) => doApply(process(value), args.flatMap(processPartialArg), forcePartial = true)
       case elem => MathError("Computing an unbound expression: '" + elem.string(calc) + "' This is a bug.")
     }
     
     def doApply(value: MathValue, args: Vector[Option[MathValue]], forcePartial: Boolean): MathValue = {
+      budget.step()
       def argString(arg: Option[MathValue]): String = arg match {
-        case Some(value) => calc.format(value)
+        case Some(value) => calc.formatInTrace(value)
         case None => "_"
       }
       
@@ -59,8 +66,8 @@ object ComputationLogic {
           case Some(err: MathError) => Some(err)
           case _ => None
         }.headOption match {
-          case Some(err) if partial => err.trace("Passed as partial argument to " + calc.format(value))
-          case Some(err) => err.trace("Passed as argument to " + calc.format(value))
+          case Some(err) if partial => err.trace("Passed as partial argument to " + calc.formatInTrace(value))
+          case Some(err) => err.trace("Passed as argument to " + calc.formatInTrace(value))
           case None if value == MathVoid => MathVoid
           case None if partial && !normArgs.exists(_.isDefined) => resultOrVoid(value)
           case None if partial => resultOrVoid(PartialAppliedFunction.create(value, normArgs))
@@ -69,6 +76,15 @@ object ComputationLogic {
       }
     }
     
+    // Each argument is computed when the special asks for it, with the same error handling as in doApply.
+    def doApplyLazy(special: LazySpecialFunction, args: Vector[Ast.Expression]): MathValue = {
+      budget.step()
+      special.applyLazy(calc, args.map(arg => () => normalize(process(arg)) match {
+        case err: MathError => err.trace("Passed as argument to " + calc.formatInTrace(special))
+        case res => res
+      }))
+    }
+    
     def normalize(value: MathValue): MathValue = value match {
       case MathList(elems) if elems.contains(MathVoid) => MathVoid
       case MathMatrix(elems) if elems.exists(_.contains(MathVoid)) => MathVoid
@@ -77,7 +93,9 @@ object ComputationLogic {
         case _ => None
       }.headOption match {
         case Some((err, idx)) => err.trace("Appeared in a list at index " + idx)
-        case None => value
+        case None =>
+          calc.stats.value(value)
+          value
       }
       case MathMatrix(elems) => elems.zipWithIndex.flatMap[(MathError, Int, Int)](entry => {
         val (col, colIdx) = entry
@@ -87,7 +105,9 @@ object ComputationLogic {
         }
       }).headOption match {
         case Some((err, rowIdx, colIdx)) => err.trace("Appeared in a matrix at index " + rowIdx + ":" + colIdx)
-        case None => value
+        case None =>
+          calc.stats.value(value)
+          value
       }
       case _ => value
     }
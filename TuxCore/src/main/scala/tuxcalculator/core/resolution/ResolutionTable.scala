@@ -5,9 +5,10 @@ import tuxcalculator.core.data.CalculatorProperties
 import tuxcalculator.core.expression.{Ast, ExpressionHelper}
 import tuxcalculator.core.format.{AstIO, FormatContext}
 import tuxcalculator.core.function.{BracketFunction, ChainedOperatorFunction, GlobalFunction, OperatorFunction}
+import tuxcalculator.core.util.PrefixIndex
 import tuxcalculator.core.value.{MathError, MathNumber, MathValue, MathVoid}
 
-import java.io.{ByteArrayOutputStream, DataInput, DataOutput, DataOutputStream}
+import java.io.{DataInput, DataOutput}
 import scala.collection.mutable
 
 class ResolutionTable(private val calc: Calculator) {
@@ -20,34 +21,39 @@ class ResolutionTable(private val calc: Calculator) {
     }
   }
   
-  private[this] val functions: mutable.Map[String, GlobalFunction] = mutable.Map()
-  private[this] val variables: mutable.Map[String, MathValue] = mutable.Map()
-  private[this] val operators: mutable.Map[String, OperatorFunction] = mutable.Map()
-  private[this] val signs: mutable.Map[String, OperatorFunction] = mutable.Map()
-  private[this] val postfixes: mutable.Map[String, OperatorFunction] = mutable.Map()
-  private[this] val primaries: mutable.Map[Bracket, BracketFunction] = mutable.Map()
-  private[this] val secondaries: mutable.Map[Bracket, BracketFunction] = mutable.Map()
-  private[this] val tertiaries: mutable.Map[Bracket, BracketFunction] = mutable.Map()
+  // Tab completion indices, kept up to date by the tables below.
+  private[this] val identifierIndex: PrefixIndex = new PrefixIndex
+  private[this] val functionIndex: PrefixIndex = new PrefixIndex
+  private[this] val operatorIndex: PrefixIndex = new PrefixIndex
+  
+  private[this] val functions: mutable.Map[String, GlobalFunction] = new IndexedTable[String, GlobalFunction](identity, identifierIndex, functionIndex)
+  private[this] val variables: mutable.Map[String, MathValue] = new IndexedTable[String, MathValue](identity, identifierIndex)
+  private[this] val operators: mutable.Map[String, OperatorFunction] = new IndexedTable[String, OperatorFunction](identity, operatorIndex)
+  private[this] val signs: mutable.Map[String, OperatorFunction] = new IndexedTable[String, OperatorFunction](identity, operatorIndex)
+  private[this] val postfixes: mutable.Map[String, OperatorFunction] = new IndexedTable[String, OperatorFunction](identity, operatorIndex)
+  private[this] val primaries: mutable.Map[Bracket, BracketFunction] = new IndexedTable[Bracket, BracketFunction](_.name, operatorIndex)
+  private[this] val secondaries: mutable.Map[Bracket, BracketFunction] = new IndexedTable[Bracket, BracketFunction](_.name, operatorIndex)
+  private[this] val tertiaries: mutable.Map[Bracket, BracketFunction] = new IndexedTable[Bracket, BracketFunction](_.name, operatorIndex)
   
   private[this] val priorities: mutable.Map[String, Int] = mutable.Map()
   
   private[this] var frontendErrorOnUnboundValue: Boolean = false
   
   def priority(name: String): Int = priorities.getOrElse(name, 0)
-  def variable(name: String): MathValue = variables.get(name) match {
+  def variable(name: String): MathValue = { calc.stats.lookup(); variables.get(name) } match {
     case Some(variable) => variable
     case None if calc.properties(CalculatorProperties.Autoref) => maybeGlobalFunction(name: String).getOrElse(unbound("Unbound value: '" + name + "'"))
     case None => unbound("Unbound value: '" + name + "'")
   }
-  def globalFunction(name: String): MathValue = functions.getOrElse(name, unbound("Unbound global function: '" + name + "'"))
-  def maybeGlobalFunction(name: String): Option[MathValue] = functions.get(name)
-  def operator(name: String): MathValue = operators.getOrElse(name, unbound("Unbound operator: '" + name + "'"))
-  def sign(name: String): MathValue = signs.getOrElse(name, unbound("Unbound sign operator: '" + name + "'"))
-  def post(name: String): MathValue = postfixes.getOrElse(name, unbound("Unbound postfix: '" + name + "'"))
+  def globalFunction(name: String): MathValue = { calc.stats.lookup(); functions.getOrElse(name, unbound("Unbound global function: '" + name + "'")) }
+  def maybeGlobalFunction(name: String): Option[MathValue] = { calc.stats.lookup(); functions.get(name) }
+  def operator(name: String): MathValue = { calc.stats.lookup(); operators.getOrElse(name, unbound("Unbound operator: '" + name + "'")) }
+  def sign(name: String): MathValue = { calc.stats.lookup(); signs.getOrElse(name, unbound("Unbound sign operator: '" + name + "'")) }
+  def post(name: String): MathValue = { calc.stats.lookup(); postfixes.getOrElse(name, unbound("Unbound postfix: '" + name + "'")) }
   def primaryBracket(open: String, close: String): MathValue = bracket(open, close, "primary", primaries)
   def secondaryBracket(open: String, close: String): MathValue = bracket(open, close, "secondary", secondaries)
   def tertiaryBracket(open: String, close: String): MathValue = bracket(open, close, "tertiary", tertiaries)
-  private def bracket(open: String, close: String, typeName: String, table: mutable.Map[Bracket, BracketFunction]): MathValue = table.get(Bracket(open, close)) match {
+  private def bracket(open: String, close: String, typeName: String, table: mutable.Map[Bracket, BracketFunction]): MathValue = { calc.stats.lookup(); table.get(Bracket(open, close)) } match {
     case Some(function) => function
     case None =>
       val alternatives: Seq[String] = table.keys.filter(bracket => open == bracket.open).map(bracket => bracket.close).toSeq.sorted
@@ -71,9 +77,10 @@ class ResolutionTable(private val calc: Calculator) {
     case Ast.DefTarget.Post(name) => post(name)
   }
 
-  def tabCompleteIdentifier: Set[String] = (functions.keySet | variables.keySet).toSet
-  def tabCompleteReferenceFunction: Set[String] = functions.keySet.toSet
-  def tabCompleteReferenceOperator: Set[String] = (signs.keySet | operators.keySet | postfixes.keySet | primaries.keySet.map(_.name) | secondaries.keySet.map(_.name) | tertiaries.keySet.map(_.name)).toSet
+  def isIdentifier(name: String): Boolean = functions.contains(name) || variables.contains(name)
+  def tabCompleteIdentifier(prefix: String): Vector[String] = identifierIndex.matches(prefix)
+  def tabCompleteReferenceFunction(prefix: String): Vector[String] = functionIndex.matches(prefix)
+  def tabCompleteReferenceOperator(prefix: String): Vector[String] = operatorIndex.matches(prefix)
 
   def produceFrontendErrorOnUnboundValue(): Unit = frontendErrorOnUnboundValue = true
   private def unbound(message: String): MathValue = {
@@ -121,10 +128,10 @@ class ResolutionTable(private val calc: Calculator) {
   }
   
   def remove(target: Ast.DefTarget): MathValue = target match {
-    case Ast.DefTarget.Function(name) => MathNumber(BigDecimal(functions.remove(name).map(_.definitionCount).getOrElse(0) + variables.remove(name).size))
-    case Ast.DefTarget.Operator(name) => MathNumber(BigDecimal(operators.remove(name).size))
-    case Ast.DefTarget.SignOrOperator(name) => MathNumber(BigDecimal(operators.remove(name).size + signs.remove(name).size))
-    case Ast.DefTarget.Post(name) => MathNumber(BigDecimal(postfixes.remove(name).size))
+    case Ast.DefTarget.Function(name) => MathNumber(functions.remove(name).map(_.definitionCount).getOrElse(0) + variables.remove(name).size)
+    case Ast.DefTarget.Operator(name) => MathNumber(operators.remove(name).size)
+    case Ast.DefTarget.SignOrOperator(name) => MathNumber(operators.remove(name).size + signs.remove(name).size)
+    case Ast.DefTarget.Post(name) => MathNumber(postfixes.remove(name).size)
     case Ast.DefTarget.PrimaryBracket(open, close) => MathNumber(primaries.remove(Bracket(open, close)).size)
     case Ast.DefTarget.SecondaryBracket(open, close) => MathNumber(secondaries.remove(Bracket(open, close)).size)
     case Ast.DefTarget.TertiaryBracket(open, close) => MathNumber(tertiaries.remove(Bracket(open, close)).size)
@@ -132,30 +139,30 @@ class ResolutionTable(private val calc: Calculator) {
   
   def priority(name: String, priority: Int): Unit = priorities(name) = priority
 
-  def read(in: DataInput): MathValue = {
-    val ctx = new FormatContext(calc.specials, in)
+  def read(ctx: FormatContext, in: DataInput): MathValue = {
+    ctx.readLegacySymbolTables(in)
 
     functions.clear()
-    val funcLen = in.readInt()
+    val funcLen = ctx.readCount(in)
     for (_ <- 0 until funcLen) {
-      val name = ctx.strings.get(in.readInt())
-      val implLen = in.readInt()
-      val map = for (_ <- 0 until implLen) yield AstIO.readDescriptor(in) -> ctx.functions.get(in.readInt())
+      val name = ctx.strings.read(in)
+      val implLen = ctx.readCount(in)
+      val map = for (_ <- 0 until implLen) yield AstIO.readDescriptor(ctx, in) -> ctx.functions.read(in)
       functions(name) = new GlobalFunction(name, map.toMap)
     }
 
     variables.clear()
-    val varLen = in.readInt()
+    val varLen = ctx.readCount(in)
     for (_ <- 0 until varLen) {
-      variables(ctx.strings.get(in.readInt())) = ctx.values.get(in.readInt())
+      variables(ctx.strings.read(in)) = ctx.values.read(in)
     }
     
     def readOperators(table: mutable.Map[String, OperatorFunction]): Unit = {
       table.clear()
-      val len = in.readInt()
+      val len = ctx.readCount(in)
       for (_ <- 0 until len) {
-        val name = ctx.strings.get(in.readInt())
-        table(name) = new OperatorFunction(name, ctx.functions.get(in.readInt()))
+        val name = ctx.strings.read(in)
+        table(name) = new OperatorFunction(name, ctx.functions.read(in))
       }
     }
     
@@ -165,11 +172,11 @@ class ResolutionTable(private val calc: Calculator) {
     
     def readBrackets(table: mutable.Map[Bracket, BracketFunction]): Unit = {
       table.clear()
-      val len = in.readInt()
+      val len = ctx.readCount(in)
       for (_ <- 0 until len) {
-        val open = ctx.strings.get(in.readInt())
-        val close = ctx.strings.get(in.readInt())
-        table(Bracket(open, close)) =  new BracketFunction(open, close, ctx.functions.get(in.readInt()))
+        val open = ctx.strings.read(in)
+        val close = ctx.strings.read(in)
+        table(Bracket(open, close)) =  new BracketFunction(open, close, ctx.functions.read(in))
       }
     }
     
@@ -178,41 +185,37 @@ class ResolutionTable(private val calc: Calculator) {
     readBrackets(tertiaries)
 
     priorities.clear()
-    val prioLen = in.readInt()
+    val prioLen = ctx.readCount(in)
     for (_ <- 0 until prioLen) {
-      priorities(ctx.strings.get(in.readInt())) = in.readInt()
+      priorities(ctx.strings.read(in)) = ctx.readInteger(in)
     }
 
-    ctx.values.get(in.readInt())
+    ctx.values.read(in)
   }
   
-  def write(out: DataOutput): Unit = {
-    val ctx = new FormatContext(calc.specials)
-    
-    val tableData = new ByteArrayOutputStream()
-    val dataOut = new DataOutputStream(tableData)
+  def write(ctx: FormatContext, out: DataOutput): Unit = {
 
-    dataOut.writeInt(functions.size)
+    ctx.writeCount(out, functions.size)
     for ((name, func) <- functions.toVector.sortBy(_._1)) {
-      dataOut.writeInt(ctx.strings.add(name))
-      dataOut.writeInt(func.map.size)
+      ctx.strings.write(name, out)
+      ctx.writeCount(out, func.map.size)
       for ((desc, impl) <- func.map) {
-        AstIO.writeDescriptor(desc, dataOut)
-        dataOut.writeInt(ctx.functions.add(impl))
+        AstIO.writeDescriptor(ctx, desc, out)
+        ctx.functions.write(impl, out)
       }
     }
 
-    dataOut.writeInt(variables.size)
+    ctx.writeCount(out, variables.size)
     for ((name, value) <- variables.toVector.sortBy(_._1)) {
-      dataOut.writeInt(ctx.strings.add(name))
-      dataOut.writeInt(ctx.values.add(value))
+      ctx.strings.write(name, out)
+      ctx.values.write(value, out)
     }
 
     def writeOperators(table: collection.Map[String, OperatorFunction]): Unit = {
-      dataOut.writeInt(table.size)
+      ctx.writeCount(out, table.size)
       for ((name, impl) <- table.toVector.sortBy(_._1)) {
-        dataOut.writeInt(ctx.strings.add(name))
-        dataOut.writeInt(ctx.functions.add(impl.function))
+        ctx.strings.write(name, out)
+        ctx.functions.write(impl.function, out)
       }
     }
     
@@ -221,11 +224,11 @@ class ResolutionTable(private val calc: Calculator) {
     writeOperators(postfixes)
 
     def writeBrackets(table: mutable.Map[Bracket, BracketFunction]): Unit = {
-      dataOut.writeInt(table.size)
+      ctx.writeCount(out, table.size)
       for ((Bracket(open, close), impl) <- table.toVector.sortBy(_._1)) {
-        dataOut.writeInt(ctx.strings.add(open))
-        dataOut.writeInt(ctx.strings.add(close))
-        dataOut.writeInt(ctx.functions.add(impl.function))
+        ctx.strings.write(open, out)
+        ctx.strings.write(close, out)
+        ctx.functions.write(impl.function, out)
       }
     }
     
@@ -234,16 +237,37 @@ class ResolutionTable(private val calc: Calculator) {
     writeBrackets(tertiaries)
     
     val changedPriorities: Map[String, Int] = priorities.toMap.filter(_._2 != 0)
-    dataOut.writeInt(changedPriorities.size)
+    ctx.writeCount(out, changedPriorities.size)
     for ((name, priority) <- changedPriorities.toVector.sortBy(_._1)) {
-      dataOut.writeInt(ctx.strings.add(name))
-      dataOut.writeInt(priority)
+      ctx.strings.write(name, out)
+      ctx.writeInteger(out, priority)
+    }
+    
+    ctx.values.write(calc.answer, out)
+  }
+  
+  // A table that adds its names to tab completion indices.
+  private class IndexedTable[K, V](name: K => String, indices: PrefixIndex*) extends mutable.AbstractMap[K, V] {
+    
+    private[this] val table: mutable.Map[K, V] = mutable.HashMap()
+    
+    override def get(key: K): Option[V] = table.get(key)
+    override def iterator: Iterator[(K, V)] = table.iterator
+    override def knownSize: Int = table.size
+    
+    override def addOne(elem: (K, V)): this.type = {
+      if (table.put(elem._1, elem._2).isEmpty) indices.foreach(_.add(name(elem._1)))
+      this
     }
     
-    dataOut.writeInt(ctx.values.add(calc.answer))
+    override def subtractOne(key: K): this.type = {
+      if (table.remove(key).isDefined) indices.foreach(_.remove(name(key)))
+      this
+    }
     
-    dataOut.close()
-    ctx.writeSymbols(out)
-    out.write(tableData.toByteArray)
+    override def clear(): Unit = {
+      for (key <- table.keys; index <- indices) index.remove(name(key))
+      table.clear()
+    }
   }
 }
@@ -14,8 +14,9 @@ import scala.math.BigDecimal.RoundingMode.RoundingMode
 object BuiltinFunctions {
 
   object Abs extends CalculatorSpecial.SimpleFunction("abs", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       ValueHelper.get(args(0)) match {
+        case MathInteger(num) => MathNumber(num.abs)
         case MathRealNumeric(num) => MathNumber(num.bigDecimal.abs(calc.mathContext))
         case MathNumeric(num) => MathNumber(num.abs(calc.mathContext))
         case v => MathError("abs(" + calc.format(v) + ") is undefined.")
@@ -24,14 +25,14 @@ object BuiltinFunctions {
   }
   
   object Gamma extends CalculatorSpecial.SimpleFunction("gamma", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {(ValueHelper.get(args(0)), ValueHelper.get(args(1))) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => (ValueHelper.get(args(0)), ValueHelper.get(args(1))) match {
       case (MathNumeric(p), MathNumeric(x)) => MathNumber(IncompleteGamma.gamma(p, x, calc.mathContext))
       case (p, x) => MathError("Gammma(" + calc.format(p) + ", " + calc.format(x) + ") is undefined.")
     }}
   }
   
   object Bernoulli extends CalculatorSpecial.SimpleFunction("bernoulli", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       val n = ValueHelper.realInt(args(0))
       if (!n.isValidInt) ValueHelper.error("Bernoulli index too large: " + n)
       if (n < 0) ValueHelper.error("Negative bernoulli index: " + n)
@@ -40,7 +41,7 @@ object BuiltinFunctions {
   }
   
   object Ln extends CalculatorSpecial.SimpleFunction("ln", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathNumeric(num) if num == BigComplex.ZERO => MathError("ln(0) is undefined.")
       case MathNumeric(num) => MathNumber(BigComplexMath.log(num, calc.mathContext))
       case v => MathError("ln(" + calc.format(v) + ") is undefined.")
@@ -48,7 +49,7 @@ object BuiltinFunctions {
   }
   
   object W extends CalculatorSpecial.SimpleFunction("w", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathNumeric(num) if num == BigComplex.ZERO => MathNumber(0)
       case MathNumeric(num) => MathNumber(ProductLog.productLog(num, calc.mathContext))
       case v => MathError("W(" + calc.format(v) + ") is undefined.")
@@ -56,7 +57,7 @@ object BuiltinFunctions {
   }
   
   object Li extends CalculatorSpecial.SimpleFunction("li", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathNumeric(num) if num == BigComplex.ONE => MathError("li(1) is undefined.")
       case MathNumeric(num) => MathNumber(ExponentialIntegral.logarithmicIntegral(num, calc.mathContext))
       case v => MathError("li(" + calc.format(v) + ") is undefined.")
@@ -64,7 +65,7 @@ object BuiltinFunctions {
   }
 
   object Ei extends CalculatorSpecial.SimpleFunction("ei", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathNumeric(num) if num == BigComplex.ZERO => MathError("Ei(0) is undefined.")
       case MathNumeric(num) => MathNumber(ExponentialIntegral.exponentialIntegral(num, calc.mathContext))
       case v => MathError("Ei(" + calc.format(v) + ") is undefined.")
@@ -73,7 +74,7 @@ object BuiltinFunctions {
   
   abstract class AngleFunc(name: String, rFunc: (java.math.BigDecimal, MathContext) => java.math.BigDecimal, cFunc: Option[(BigComplex, MathContext) => BigComplex]) extends CalculatorSpecial.SimpleFunction(name, 1) {
     override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = try {
-      ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+      ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
         case MathRealNumeric(num) => MathNumber(rFunc(num.bigDecimal, calc.mathContext))
         case MathNumber(num) if cFunc.isDefined => MathNumber(cFunc.get(num, calc.mathContext))
         case v => MathError(name + "(" + calc.format(v) + ") is undefined")
@@ -89,7 +90,7 @@ object BuiltinFunctions {
   object Asin extends AngleFunc("asin", BigDecimalMath.asin, Some(BigComplexMath.asin))
 
   object Atan extends CalculatorSpecial.SimpleFunction("atan", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {(ValueHelper.get(args(0)), ValueHelper.get(args(1))) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => (ValueHelper.get(args(0)), ValueHelper.get(args(1))) match {
       case (MathRealNumeric(y), MathRealNumeric(x)) if x == 1 => MathNumber(BigDecimalMath.atan(y.bigDecimal, calc.mathContext))
       case (MathNumeric(y), MathRealNumeric(x)) if x == 1 => MathNumber(BigComplexMath.atan(y, calc.mathContext))
       case (MathRealNumeric(y), MathRealNumeric(x)) => MathNumber(BigDecimalMath.atan2(y.bigDecimal, x.bigDecimal, calc.mathContext))
@@ -97,24 +98,36 @@ object BuiltinFunctions {
     }}
   }
   
-  object If extends CalculatorSpecial.SimpleFunction("if", 3) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
-      if (ValueHelper.boolean(args(0))) {
-        args(1)
+  object If extends CalculatorSpecial.LazyFunction("if", 3) {
+    override protected def result(calc: Calculator, args: Vector[() => MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      if (ValueHelper.boolean(args(0)())) {
+        args(1)()
       } else {
-        args(2)
+        args(2)()
       }
     }
   }
   
+  // The name of the statistic is given as an error token, so it is not computed as a regular argument.
+  object Stats extends CalculatorSpecial.LazyFunction("stats", 1) {
+    override protected def result(calc: Calculator, args: Vector[() => MathValue]): MathValue = args(0)() match {
+      case _: MathError if !calc.stats.enabled => MathError("Statistics are disabled, enable them with the stats property.")
+      case MathError(stat, _) => calc.stats.all.get(stat) match {
+        case Some(value) => MathNumber(BigInt(value))
+        case None => MathError("Unknown statistic: '" + stat + "'")
+      }
+      case value => MathError("Statistic name expected, got: " + calc.format(value))
+    }
+  }
+  
   object Gcd extends CalculatorSpecial.SimpleFunction("gcd", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       (args(0), args(1)) match {
         case (n1 @ MathNumeric(_), n2 @ MathNumeric(_)) =>
           // If both arguments are degree 0 polynomials (numbers), compute numeric gcd.
           val a = ValueHelper.realInt(n1)
           val b = ValueHelper.realInt(n2)
-          MathNumber(BigDecimal(a.abs gcd b.abs))
+          MathNumber(a.abs gcd b.abs)
         case (MathPolynomic(c1), MathPolynomic(c2)) =>
           val result = GreatestCommonDivisor.gcd(Algebras.polynomials(calc))(c1, c2)
           if (result.gcd.isEmpty) return MathPolynomial(result.gcd)
@@ -126,14 +139,14 @@ object BuiltinFunctions {
   }
   
   object Bezout extends CalculatorSpecial.SimpleFunction("bezout", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       (args(0), args(1)) match {
         case (n1 @ MathNumeric(_), n2 @ MathNumeric(_)) =>
           // If both arguments are degree 0 polynomials (numbers), compute numeric gcd.
           val a = ValueHelper.realInt(n1)
           val b = ValueHelper.realInt(n2)
           val result = GreatestCommonDivisor.gcd(Algebras.integers)(a, b)
-          MathList(Vector(MathNumber(BigDecimal(result.bezout1)), MathNumber(BigDecimal(result.bezout2))))
+          MathList(Vector(MathNumber(result.bezout1), MathNumber(result.bezout2)))
         case (MathPolynomic(c1), MathPolynomic(c2)) =>
           val result = GreatestCommonDivisor.gcd(Algebras.polynomials(calc))(c1, c2)
           if (result.gcd.isEmpty) return MathList(Vector(MathPolynomial(result.bezout1), MathPolynomial(result.bezout2)))
@@ -147,11 +160,67 @@ object BuiltinFunctions {
     }
   }
   
+  object Root extends CalculatorSpecial.SimpleFunction("root", 2) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      (ValueHelper.get(args(0)), ValueHelper.get(args(1))) match {
+        case (MathRealNumeric(n), _) if n == 0 => MathError("0th root is undefined.")
+        case (MathRealNumeric(n), x) if n.isValidInt && n > 0 => NumberHelper.root(x, n.toInt)
+        case (MathRealNumeric(n), x) if n.isValidInt => NumberHelper.div(MathNumber.One, NumberHelper.root(x, -n.toInt))
+        case (n, x) => NumberHelper.pow(x, NumberHelper.div(MathNumber.One, n))
+      }
+    }
+  }
+
+  object Prime extends CalculatorSpecial.SimpleFunction("prime", 1) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      ValueHelper.get(args(0)) match {
+        case MathRealNumeric(num) if num.isWhole => MathBoolean(NumberTheory.isPrime(num.toBigInt))
+        case _ => MathFalse
+      }
+    }
+  }
+
+  object Factor extends CalculatorSpecial.SimpleFunction("factor", 1) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      val n = ValueHelper.realInt(args(0))
+      if (n <= 0) ValueHelper.error("Can only factor positive integers.")
+      MathList(NumberTheory.factor(n, () => calc.budget.step()).map {
+        case (p, k) => MathList(Vector(MathNumber(p), MathNumber(k)))
+      })
+    }
+  }
+
+  object Totient extends CalculatorSpecial.SimpleFunction("totient", 1) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      val n = ValueHelper.realInt(args(0))
+      if (n <= 0) MathNumber.Zero else MathNumber(NumberTheory.totient(n, () => calc.budget.step()))
+    }
+  }
+
+  object Digits extends CalculatorSpecial.SimpleFunction("digits", 2) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      val base = ValueHelper.realInt(args(0))
+      val n = ValueHelper.realInt(args(1))
+      if (base < 1) ValueHelper.error("Invalid digit base.")
+      if (n < 0) ValueHelper.error("Can only get digits of positive integers.")
+      if (base == 1) {
+        if (!n.isValidInt) ValueHelper.error("Too many digits: " + n)
+        MathList(Vector.fill(n.toInt)(MathNumber.Zero))
+      } else {
+        MathList(NumberTheory.digits(base, n).map(digit => MathNumber(digit)))
+      }
+    }
+  }
+
   abstract class Rounding(name: String, mode: RoundingMode) extends CalculatorSpecial.SimpleFunction(name, 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       val precisionVal = ValueHelper.realInt(args(1))
       if (!precisionVal.isValidInt) ValueHelper.error("Invalid precision: " + precisionVal)
-      def roundNumber(num: MathNumber): MathNumber = MathNumber(num.num.re.setScale(precisionVal.toInt, mode), num.num.im.setScale(precisionVal.toInt, mode))
+      def roundNumber(num: MathNumber): MathNumber = num match {
+        case MathInteger(_) if precisionVal >= 0 => num
+        case MathRealNumeric(re) if precisionVal <= 0 => MathNumber(re.setScale(precisionVal.toInt, mode).toBigInt)
+        case _ => MathNumber(num.num.re.setScale(precisionVal.toInt, mode), num.num.im.setScale(precisionVal.toInt, mode))
+      }
       ValueHelper.get(args(0)) match {
         case MathNumeric(num) => roundNumber(MathNumber(num))
         case MathPolynomic(coefficients) => MathPolynomial(coefficients.map(roundNumber))
@@ -165,7 +234,7 @@ object BuiltinFunctions {
   object Fl extends Rounding("fl", RoundingMode.FLOOR)
   
   object Agm extends CalculatorSpecial.SimpleFunction("agm", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       (args(0), args(1)) match {
         case (MathNumeric(gm), MathNumeric(am)) => MathNumber(ArithmeticGeometricMean.agm(gm, am, calc.mathContext))
         case (gm, am) => MathError("Arithmetic-geometric mean is not defined for (" + calc.format(gm) + ", " + calc.format(am) + ")")
@@ -8,13 +8,13 @@ import tuxcalculator.core.value.{MathFunction, MathValue, ValueHelper}
 object FunctionOperators {
 
   object Y extends CalculatorSpecial.SimpleFunction("y", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { _ =>
       new SelfReferenceFunction(args(0))
     }
   }
   
   object Memoize extends CalculatorSpecial.SimpleFunction("memoize", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { _ =>
       args(0) match {
         case function: MemoizedFunction => function
         case function: MathFunction => new MemoizedFunction(function)
@@ -8,16 +8,16 @@ import tuxcalculator.core.value._
 object ListOperators {
   
   object Fold extends CalculatorSpecial.SimpleFunction("fold", 3) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       val list: Vector[MathValue] = ValueHelper.list(args(0))
       val start: MathValue = ValueHelper.get(args(1))
       val combine: MathValue = ValueHelper.get(args(2))
-      list.foldLeft(start)((c, e) => combine.applyTo(calc, Vector(c, e)))
+      list.foldLeft(start)((c, e) => { calc.budget.step(); combine.applyTo(calc, Vector(c, e)) })
     }
   }
   
   object Len extends CalculatorSpecial.SimpleFunction("len", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathList(values) => MathNumber(values.length)
       case MathVector(values) => MathNumber(values.length)
       case _ => MathError("Can't get length of: " + calc.format(args.head))
@@ -25,7 +25,7 @@ object ListOperators {
   }
   
   object Rev extends CalculatorSpecial.SimpleFunction("rev", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathList(values) => MathList(values.reverse)
       case MathVector(values) => MathVector(values.reverse)
       case _ => MathError("Can't reverse: " + calc.format(args.head))
@@ -33,7 +33,7 @@ object ListOperators {
   }
   
   object Car extends CalculatorSpecial.SimpleFunction("car", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathList(Vector()) => MathError("car/head of empty list")
       case MathList(values) => values.head
       case MathVector(Vector()) => MathError("car/head of empty vector")
@@ -43,7 +43,7 @@ object ListOperators {
   }
   
   object Cdr extends CalculatorSpecial.SimpleFunction("cdr", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args.head) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args.head) match {
       case MathList(Vector()) => MathError("cdr/tail of empty list")
       case MathList(values) => MathList(values.tail)
       case MathVector(Vector()) => MathError("cdr/tail of empty vector")
@@ -54,19 +54,19 @@ object ListOperators {
   }
 
   object Map extends CalculatorSpecial.SimpleFunction("map", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args(0)) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args(0)) match {
       case MathList(values) =>
         val func = ValueHelper.get(args(1))
-        MathList(values.map(v => func.applyTo(calc, Vector(v))))
+        MathList(values.map(v => { calc.budget.step(); func.applyTo(calc, Vector(v)) }))
       case MathMatrix(values) =>
         val func = ValueHelper.get(args(1))
-        MathMatrix(values.map(row => row.map(v => func.applyTo(calc, Vector(v)))))
+        MathMatrix(values.map(row => row.map(v => { calc.budget.step(); func.applyTo(calc, Vector(v)) })))
       case _ => MathError("Can't map: " + calc.format(args.head))
     }}
   }
 
   object Zip extends CalculatorSpecial.Function("zip") {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       val thingsToZip: Vector[MathValue] = ValueHelper.list(args(0))
       val func: MathValue = ValueHelper.get(args(1))
       
@@ -77,7 +77,7 @@ object ListOperators {
         val lengthMin = lists.map(_.values.length).min
         val lengthMax = lists.map(_.values.length).max
         if (lengthMin == lengthMax) {
-          MathList((0 until lengthMin).map(idx => func.applyTo(calc, lists.map(lst => lst.values(idx)))).toVector)
+          MathList((0 until lengthMin).map(idx => { calc.budget.step(); func.applyTo(calc, lists.map(lst => lst.values(idx))) }).toVector)
         } else {
           MathError("Can't zip different sized lists.")
         }
@@ -86,7 +86,7 @@ object ListOperators {
         val (widthMin, heightMin) = (matrices.map(_.width).min, matrices.map(_.height).min)
         val (widthMax, heightMax) = (matrices.map(_.width).max, matrices.map(_.height).max)
         if (widthMin == widthMax && heightMin == heightMax) {
-          MathMatrix((0 until widthMin).map(col => (0 until heightMin).map(row => func.applyTo(calc, matrices.map(mat => mat.get(row, col)))).toVector).toVector)
+          MathMatrix((0 until widthMin).map(col => (0 until heightMin).map(row => { calc.budget.step(); func.applyTo(calc, matrices.map(mat => mat.get(row, col))) }).toVector).toVector)
         } else {
           MathError("Can't zip different sized matrices.")
         }
@@ -99,16 +99,16 @@ object ListOperators {
   }
   
   object Filter extends CalculatorSpecial.SimpleFunction("filter", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args(0)) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args(0)) match {
       case MathList(values) =>
         val func = ValueHelper.get(args(1))
-        MathList(values.zipWithIndex.filter(e => ValueHelper.boolean(func.applyTo(calc, Vector(e._1, MathNumber(e._2))))).map(_._1))
+        MathList(values.zipWithIndex.filter(e => { calc.budget.step(); ValueHelper.boolean(func.applyTo(calc, Vector(e._1, MathNumber(e._2)))) }).map(_._1))
       case _ => MathError("Can't filter: " + calc.format(args.head))
     }}
   }
   
   object Idx extends CalculatorSpecial.SimpleFunction("idx", 3) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args(0)) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args(0)) match {
       case MathList(values) =>
         val from: BigInt = ValueHelper.realInt(args(1))
         if (from < 0) ValueHelper.error("Negative search index: " + from)
@@ -118,7 +118,7 @@ object ListOperators {
             MathNumber(-1)
           } else {
             val func = ValueHelper.get(args(2))
-            MathNumber(values.indexWhere(value => ValueHelper.boolean(func.applyTo(calc, Vector(value))), fromIdx))
+            MathNumber(values.indexWhere(value => { calc.budget.step(); ValueHelper.boolean(func.applyTo(calc, Vector(value))) }, fromIdx))
           }
         } else {
           MathNumber(-1)
@@ -128,23 +128,23 @@ object ListOperators {
   }
   
   object Sort extends CalculatorSpecial.SimpleFunction("sort", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {ValueHelper.get(args(0)) match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => ValueHelper.get(args(0)) match {
       case MathList(values) =>
         val func = ValueHelper.get(args(1))
-        MathList(values.sorted(Ordering.fromLessThan((a: MathValue, b: MathValue) => ValueHelper.boolean(func.applyTo(calc, Vector(a, b))))))
+        MathList(values.sorted(Ordering.fromLessThan((a: MathValue, b: MathValue) => { calc.budget.step(); ValueHelper.boolean(func.applyTo(calc, Vector(a, b))) })))
       case _ => MathError("Can't sort: " + calc.format(args.head))
     }}
   }
   
   object Fill extends CalculatorSpecial.Function("fill") {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { args.size match {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc => args.size match {
       case 2 =>
         val max: BigInt = ValueHelper.realInt(args(0))
         if (max < 0) ValueHelper.error("Upper bound is negative: " + max)
         if (!max.isValidInt) ValueHelper.error("List too long: " + max)
         
         val func: MathValue = ValueHelper.get(args(1))
-        MathList((0 until max.toInt).map(idx => func.applyTo(calc, Vector(MathNumber(idx)))).toVector)
+        MathList((0 until max.toInt).map(idx => { calc.budget.step(); func.applyTo(calc, Vector(MathNumber(idx))) }).toVector)
       case 3 =>
         val maxHt: BigInt = ValueHelper.realInt(args(0))
         if (maxHt <= 0) ValueHelper.error("Matrix height is non-positive: " + maxHt)
@@ -155,8 +155,33 @@ object ListOperators {
         if (!maxWd.isValidInt) ValueHelper.error("Matrix too wide: " + maxWd)
         
         val func: MathValue = ValueHelper.get(args(2))
-        MathMatrix((1 to maxWd.toInt).map(col => (1 to maxHt.toInt).map(row => func.applyTo(calc, Vector(MathNumber(row), MathNumber(col)))).toVector).toVector)
+        MathMatrix((1 to maxWd.toInt).map(col => (1 to maxHt.toInt).map(row => { calc.budget.step(); func.applyTo(calc, Vector(MathNumber(row), MathNumber(col))) }).toVector).toVector)
       case s => MathError(calc.format(FmtCode.Special) + name + " is only defined for 2 or 3 arguments, got " + s + ".")
     }}
   }
+  
+  // Values that are neither lists nor matrices have no elements.
+  private def elements(value: MathValue)(implicit calc: Calculator): Vector[MathValue] = ValueHelper.get(value) match {
+    case MathList(values) => values
+    case MathMatrix(values) => values.flatten
+    case _ => Vector()
+  }
+  
+  // Folds the results of a function for all elements with #and or #or like #fold(#map(l,f),start,op), but stops
+  // as soon as the result can't change any more.
+  abstract class LogicFold(name: String, op: LogicOperators.ShortCircuitBooleanOp, start: Boolean) extends CalculatorSpecial.SimpleFunction(name, 2) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      val func = ValueHelper.get(args(1))
+      val values = elements(args(0)).iterator
+      var result: MathValue = MathBoolean(start)
+      while (!op.shortCircuits(result) && values.hasNext) {
+        calc.budget.step()
+        result = ValueHelper.get(op.combine(result, ValueHelper.get(func.applyTo(calc, Vector(values.next())))))
+      }
+      result
+    }
+  }
+  
+  object Forall extends LogicFold("forall", LogicOperators.And, true)
+  object Exists extends LogicFold("exists", LogicOperators.Or, false)
 }
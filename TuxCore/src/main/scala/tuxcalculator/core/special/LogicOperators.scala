@@ -7,21 +7,36 @@ import tuxcalculator.core.value._
 object LogicOperators {
   
   abstract class NumericBooleanOp(name: String, boolOp: (Boolean, Boolean) => Boolean, intOp: (BigInt, BigInt) => BigInt) extends CalculatorSpecial.SimpleFunction(name, 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = (args(0), args(1)) match {
-      case (MathBoolean(b1), MathBoolean(b2)) => MathBoolean(boolOp(b1, b2))
-      case (MathBoolean(b1), MathRealNumeric(n2)) if n2.isWhole => MathNumber(BigDecimal(intOp(boolToInt(b1, n2.toBigInt), n2.toBigInt)))
-      case (MathRealNumeric(n1), MathBoolean(b2)) if n1.isWhole => MathNumber(BigDecimal(intOp(n1.toBigInt, boolToInt(b2, n1.toBigInt))))
-      case (MathRealNumeric(n1), MathRealNumeric(n2)) if n1.isWhole && n2.isWhole => MathNumber(BigDecimal(intOp(n1.toBigInt, n2.toBigInt)))
-      case (v1, v2)=> MathError("Can't " + name + " " + calc.format(v1) + " and " + calc.format(v2))
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = combine(name, boolOp, intOp, args(0), args(1))(calc)
+  }
+  
+  // If the first argument is the boolean shortCircuit, that is the result and the second argument is not computed.
+  abstract class ShortCircuitBooleanOp(name: String, boolOp: (Boolean, Boolean) => Boolean, intOp: (BigInt, BigInt) => BigInt, shortCircuit: Boolean) extends CalculatorSpecial.LazyFunction(name, 2) {
+    override protected def result(calc: Calculator, args: Vector[() => MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
+      ValueHelper.get(args(0)()) match {
+        case v1 if shortCircuits(v1) => v1
+        case v1 => combine(v1, ValueHelper.get(args(1)()))
+      }
     }
     
-    private def boolToInt(value: Boolean, other: BigInt): BigInt = {
-      if (!value) 0
-      else BigInt(2).pow(other.abs.bitLength `max` 1) - 1
-    }
+    def shortCircuits(value: MathValue): Boolean = value == MathBoolean(shortCircuit)
+    def combine(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = LogicOperators.combine(name, boolOp, intOp, v1, v2)
+  }
+  
+  private def combine(name: String, boolOp: (Boolean, Boolean) => Boolean, intOp: (BigInt, BigInt) => BigInt, v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = (v1, v2) match {
+    case (MathBoolean(b1), MathBoolean(b2)) => MathBoolean(boolOp(b1, b2))
+    case (MathBoolean(b1), MathRealNumeric(n2)) if n2.isWhole => MathNumber(intOp(boolToInt(b1, n2.toBigInt), n2.toBigInt))
+    case (MathRealNumeric(n1), MathBoolean(b2)) if n1.isWhole => MathNumber(intOp(n1.toBigInt, boolToInt(b2, n1.toBigInt)))
+    case (MathRealNumeric(n1), MathRealNumeric(n2)) if n1.isWhole && n2.isWhole => MathNumber(intOp(n1.toBigInt, n2.toBigInt))
+    case (v1, v2)=> MathError("Can't " + name + " " + calc.format(v1) + " and " + calc.format(v2))
+  }
+  
+  private def boolToInt(value: Boolean, other: BigInt): BigInt = {
+    if (!value) 0
+    else BigInt(2).pow(other.abs.bitLength `max` 1) - 1
   }
   
-  object And extends NumericBooleanOp("and", _ && _, _ & _)
-  object Or extends NumericBooleanOp("or", _ || _, _ | _)
+  object And extends ShortCircuitBooleanOp("and", _ && _, _ & _, false)
+  object Or extends ShortCircuitBooleanOp("or", _ || _, _ | _, true)
   object Xor extends NumericBooleanOp("xor", _ != _, _ ^ _)
 }
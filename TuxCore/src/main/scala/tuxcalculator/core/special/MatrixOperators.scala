@@ -7,7 +7,7 @@ import tuxcalculator.core.value._
 object MatrixOperators {
 
   object Wd extends CalculatorSpecial.SimpleFunction("wd", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       ValueHelper.get(args.head) match {
         case m@MathMatrix(_) => MathNumber(m.width)
         case _ => MathError("Can't get width of: " + calc.format(args.head))
@@ -16,7 +16,7 @@ object MatrixOperators {
   }
 
   object Ht extends CalculatorSpecial.SimpleFunction("ht", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       ValueHelper.get(args.head) match {
         case m@MathMatrix(_) => MathNumber(m.height)
         case _ => MathError("Can't get height of: " + calc.format(args.head))
@@ -25,7 +25,7 @@ object MatrixOperators {
   }
 
   object Mflat extends CalculatorSpecial.SimpleFunction("mflat", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       def stackOnTop(matrices: List[MathMatrix]): Option[MathMatrix] = matrices match {
         case Nil => None
         case mat :: Nil => Some(mat)
@@ -64,14 +64,14 @@ object MatrixOperators {
   }
   
   object Adj extends CalculatorSpecial.SimpleFunction("adj", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       val mat = ValueHelper.matrix(args.head)
       MatrixOps.adj(mat)
     }
   }
   
   object Det extends CalculatorSpecial.SimpleFunction("det", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       val mat = ValueHelper.matrix(args.head)
       MatrixOps.det(mat)
     }
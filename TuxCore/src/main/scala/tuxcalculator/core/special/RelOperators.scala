@@ -7,7 +7,7 @@ import tuxcalculator.core.value._
 object RelOperators {
   
   object Eq extends CalculatorSpecial.SimpleFunction("eq", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { implicit calc =>
       (ValueHelper.get(args(0)), ValueHelper.get(args(1))) match {
         case (f1: SpecialFunction, f2: SpecialFunction) => MathBoolean(f1 == f2) // Specials are unique
         // General functions can't be easily compared. For consistency they always yield false
@@ -22,7 +22,7 @@ object RelOperators {
   }
   
   object Lt extends CalculatorSpecial.SimpleFunction("lt", 2) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = ValueHelper.run(calc) { _ =>
       (args(0), args(1)) match {
         case (MathRealNumeric(a), MathRealNumeric(b)) => MathBoolean(a < b)
         case _ => MathFalse
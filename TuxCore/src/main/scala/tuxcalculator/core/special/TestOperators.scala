@@ -6,57 +6,47 @@ import tuxcalculator.core.value._
 
 object TestOperators {
   
-  object IsList extends CalculatorSpecial.SimpleFunction("isl", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = MathBoolean(args.head.isInstanceOf[MathList])
+  // A test on the kind of value that never fails. Match functions use these directly for guards.
+  abstract class TypeTest(name: String, val test: MathValue => Boolean) extends CalculatorSpecial.SimpleFunction(name, 1) {
+    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = MathBoolean(test(args.head))
   }
   
-  object IsMatrix extends CalculatorSpecial.SimpleFunction("ism", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = MathBoolean(args.head.isInstanceOf[MathMatrix])
-  }
+  object IsList extends TypeTest("isl", _.isInstanceOf[MathList])
+  object IsMatrix extends TypeTest("ism", _.isInstanceOf[MathMatrix])
   
-  object IsVector extends CalculatorSpecial.SimpleFunction("isv", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = args.head match {
-      case MathVector(_) => MathTrue
-      case _ => MathFalse
-    }
-  }
+  object IsVector extends TypeTest("isv", {
+    case MathVector(_) => true
+    case _ => false
+  })
   
-  object IsBoolean extends CalculatorSpecial.SimpleFunction("isb", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = MathBoolean(args.head == MathTrue || args.head == MathFalse)
-  }
+  object IsBoolean extends TypeTest("isb", value => value == MathTrue || value == MathFalse)
   
-  object IsNumber extends CalculatorSpecial.SimpleFunction("isn", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = args.head match {
-      case MathNumeric(_) => MathTrue
-      case _ => MathFalse
-    }
-  }
+  object IsNumber extends TypeTest("isn", {
+    case MathNumeric(_) => true
+    case _ => false
+  })
   
-  object IsReal extends CalculatorSpecial.SimpleFunction("isr", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = args.head match {
-      case MathRealNumeric(_) => MathTrue
-      case _ => MathFalse
-    }
-  }
+  object IsReal extends TypeTest("isr", {
+    case MathRealNumeric(_) => true
+    case _ => false
+  })
   
-  object IsInteger extends CalculatorSpecial.SimpleFunction("isi", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = args.head match {
-      case MathRealNumeric(num) if num.isWhole => MathTrue
-      case _ => MathFalse
-    }
-  }
+  object IsInteger extends TypeTest("isi", {
+    case MathRealNumeric(num) if num.isWhole => true
+    case _ => false
+  })
   
-  object IsNaturalNumber extends CalculatorSpecial.SimpleFunction("isc", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = args.head match {
-      case MathRealNumeric(num) if num.isWhole && num.signum >= 0 => MathTrue
-      case _ => MathFalse
-    }
-  }
+  object IsNaturalNumber extends TypeTest("isc", {
+    case MathRealNumeric(num) if num.isWhole && num.signum >= 0 => true
+    case _ => false
+  })
   
-  object IsPolynomial extends CalculatorSpecial.SimpleFunction("isp", 1) {
-    override protected def result(calc: Calculator, args: Vector[MathValue]): MathValue = args.head match {
-      case MathPolynomic(_) => MathTrue
-      case _ => MathFalse
-    }
-  }
+  object IsPolynomial extends TypeTest("isp", {
+    case MathPolynomic(_) => true
+    case _ => false
+  })
+  
+  private val typeTests: Map[String, TypeTest] = Seq(IsList, IsMatrix, IsVector, IsBoolean, IsNumber, IsReal, IsInteger, IsNaturalNumber, IsPolynomial).map(test => test.name -> test).toMap
+  
+  def typeTest(special: String): Option[MathValue => Boolean] = typeTests.get(special).map(_.test)
 }
@@ -5,49 +5,138 @@ import tuxcalculator.core.Calculator
 import tuxcalculator.core.data.{CalculatorCommands, CalculatorProperties}
 import tuxcalculator.core.lexer.{CatCode, CharacterMapping, FmtCode, Lookahead, TokResult}
 
-import scala.collection.mutable
-import scala.collection.mutable.ListBuffer
+import scala.collection.mutable.ArrayBuffer
 
 object InputHighlighter {
-  
+
   private val NumberStart: Set[CatCode] = Set(CatCode.Digit, CatCode.DecimalSep)
   private val Number: Set[CatCode] = NumberStart | Set(CatCode.Exp)
   private val Identifier: Set[CatCode] = Set(CatCode.Letter, CatCode.Digit, CatCode.Exp)
-  
-  def highlight(calc: Calculator, line: String): Vector[HighlightPart] = {
-    if (!calc.properties(CalculatorProperties.Highlight)) return Vector(new HighlightPart(HighlightType.PLAIN, line))
-    
-    var idx: Int = 0
-    val codePoints = Util.decomposeString(line)
-    val parts: ListBuffer[HighlightPart] = ListBuffer()
-    
-    def advanceToEnd(highlight: String => HighlightType): Unit = {
-      val content = codePoints.slice(idx min codePoints.length, codePoints.length)
-      idx = codePoints.length
-      if (content.nonEmpty) {
-        val highlightType = highlight(Util.makeString(content))
-        parts.lastOption match {
-          case Some(hl) if hl.`type`() == highlightType =>
-            parts.remove(parts.length - 1)
-            parts.addOne(new HighlightPart(highlightType, hl.content() + Util.makeString(content)))
-          case _ => parts.addOne(new HighlightPart(highlightType, Util.makeString(content)))
+
+  // A highlighted line. Keeps the scan of the line, so an edited version of it can be highlighted incrementally.
+  class Highlighted private[InputHighlighter] (val parts: Vector[HighlightPart], private[InputHighlighter] val scan: Scan)
+
+  // The state of the scanner at the start of each token in the main loop. peeked is the last code point that was
+  // looked at before reaching the checkpoint, including lookahead.
+  private[InputHighlighter] case class Checkpoint(offset: Int, runs: Int, brackets: List[CatCode], commandAssign: Boolean, peeked: Int)
+
+  // The result of scanning a line. Runs of code points with the same highlight type are stored by their start, the
+  // last run ends at the end of the line. Identifiers are not yet replaced by globals as the globals may change.
+  private[InputHighlighter] class Scan(
+    val calc: Calculator, val lexerVersion: Int, val codePoints: Array[Int], val commandName: Option[String],
+    val types: Array[HighlightType], val starts: Array[Int], val checkpoints: Array[Checkpoint]
+  ) {
+    def runEnd(run: Int): Int = if (run + 1 < starts.length) starts(run + 1) else codePoints.length
+
+    def parts(): Vector[HighlightPart] = {
+      val parts = Vector.newBuilder[HighlightPart]
+      parts.sizeHint(types.length)
+      for (run <- types.indices) {
+        val content = new String(codePoints, starts(run), runEnd(run) - starts(run))
+        // Replace identifiers that are globally defined with global highlight.
+        if (types(run) == HighlightType.IDENTIFIER && calc.resolution.isIdentifier(content)) {
+          parts += new HighlightPart(HighlightType.GLOBAL, content)
+        } else {
+          parts += new HighlightPart(types(run), content)
         }
       }
+      parts.result()
+    }
+  }
+
+  def highlight(calc: Calculator, line: String): Vector[HighlightPart] = highlight(calc, line, null).parts
+
+  // Highlights a line reusing the result for a previous line, which may be null. Only the region affected by the
+  // edit between the two lines is scanned again: The scanner restarts at the last checkpoint that did not look at
+  // the edited text and stops as soon as it reaches a checkpoint behind the edit in the same state as the previous
+  // scan. The rest of the previous scan is then shifted to the new position.
+  def highlight(calc: Calculator, line: String, previous: Highlighted): Highlighted = {
+    if (!calc.properties(CalculatorProperties.Highlight)) return new Highlighted(Vector(new HighlightPart(HighlightType.PLAIN, line)), null)
+    val codePoints = line.codePoints().toArray
+    val scan = if (previous != null && previous.scan != null && (previous.scan.calc eq calc) && previous.scan.lexerVersion == calc.lexer.version) {
+      rescan(calc, codePoints, previous.scan)
+    } else {
+      val scanner = new Scanner(calc, codePoints)
+      scanner.scanCommand()
+      scanner.scanBody(null)
+      scanner.result()
+    }
+    new Highlighted(scan.parts(), scan)
+  }
+
+  private def rescan(calc: Calculator, codePoints: Array[Int], previous: Scan): Scan = {
+    val oldCodePoints = previous.codePoints
+    val common = oldCodePoints.length min codePoints.length
+    var prefix = 0
+    while (prefix < common && oldCodePoints(prefix) == codePoints(prefix)) prefix += 1
+    if (prefix == oldCodePoints.length && prefix == codePoints.length) return previous
+    var suffix = 0
+    while (suffix < common - prefix && oldCodePoints(oldCodePoints.length - suffix - 1) == codePoints(codePoints.length - suffix - 1)) suffix += 1
+
+    // peeked only grows from one checkpoint to the next.
+    val checkpoints = previous.checkpoints
+    var low = 0
+    var high = checkpoints.length
+    while (low < high) {
+      val mid = (low + high) >>> 1
+      if (checkpoints(mid).peeked < prefix) low = mid + 1 else high = mid
+    }
+    var restart = low - 1
+    while (restart >= 0 && checkpoints(restart).offset > prefix) restart -= 1
+
+    val scanner = new Scanner(calc, codePoints)
+    if (restart >= 0) {
+      scanner.restore(previous, restart)
+    } else {
+      scanner.scanCommand()
+    }
+    scanner.scanBody(new Resync(previous, codePoints.length - oldCodePoints.length, codePoints.length - suffix, restart + 1))
+    scanner.result()
+  }
+
+  // Where a scan may continue with the previous scan: Any checkpoint at or after editEnd in the new line.
+  private[InputHighlighter] class Resync(val previous: Scan, val delta: Int, val editEnd: Int, var checkpoint: Int)
+
+  private[InputHighlighter] class Scanner(calc: Calculator, codePoints: Array[Int]) {
+
+    private[this] val length: Int = codePoints.length
+    private[this] var idx: Int = 0
+    private[this] var peeked: Int = -1
+    private[this] val types: ArrayBuffer[HighlightType] = ArrayBuffer()
+    private[this] val starts: ArrayBuffer[Int] = ArrayBuffer()
+    private[this] val checkpoints: ArrayBuffer[Checkpoint] = ArrayBuffer()
+    private[this] var brackets: List[CatCode] = Nil
+    private[this] var commandAssign: Boolean = false
+    private[this] var commandName: Option[String] = None
+
+    // All code points are read through this, so it is known which part of the line the scan depends on.
+    private def peek(pos: Int): Option[Int] = {
+      if (pos > peeked) peeked = pos
+      if (pos >= 0 && pos < length) Some(codePoints(pos)) else None
+    }
+
+    // Lookahead that updates with each advance
+    private[this] val lookahead: Lookahead[Int] = (ahead: Int) => peek(idx + ahead)
+
+    private def advanceToEnd(highlight: String => HighlightType): Unit = if (idx < length) {
+      peeked = peeked max length
+      advance(length - idx, highlight(new String(codePoints, idx, length - idx)))
     }
-    
-    def advance(amount: Int, highlight: HighlightType): Unit = if (amount != 0) {
-      val content = codePoints.slice(idx min codePoints.length, (idx + amount) min codePoints.length)
-      idx = (idx + amount) min codePoints.length
-      if (content.nonEmpty) parts.lastOption match {
-        case Some(hl) if hl.`type`() == highlight =>
-          parts.remove(parts.length - 1)
-          parts.addOne(new HighlightPart(highlight, hl.content() + Util.makeString(content)))
-        case _ => parts.addOne(new HighlightPart(highlight, Util.makeString(content)))
+
+    private def advance(amount: Int, highlight: HighlightType): Unit = if (amount > 0 && idx < length) {
+      if (types.isEmpty || types.last != highlight) {
+        types.addOne(highlight)
+        starts.addOne(idx)
       }
+      idx = (idx + amount) min length
+    }
+
+    private def skipSpace(): Unit = {
+      var amount = 0
+      while (peek(idx + amount).exists(cp => calc.lexer.catCode(cp) == CatCode.Space)) amount += 1
+      advance(amount, HighlightType.PLAIN)
     }
-    
-    def skipSpace(): Unit = advance(codePoints.drop(idx).takeWhile(cp => calc.lexer.catCode(cp) == CatCode.Space).length, HighlightType.PLAIN)
-    def advanceEscaped(lookahead: Lookahead[Int], highlight: HighlightType, breakAt: CatCode*)(inner: PartialFunction[TokResult, Boolean]): Unit = {
+    private def advanceEscaped(lookahead: Lookahead[Int], highlight: HighlightType, breakAt: CatCode*)(inner: PartialFunction[TokResult, Boolean]): Unit = {
       var escape: Boolean = false
       while (calc.lexer.lookup(lookahead) match {
         case TokResult.Eof => false
@@ -69,7 +158,7 @@ object InputHighlighter {
           true
       }) {}
     }
-    def advanceWhile(lookahead: Lookahead[Int], highlight: HighlightType, test: Option[CatCode] => Boolean, consumeBackslash: Boolean = true): Unit = {
+    private def advanceWhile(lookahead: Lookahead[Int], highlight: HighlightType, test: Option[CatCode] => Boolean, consumeBackslash: Boolean = true): Unit = {
       var amount = 0
       while(calc.lexer.lookup((ahead: Int) => lookahead.lookupToken(amount + ahead)) match {
         case TokResult.Eof => amount += 1; false // Prevent an infinite loop
@@ -81,7 +170,7 @@ object InputHighlighter {
       }) {}
       advance(amount, highlight)
     }
-    def advanceSingleIdentifier(lookahead: Lookahead[Int], highlight: HighlightType, stopAt: CatCode*): Unit = calc.lexer.lookup(lookahead) match {
+    private def advanceSingleIdentifier(lookahead: Lookahead[Int], highlight: HighlightType, stopAt: CatCode*): Unit = calc.lexer.lookup(lookahead) match {
       case CharacterMapping(CatCode.Escape, content) if !stopAt.contains(CatCode.Escape) =>
         advance(content.length, highlight) // Also updates the lookahead
         advanceEscaped(lookahead, highlight, breakAt = Seq(CatCode.Escape) ++ stopAt: _*) {
@@ -93,13 +182,13 @@ object InputHighlighter {
       case CharacterMapping(catCode, _) if NumberStart.contains(catCode) => // This is not an identifier but a number. Do not advance.
       case _ => advanceWhile(lookahead, highlight, cat => !cat.exists(stopAt.contains) && cat.exists(Identifier.contains))
     }
-    def maybeAdvanceCommand(commands: Set[String]): Option[String] = commands.map(Util.decomposeString).find((cmd: Vector[Int]) => codePoints.drop(idx).startsWith(cmd)) match {
-      case Some(cmd) if codePoints.drop(idx + cmd.length).headOption.forall(next => !Identifier.contains(calc.lexer.catCode(next))) =>
+    private def maybeAdvanceCommand(commands: Set[String]): Option[String] = commands.map(Util.decomposeString).find((cmd: Vector[Int]) => cmd.indices.forall(i => peek(idx + i).contains(cmd(i)))) match {
+      case Some(cmd) if peek(idx + cmd.length).forall(next => !Identifier.contains(calc.lexer.catCode(next))) =>
         advance(cmd.length, HighlightType.COMMAND)
         Some(Util.makeString(cmd))
       case _ => None
     }
-    def advanceUntilNextAssign(lookahead: Lookahead[Int])(typeFunc: PartialFunction[String, HighlightType]): Unit = {
+    private def advanceUntilNextAssign(lookahead: Lookahead[Int])(typeFunc: PartialFunction[String, HighlightType]): Unit = {
       skipSpace()
       var off = 0
       var offNonSpace = 0
@@ -112,123 +201,168 @@ object InputHighlighter {
           case _ => done = true
         }
       }
-      Util.makeString(codePoints.slice(idx, idx + offNonSpace)) match {
+      new String(codePoints, idx, offNonSpace min (length - idx)) match {
         case typeFunc(highlightType) => advance(offNonSpace, highlightType)
         case _ => advance(offNonSpace, HighlightType.PLAIN)
       }
       skipSpace()
     }
-    
-    // Lookahead that updates with each advance
-    val lookahead: Lookahead[Int] = (ahead: Int) => codePoints.drop(idx).drop(ahead).headOption
-    
-    skipSpace()
-    val initialCommandName: Option[String] = maybeAdvanceCommand(CalculatorCommands.commands(calc))
-    skipSpace()
-    
-    var commandAssign: Boolean = initialCommandName.exists(CalculatorCommands.isAssignmentCommand)
-
-    val commandName = initialCommandName match {
-      case Some("set") => maybeAdvanceCommand(Set("fmt")) match {
-        case Some("fmt") =>
-          advanceUntilNextAssign(lookahead) {
-            case fmtCodeString if FmtCode.byName(fmtCodeString).isDefined => HighlightType.CONSTRUCT
-          }
-          Some("set fmt")
-        case _ =>
-          advanceUntilNextAssign(lookahead) {
-            case property if CalculatorProperties.allProperties.contains(property) => HighlightType.CONSTRUCT
-          }
-          initialCommandName
-      }
-      case _ => initialCommandName
-    }
 
-    val bracketStack: mutable.Stack[CatCode] = mutable.Stack()
-    //noinspection LoopVariableNotUpdated
-    while (idx < codePoints.length) {
+    // Scans the command at the start of the line.
+    def scanCommand(): Unit = {
       skipSpace()
-      calc.lexer.lookup(lookahead) match {
-        case CharacterMapping(code, content) => code match {
-          case CatCode.Comment => advance(codePoints.length, HighlightType.COMMENT)
-          case CatCode.Error =>
-            advance(content.length, HighlightType.ERROR) // Also updates the lookahead
-            advanceEscaped(lookahead, HighlightType.ERROR, breakAt = CatCode.Error, CatCode.Interpolate) {
-              case CharacterMapping(CatCode.Error, content) =>
-                advance(content.length, HighlightType.ERROR)
-                false
-              case CharacterMapping(CatCode.Interpolate, content) => calc.lexer.lookup(lookahead.offset(content.length)) match {
-                case CharacterMapping(CatCode.Letter | CatCode.Exp | CatCode.Escape, _) =>
-                  advance(content.length, HighlightType.CONSTRUCT)
-                  advanceSingleIdentifier(lookahead, HighlightType.CONSTRUCT, stopAt = CatCode.Error)
-                  true
-                case _ =>
-                  advance(content.length, HighlightType.ERROR)
-                  true
-              }
+      val initialCommandName: Option[String] = maybeAdvanceCommand(CalculatorCommands.commands(calc))
+      skipSpace()
+
+      commandAssign = initialCommandName.exists(CalculatorCommands.isAssignmentCommand)
+
+      commandName = initialCommandName match {
+        case Some("set") => maybeAdvanceCommand(Set("fmt")) match {
+          case Some("fmt") =>
+            advanceUntilNextAssign(lookahead) {
+              case fmtCodeString if FmtCode.byName(fmtCodeString).isDefined => HighlightType.CONSTRUCT
             }
-          case CatCode.Assign if commandAssign =>
-            advance(content.length, HighlightType.COMMAND)
-            commandAssign = false
-            if (commandName.contains("cat") || commandName.contains("tok")) {
-              advanceToEnd(leftOver => if (CatCode.byName(leftOver.strip()).isDefined) HighlightType.CONSTRUCT else HighlightType.PLAIN)
+            Some("set fmt")
+          case _ =>
+            advanceUntilNextAssign(lookahead) {
+              case property if CalculatorProperties.allProperties.contains(property) => HighlightType.CONSTRUCT
             }
-          case CatCode.Operator | CatCode.Assign => advanceWhile(lookahead, HighlightType.OPERATOR, cat => cat.contains(CatCode.Operator) || cat.contains(CatCode.Assign))
-          case CatCode.Post => advanceWhile(lookahead, HighlightType.OPERATOR, cat => cat.contains(CatCode.Post))
-          case CatCode.Sign => advance(content.length, HighlightType.OPERATOR)
-          case CatCode.Reference =>
-            advance(content.length, HighlightType.REFERENCE) // Also updates the lookahead
-            skipSpace()
-            calc.lexer.lookup(lookahead) match {
-              // Signs only take the first token
-              case CharacterMapping(CatCode.Sign, nestedContent) => advance(nestedContent.length, HighlightType.REFERENCE)
-              case CharacterMapping(CatCode.Operator | CatCode.Assign, _) => advanceWhile(lookahead, HighlightType.REFERENCE, cat => cat.contains(CatCode.Operator) || cat.contains(CatCode.Assign))
-              case CharacterMapping(CatCode.Post, _) => advanceWhile(lookahead, HighlightType.REFERENCE, cat => cat.contains(CatCode.Post))
-              case CharacterMapping(CatCode.StartPrimary | CatCode.StartSecondary | CatCode.StartTertiary, nestedContent) =>
-                advance(nestedContent.length, HighlightType.REFERENCE)
-                calc.lexer.lookup(lookahead) match {
-                  case CharacterMapping(CatCode.End | CatCode.EndMatch, endContent) => advance(endContent.length, HighlightType.REFERENCE)
+            initialCommandName
+        }
+        case _ => initialCommandName
+      }
+    }
+
+    // Continues the previous scan from one of its checkpoints, instead of scanning the command.
+    def restore(previous: Scan, checkpoint: Int): Unit = {
+      val state = previous.checkpoints(checkpoint)
+      idx = state.offset
+      peeked = state.peeked
+      types.addAll(previous.types.iterator.take(state.runs))
+      starts.addAll(previous.starts.iterator.take(state.runs))
+      checkpoints.addAll(previous.checkpoints.iterator.take(checkpoint))
+      brackets = state.brackets
+      commandAssign = state.commandAssign
+      commandName = previous.commandName
+    }
+
+    def scanBody(resync: Resync): Unit = {
+      //noinspection LoopVariableNotUpdated
+      while (idx < length) {
+        if (resync != null && idx >= resync.editEnd && this.resync(resync)) return
+        checkpoints.addOne(Checkpoint(idx, types.length, brackets, commandAssign, peeked))
+        skipSpace()
+        calc.lexer.lookup(lookahead) match {
+          case CharacterMapping(code, content) => code match {
+            case CatCode.Comment => advance(length, HighlightType.COMMENT)
+            case CatCode.Error =>
+              advance(content.length, HighlightType.ERROR) // Also updates the lookahead
+              advanceEscaped(lookahead, HighlightType.ERROR, breakAt = CatCode.Error, CatCode.Interpolate) {
+                case CharacterMapping(CatCode.Error, content) =>
+                  advance(content.length, HighlightType.ERROR)
+                  false
+                case CharacterMapping(CatCode.Interpolate, content) => calc.lexer.lookup(lookahead.offset(content.length)) match {
+                  case CharacterMapping(CatCode.Letter | CatCode.Exp | CatCode.Escape, _) =>
+                    advance(content.length, HighlightType.CONSTRUCT)
+                    advanceSingleIdentifier(lookahead, HighlightType.CONSTRUCT, stopAt = CatCode.Error)
+                    true
                   case _ =>
+                    advance(content.length, HighlightType.ERROR)
+                    true
                 }
-              case _ => advanceSingleIdentifier(lookahead, HighlightType.REFERENCE)
-            }
-          case CatCode.Special =>
-            advance(content.length, HighlightType.SPECIAL) // Also updates the lookahead
-            skipSpace()
-            advanceSingleIdentifier(lookahead, HighlightType.SPECIAL)
-          case cat if NumberStart.contains(cat) => advanceWhile(lookahead, HighlightType.NUMBER, cat => cat.exists(Number.contains))
-          case cat if cat == CatCode.Escape || Identifier.contains(cat) => advanceSingleIdentifier(lookahead, HighlightType.IDENTIFIER)
-          case CatCode.StartPrimary | CatCode.StartSecondary | CatCode.StartTertiary =>
-            bracketStack.push(code)
-            advance(content.length, HighlightType.PLAIN)
-          case CatCode.StartMatch =>
-            bracketStack.push(CatCode.StartMatch)
-            advance(content.length, HighlightType.CONSTRUCT)
-          case CatCode.End =>
-            if (bracketStack.nonEmpty) bracketStack.pop()
-            advance(content.length, HighlightType.PLAIN)
-          case CatCode.EndMatch =>
-            if (bracketStack.nonEmpty && bracketStack.pop() == CatCode.StartMatch) {
+              }
+            case CatCode.Assign if commandAssign =>
+              advance(content.length, HighlightType.COMMAND)
+              commandAssign = false
+              if (commandName.contains("cat") || commandName.contains("tok")) {
+                advanceToEnd(leftOver => if (CatCode.byName(leftOver.strip()).isDefined) HighlightType.CONSTRUCT else HighlightType.PLAIN)
+              }
+            case CatCode.Operator | CatCode.Assign => advanceWhile(lookahead, HighlightType.OPERATOR, cat => cat.contains(CatCode.Operator) || cat.contains(CatCode.Assign))
+            case CatCode.Post => advanceWhile(lookahead, HighlightType.OPERATOR, cat => cat.contains(CatCode.Post))
+            case CatCode.Sign => advance(content.length, HighlightType.OPERATOR)
+            case CatCode.Reference =>
+              advance(content.length, HighlightType.REFERENCE) // Also updates the lookahead
+              skipSpace()
+              calc.lexer.lookup(lookahead) match {
+                // Signs only take the first token
+                case CharacterMapping(CatCode.Sign, nestedContent) => advance(nestedContent.length, HighlightType.REFERENCE)
+                case CharacterMapping(CatCode.Operator | CatCode.Assign, _) => advanceWhile(lookahead, HighlightType.REFERENCE, cat => cat.contains(CatCode.Operator) || cat.contains(CatCode.Assign))
+                case CharacterMapping(CatCode.Post, _) => advanceWhile(lookahead, HighlightType.REFERENCE, cat => cat.contains(CatCode.Post))
+                case CharacterMapping(CatCode.StartPrimary | CatCode.StartSecondary | CatCode.StartTertiary, nestedContent) =>
+                  advance(nestedContent.length, HighlightType.REFERENCE)
+                  calc.lexer.lookup(lookahead) match {
+                    case CharacterMapping(CatCode.End | CatCode.EndMatch, endContent) => advance(endContent.length, HighlightType.REFERENCE)
+                    case _ =>
+                  }
+                case _ => advanceSingleIdentifier(lookahead, HighlightType.REFERENCE)
+              }
+            case CatCode.Special =>
+              advance(content.length, HighlightType.SPECIAL) // Also updates the lookahead
+              skipSpace()
+              advanceSingleIdentifier(lookahead, HighlightType.SPECIAL)
+            case cat if NumberStart.contains(cat) => advanceWhile(lookahead, HighlightType.NUMBER, cat => cat.exists(Number.contains))
+            case cat if cat == CatCode.Escape || Identifier.contains(cat) => advanceSingleIdentifier(lookahead, HighlightType.IDENTIFIER)
+            case CatCode.StartPrimary | CatCode.StartSecondary | CatCode.StartTertiary =>
+              brackets = code :: brackets
+              advance(content.length, HighlightType.PLAIN)
+            case CatCode.StartMatch =>
+              brackets = CatCode.StartMatch :: brackets
               advance(content.length, HighlightType.CONSTRUCT)
-            } else {
+            case CatCode.End =>
+              if (brackets.nonEmpty) brackets = brackets.tail
               advance(content.length, HighlightType.PLAIN)
-            }
-          case CatCode.Answer | CatCode.Lambda | CatCode.Follow | CatCode.VarArg | CatCode.Partial => advance(content.length, HighlightType.CONSTRUCT)
-          case _ => advance(content.length, HighlightType.PLAIN)
+            case CatCode.EndMatch =>
+              val matched = brackets.headOption.contains(CatCode.StartMatch)
+              if (brackets.nonEmpty) brackets = brackets.tail
+              if (matched) {
+                advance(content.length, HighlightType.CONSTRUCT)
+              } else {
+                advance(content.length, HighlightType.PLAIN)
+              }
+            case CatCode.Answer | CatCode.Lambda | CatCode.Follow | CatCode.VarArg | CatCode.Partial => advance(content.length, HighlightType.CONSTRUCT)
+            case _ => advance(content.length, HighlightType.PLAIN)
+          }
+          case _ => advance(1, HighlightType.PLAIN)
         }
-        case _ => advance(1, HighlightType.PLAIN)
       }
     }
-    
-    // Identifiers are not necessarily processed as a whole but may be added in pieces.
-    // At this point however, they'll be merged together.
-    // Replace identifiers that are globally defined with global highlight.
-    parts.map(part => {
-      if (part.`type`() == HighlightType.IDENTIFIER && calc.resolution.tabCompleteIdentifier.contains(part.content())) {
-        new HighlightPart(HighlightType.GLOBAL, part.content())
-      } else {
-        part
+
+    // If the previous scan had a checkpoint at the current position in the same state, takes the rest from there.
+    private def resync(resync: Resync): Boolean = {
+      val previous = resync.previous
+      val target = idx - resync.delta
+      while (resync.checkpoint < previous.checkpoints.length && previous.checkpoints(resync.checkpoint).offset < target) resync.checkpoint += 1
+      if (resync.checkpoint >= previous.checkpoints.length) return false
+      val state = previous.checkpoints(resync.checkpoint)
+      if (state.offset != target || state.brackets != brackets || state.commandAssign != commandAssign || previous.commandName != commandName) return false
+
+      def append(highlight: HighlightType, start: Int): Unit = if (types.isEmpty || types.last != highlight) {
+        types.addOne(highlight)
+        starts.addOne(start)
+      }
+
+      // The run that was open at the checkpoint may continue after it, then all later runs follow. Adjacent runs
+      // of the same type are merged, so the number of runs at each later checkpoint needs to be mapped.
+      val runsBefore = types.length
+      val firstRun = (state.runs - 1) max 0
+      val runIndex = new Array[Int](previous.types.length - firstRun)
+      if (state.runs > 0) {
+        if (previous.runEnd(state.runs - 1) > state.offset) append(previous.types(state.runs - 1), idx)
+        runIndex(0) = types.length - 1
+      }
+      for (run <- state.runs until previous.types.length) {
+        append(previous.types(run), previous.starts(run) + resync.delta)
+        runIndex(run - firstRun) = types.length - 1
       }
-    }).toVector
+      checkpoints.addOne(Checkpoint(idx, runsBefore, brackets, commandAssign, peeked))
+      for (checkpoint <- previous.checkpoints.iterator.drop(resync.checkpoint + 1)) {
+        val runs = if (checkpoint.runs == 0) runsBefore else runIndex(checkpoint.runs - 1 - firstRun) + 1
+        checkpoints.addOne(Checkpoint(checkpoint.offset + resync.delta, runs, checkpoint.brackets, checkpoint.commandAssign, (checkpoint.peeked + resync.delta) max peeked))
+      }
+      idx = length
+      true
+    }
+
+    def result(): Scan = new Scan(calc, calc.lexer.version, codePoints, commandName, types.toArray, starts.toArray, checkpoints.toArray)
   }
 }
@@ -0,0 +1,60 @@
+package tuxcalculator.core.util
+
+import java.text.Normalizer
+import java.util
+import java.util.Locale
+import java.util.regex.Pattern
+import scala.collection.mutable
+
+// Names sorted by their normalized form for tab completion, so all names starting with a prefix can be found
+// without looking at (and normalizing) every name. Names are counted as the same name may be added by
+// multiple sources, e.g. a global function and a variable.
+class PrefixIndex {
+
+  // normalized name -> name -> count
+  private[this] val names: util.TreeMap[String, mutable.Map[String, Int]] = new util.TreeMap()
+
+  def add(name: String): Unit = {
+    val entries = names.computeIfAbsent(PrefixIndex.normalize(name), _ => mutable.Map())
+    entries(name) = entries.getOrElse(name, 0) + 1
+  }
+
+  def remove(name: String): Unit = {
+    val normalized = PrefixIndex.normalize(name)
+    names.get(normalized) match {
+      case null =>
+      case entries => entries.get(name) match {
+        case Some(1) =>
+          entries.remove(name)
+          if (entries.isEmpty) names.remove(normalized)
+        case Some(count) => entries(name) = count - 1
+        case None =>
+      }
+    }
+  }
+
+  // All names whose normalized form starts with the normalized prefix, ordered by their normalized form.
+  def matches(prefix: String): Vector[String] = {
+    val normalizedPrefix = PrefixIndex.normalize(prefix)
+    val result = Vector.newBuilder[String]
+    val iterator = names.tailMap(normalizedPrefix, true).entrySet().iterator()
+    var done = false
+    while (!done && iterator.hasNext) {
+      val entry = iterator.next()
+      if (entry.getKey.startsWith(normalizedPrefix)) {
+        result.addAll(entry.getValue.keys.toVector.sorted)
+      } else {
+        done = true
+      }
+    }
+    result.result()
+  }
+}
+
+object PrefixIndex {
+
+  private val Marks: Pattern = Pattern.compile("\\p{M}")
+
+  // Tab completion is case insensitive and ignores marks.
+  def normalize(string: String): String = Marks.matcher(Normalizer.normalize(string, Normalizer.Form.NFKD)).replaceAll("").toLowerCase(Locale.ROOT)
+}
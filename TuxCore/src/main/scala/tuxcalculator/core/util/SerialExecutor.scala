@@ -0,0 +1,47 @@
+package tuxcalculator.core.util
+
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{ConcurrentLinkedQueue, Executor, ThreadFactory}
+
+// Runs tasks one after another in the order they were submitted. A thread only exists while there are tasks
+// to run, so an idle executor costs nothing.
+class SerialExecutor(threadFactory: ThreadFactory) extends Executor {
+
+  private[this] val tasks: ConcurrentLinkedQueue[Runnable] = new ConcurrentLinkedQueue()
+  private[this] val running: AtomicBoolean = new AtomicBoolean(false)
+
+  override def execute(task: Runnable): Unit = {
+    tasks.add(task)
+    schedule()
+  }
+
+  private def schedule(): Unit = if (!tasks.isEmpty && running.compareAndSet(false, true)) {
+    threadFactory.newThread(() => drain()).start()
+  }
+
+  private def drain(): Unit = try {
+    var task = tasks.poll()
+    while (task != null) {
+      task.run()
+      task = tasks.poll()
+    }
+  } finally {
+    running.set(false)
+    // A task may have been submitted after the last poll but before running was reset.
+    schedule()
+  }
+}
+
+object SerialExecutor {
+
+  // Virtual threads where available, daemon threads otherwise (Android has no virtual threads).
+  def virtual(name: String): SerialExecutor = new SerialExecutor(try {
+    Thread.ofVirtual().name(name).factory()
+  } catch {
+    case _: LinkageError => (task: Runnable) => {
+      val thread = new Thread(task, name)
+      thread.setDaemon(true)
+      thread
+    }
+  })
+}
@@ -6,8 +6,6 @@ import tuxcalculator.core.Calculator
 import tuxcalculator.core.data.{CalculatorCommands, CalculatorProperties}
 import tuxcalculator.core.lexer._
 
-import java.text.Normalizer
-import java.util.Locale
 import scala.annotation.tailrec
 import scala.collection.Set
 import scala.jdk.CollectionConverters._
@@ -90,12 +88,11 @@ object TabCompleter {
       }
     }
 
+    // For small fixed sets of names, the names from the resolution table use its prefix index.
     def findMatches(matchString: String, regular: Set[String], priority: Set[String] = Set()): Vector[String] = {
-      def normalized(string: String): String = Normalizer.normalize(string, Normalizer.Form.NFKD)
-          .replaceAll("\\p{M}", "").toLowerCase(Locale.ROOT)
-      val normalizedMatch = normalized(matchString)
-      val matchingRegular = regular.filter(str => normalized(str).startsWith(normalizedMatch)).toVector.sortBy(normalized)
-      val matchingPriority = priority.filter(str => normalized(str).startsWith(normalizedMatch)).toVector.sortBy(normalized)
+      val normalizedMatch = PrefixIndex.normalize(matchString)
+      val matchingRegular = regular.filter(str => PrefixIndex.normalize(str).startsWith(normalizedMatch)).toVector.sortBy(PrefixIndex.normalize)
+      val matchingPriority = priority.filter(str => PrefixIndex.normalize(str).startsWith(normalizedMatch)).toVector.sortBy(PrefixIndex.normalize)
       matchingPriority ++ matchingRegular
     }
 
@@ -151,15 +148,15 @@ object TabCompleter {
 
     findPrefix(Reference, startsWith = CatCode.Reference) match {
       case Some(Prefix(prefix, completionString, matchString)) =>
-        val operatorMatches = findMatches(matchString, calc.resolution.tabCompleteReferenceOperator)
-        val functionMatches = findMatches(matchString, calc.resolution.tabCompleteReferenceFunction).map(escapeIdentifierIfRequired())
+        val operatorMatches = calc.resolution.tabCompleteReferenceOperator(matchString)
+        val functionMatches = calc.resolution.tabCompleteReferenceFunction(matchString).map(escapeIdentifierIfRequired())
         return Result(prefix, completionString, operatorMatches ++ functionMatches, isIdentifier = false)
       case None =>
     }
 
     findPrefix(Identifier) match {
       case Some(Prefix(prefix, completionString, matchString)) =>
-        val baseMatches: Vector[String] = findMatches(matchString, calc.resolution.tabCompleteIdentifier)
+        val baseMatches: Vector[String] = calc.resolution.tabCompleteIdentifier(matchString)
         val matches: Vector[String] = if (prefix.isEmpty) {
           val commands: Set[String] = CalculatorCommands.commands(calc)
           val commandMatches: Vector[String] = findMatches(matchString, commands)
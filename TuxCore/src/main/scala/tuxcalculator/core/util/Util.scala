@@ -37,24 +37,30 @@ object Util {
     (num.round(raisedMc), raisedMc)
   }
 
-  def formatPlain(calc: Calculator, num: BigDec): String = num.toPlainString.replace(".", calc.format(FmtCode.DecimalSep))
+  def formatPlain(calc: Calculator, num: BigDec): String = appendPlain(new JStringBuilder, num, calc.format(FmtCode.DecimalSep)).toString
+  def appendPlain(sb: JStringBuilder, num: BigDec, decimalSep: String): JStringBuilder = {
+    val plain: String = num.toPlainString
+    plain.indexOf('.') match {
+      case -1 => sb.append(plain)
+      case idx => sb.append(plain, 0, idx).append(decimalSep).append(plain, idx + 1, plain.length)
+    }
+  }
 
   // Always use scientific notation with a single digit before the decimal separator.
   // Required to make number formatting consistent
-  def formatScientific(calc: Calculator, num: BigDec): String = {
-    if (num.compareTo(BigDec.ZERO) == 0) return "0" + calc.format(FmtCode.Exp) + "0"
+  def formatScientific(calc: Calculator, num: BigDec): String = appendScientific(new JStringBuilder, num, calc.format(FmtCode.DecimalSep), calc.format(FmtCode.Exp)).toString
+  def appendScientific(sb: JStringBuilder, num: BigDec, decimalSep: String, expSep: String): JStringBuilder = {
+    if (num.compareTo(BigDec.ZERO) == 0) return sb.append("0").append(expSep).append("0")
     val digits: Array[Char] = num.unscaledValue().abs().toString.toCharArray
-    val sb: JStringBuilder = new JStringBuilder(15 + digits.length)
     val exp: Long = -num.scale().toLong + digits.length - 1
     if (num.signum() < 0) sb.append("-")
     sb.append(digits, 0, 1)
     if (digits.length > 1) {
-      sb.append(calc.format(FmtCode.DecimalSep))
+      sb.append(decimalSep)
       sb.append(digits, 1, digits.length - 1)
     }
-    sb.append(calc.format(FmtCode.Exp))
+    sb.append(expSep)
     sb.append(exp)
-    sb.toString
   }
   
   def getStacktrace(t: Throwable): Vector[String] = {
@@ -3,6 +3,8 @@ package tuxcalculator.core.value
 import ch.obermuhlner.math.big.BigComplex
 import tuxcalculator.core.Calculator
 
+import java.math.MathContext
+
 sealed trait MathValue {
   def number(calc: Calculator): NumericValue = MathError("Number expected, got: '" + calc.format(this) + "'")
   def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = MathError("Can't apply '" + calc.format(this) + "'")
@@ -16,12 +18,50 @@ object MathVoid extends NumericValue {
   override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = MathVoid
 }
 
-case class MathError(msg: String, trace: Vector[String]) extends NumericValue {
-  def trace(traceMsg: String): MathError = MathError(msg, trace.appended(traceMsg))
-  override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = this.trace("Application: (" + args.map(calc.format).mkString(", ") + ")")
+// The message and trace lines are only built when they are read. Many errors are discarded without ever
+// being shown (e.g. in match guards or #filter predicates), so formatting the values in them upfront is wasted.
+// The calculator resolves errors before they leave an evaluation or are kept in a definition, so the text is
+// formatted with the settings the error was raised with and the values it mentions can be collected.
+final class MathError private(private[this] var message: () => String, private[this] var traceLines: List[() => String]) extends NumericValue {
+  private[this] var resolvedMsg: String = _
+  private[this] var resolvedTrace: Vector[String] = _
+  
+  def msg: String = synchronized { resolve(); resolvedMsg }
+  def trace: Vector[String] = synchronized { resolve(); resolvedTrace }
+  
+  // Builds message and trace lines now and drops everything they were built from.
+  def resolve(): MathError = synchronized {
+    if (resolvedMsg == null) {
+      val theMsg = message()
+      val theLines = traceLines.map(_.apply())
+      resolvedMsg = theMsg
+      resolvedTrace = theLines.reverseIterator.toVector
+      message = () => theMsg
+      traceLines = theLines.map(line => () => line)
+    }
+    this
+  }
+  
+  def trace(traceMsg: => String): MathError = synchronized { new MathError(message, (() => traceMsg) :: traceLines) }
+  override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = this.trace("Application: (" + args.map(calc.formatInTrace).mkString(", ") + ")")
+  
+  override def equals(obj: Any): Boolean = obj match {
+    case other: MathError => msg == other.msg && trace == other.trace
+    case _ => false
+  }
+  override def hashCode(): Int = (msg, trace).hashCode()
+  override def toString: String = "MathError(" + msg + "," + trace + ")"
+}
+
+case class MathNumber(num: BigComplex) extends NumericValue {
+  // Whether rounding to mc would leave this number unchanged. BigDecimal caches its precision, so this is
+  // cheap. Nearly every intermediate result was computed at the current precision and passes this check.
+  def fits(mc: MathContext): Boolean = mc.getPrecision == 0 || (num.re.precision() <= mc.getPrecision && num.im.precision() <= mc.getPrecision)
 }
 
-case class MathNumber(num: BigComplex) extends NumericValue
+// An integer that is kept exact. It is still a MathNumber, so everything that does not know about exact
+// integers just sees a regular number. NumberHelper keeps results exact where possible.
+final class MathInteger private(val value: BigInt) extends MathNumber(BigComplex.valueOf(new java.math.BigDecimal(value.bigInteger)))
 
 case object MathTrue extends MathValue {
   override def number(calc: Calculator): NumericValue = MathNumber(BigDecimal(1, calc.mathContext))
@@ -33,7 +73,7 @@ case object MathFalse extends MathValue {
 
 case class MathList(values: Vector[MathValue]) extends MathValue {
   override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
-    if (args.length != 1 ) MathError("Lists can only be applied to a single argument") else ValueHelper.run(calc) {
+    if (args.length != 1 ) MathError("Lists can only be applied to a single argument") else ValueHelper.run(calc) { implicit calc =>
       val idx = ValueHelper.realInt(args.head)
       if (idx < 0 || idx >= values.length) ValueHelper.error("Index " + idx + " out of bounds for length " + values.length)
       values(idx.toInt)
@@ -58,13 +98,13 @@ case class MathMatrix(values: Vector[Vector[MathValue]]) extends MathValue {
   
   override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
     if (args.length == 1 && values.length == 1) {
-      ValueHelper.run(calc) {
+      ValueHelper.run(calc) { implicit calc =>
         val idx = ValueHelper.realInt(args.head)
         if (idx <= 0 || idx > values.head.length) ValueHelper.error("Index " + idx + " out of bounds for vector length " + values.head.length)
         values.head(idx.toInt - 1)
       }
     } else if (args.length == 2) {
-      ValueHelper.run(calc) {
+      ValueHelper.run(calc) { implicit calc =>
         val row = ValueHelper.realInt(args(0))
         val col = ValueHelper.realInt(args(1))
         if (col <= 0 || col > values.length) ValueHelper.error("Index " + col + " out of bounds for matrix width " + values.length)
@@ -85,7 +125,7 @@ case class MathPolynomial private (coefficients: Vector[MathNumber]) extends Mat
   }
   
   override def applyTo(calc: Calculator, args: Vector[MathValue]): MathValue = {
-    if (args.length != 1) MathError("Polynomials can only be applied to a single argument") else ValueHelper.run(calc) {
+    if (args.length != 1) MathError("Polynomials can only be applied to a single argument") else ValueHelper.run(calc) { implicit calc =>
       val arg = ValueHelper.get(args(0))
       val additiveIdentity = ValueHelper.get(NumberHelper.addIdentity(arg))
       val multiplicativeIdentity = ValueHelper.get(NumberHelper.mulIdentity(arg))
@@ -111,16 +151,30 @@ trait MathFunction extends MathValue {
 }
 
 object MathError {
-  def apply(msg: String): MathError = MathError(msg, Vector())
+  def apply(msg: => String): MathError = new MathError(() => msg, Nil)
+  def apply(msg: String, trace: Vector[String]): MathError = new MathError(() => msg, trace.reverseIterator.map(line => () => line).toList)
+  def unapply(err: MathError): Some[(String, Vector[String])] = Some((err.msg, err.trace))
 }
 
 object MathNumber {
-  val Zero: MathNumber = MathNumber(BigComplex.ZERO)
-  val One: MathNumber = MathNumber(BigComplex.ONE)
+  val Zero: MathNumber = MathInteger.Zero
+  val One: MathNumber = MathInteger.One
+  def apply(value: Int): MathNumber = MathInteger(value)
+  def apply(value: BigInt): MathNumber = MathInteger(value)
   def apply(real: BigDecimal): MathNumber = MathNumber(BigComplex.valueOf(real.bigDecimal))
   def apply(real: BigDecimal, imag: BigDecimal): MathNumber = MathNumber(BigComplex.valueOf(real.bigDecimal, imag.bigDecimal))
 }
 
+object MathInteger {
+  val Zero: MathInteger = new MathInteger(BigInt(0))
+  val One: MathInteger = new MathInteger(BigInt(1))
+  def apply(value: BigInt): MathInteger = new MathInteger(value)
+  def unapply(value: MathValue): Option[BigInt] = value match {
+    case int: MathInteger => Some(int.value)
+    case _ => None
+  }
+}
+
 object MathBoolean {
   def apply(value: Boolean): MathValue = if (value) MathTrue else MathFalse
   def unapply(value: MathValue): Option[Boolean] = value match {
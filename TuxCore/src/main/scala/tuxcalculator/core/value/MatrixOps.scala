@@ -1,5 +1,7 @@
 package tuxcalculator.core.value
 
+import tuxcalculator.core.Calculator
+
 import scala.annotation.tailrec
 import scala.collection.mutable
 
@@ -26,19 +28,20 @@ object MatrixOps {
     }
   }
   
-  private def doMul(a: MathMatrix, b: MathMatrix): Either[MathMatrix, String] = {
+  private def doMul(a: MathMatrix, b: MathMatrix)(implicit calc: Calculator): Either[MathMatrix, String] = {
     if (a.width != b.height) {
       Right("Can't multiply matrices: " + dim(a) + " and " + dim(b) + ".")
     } else {
       val builder = new MatrixBuilder(b.width, a.height)
       for (row <- 0 until a.height; col <- 0 until b.width) {
+        calc.budget.step()
         builder(row, col) = (a.getRow(row) zip b.getCol(col)).map(entry => NumberHelper.mul(entry._1, entry._2)).reduce(NumberHelper.add)
       }
       builder.buildMatrix.map(Left.apply).getOrElse(Right("Matrix was not filled."))
     }
   }
   
-  def mul(a: MathMatrix, b: MathMatrix): MathValue = doMul(a, b) match {
+  def mul(a: MathMatrix, b: MathMatrix)(implicit calc: Calculator): MathValue = doMul(a, b) match {
     case Left(mat) => mat
     case Right(err) => MathError(err)
   }
@@ -62,7 +65,7 @@ object MatrixOps {
     builder.build
   }
   
-  def invert(mat: MathMatrix): MathValue = {
+  def invert(mat: MathMatrix)(implicit calc: Calculator): MathValue = {
     if (mat.width != mat.height) {
       MathError("Can't invert " + dim(mat) + " matrix.")
     } else {
@@ -71,7 +74,7 @@ object MatrixOps {
   }
   
   @tailrec
-  def raise(mat: MathMatrix, exp: Int): MathValue = {
+  def raise(mat: MathMatrix, exp: Int)(implicit calc: Calculator): MathValue = {
     if (mat.width != mat.height) {
       MathError("Can't compute powers of " + dim(mat) + " matrix.")
     } else if (exp == 0) {
@@ -95,11 +98,12 @@ object MatrixOps {
       }
     } else invert(mat) match {
       case inverted: MathMatrix => raise(inverted, -exp)
-      case res => MathError("Can't invert matrix: got " + ValueHelper.calc.format(res))
+      case res => MathError("Can't invert matrix: got " + calc.format(res))
     }
   }
   
-  def det(mat: MathMatrix): MathValue = {
+  def det(mat: MathMatrix)(implicit calc: Calculator): MathValue = {
+    calc.budget.step()
     def signedDet(row: Int, subMatrix: MathMatrix): MathValue = {
       if (row % 2 == 0) NumberHelper.add(MathNumber.Zero, det(subMatrix))
       else NumberHelper.sub(MathNumber.Zero, det(subMatrix))
@@ -112,7 +116,7 @@ object MatrixOps {
     }
   }
   
-  def adj(mat: MathMatrix): MathValue = {
+  def adj(mat: MathMatrix)(implicit calc: Calculator): MathValue = {
     if (mat.width != mat.height) MathError("Can't compute adjugate of " + dim(mat) + " matrix.") else mat.width match {
       case 1 => MathMatrix(Vector(Vector(MathNumber.One)))
       case 2 =>
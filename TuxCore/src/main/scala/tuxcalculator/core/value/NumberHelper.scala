@@ -1,13 +1,19 @@
 package tuxcalculator.core.value
 
 import ch.obermuhlner.math.big.{BigComplex, BigComplexMath, BigDecimalMath}
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.math.Roots
 import tuxcalculator.core.value.ValueHelper._
 
-import java.math.RoundingMode
+import java.math.{RoundingMode, BigDecimal => BigDec}
 
 object NumberHelper {
 
-  def add(v1: MathValue, v2: MathValue): MathValue = (get(v1), get(v2)) match {
+  // Integer results with more bits are computed as decimals instead, so repeated arithmetic can't build huge integers.
+  private val MaxExactBits: Long = 1L << 20
+
+  def add(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = (get(v1), get(v2)) match {
+    case (MathInteger(n1), MathInteger(n2)) if (n1.bitLength max n2.bitLength) < MaxExactBits => MathInteger(n1 + n2)
     case (MathRealNumeric(n1), MathRealNumeric(n2)) => MathNumber(n1.bigDecimal.add(n2.bigDecimal, calc.mathContext))
     case (MathNumeric(n1), MathNumeric(n2)) => MathNumber(n1.add(n2, calc.mathContext))
     case (MathPolynomic(p1), MathPolynomic(p2)) => PolynomialOps.add(calc, p1, p2)
@@ -19,7 +25,8 @@ object NumberHelper {
     case _ => MathError("Can't add " + calc.format(v1) + " and " + calc.format(v2))
   }
 
-  def sub(v1: MathValue, v2: MathValue): MathValue = (get(v1), get(v2)) match {
+  def sub(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = (get(v1), get(v2)) match {
+    case (MathInteger(n1), MathInteger(n2)) if (n1.bitLength max n2.bitLength) < MaxExactBits => MathInteger(n1 - n2)
     case (MathRealNumeric(n1), MathRealNumeric(n2)) => MathNumber(n1.bigDecimal.subtract(n2.bigDecimal, calc.mathContext))
     case (MathNumeric(n1), MathNumeric(n2)) => MathNumber(n1.subtract(n2, calc.mathContext))
     case (MathPolynomic(p1), MathPolynomic(p2)) => PolynomialOps.sub(calc, p1, p2)
@@ -31,7 +38,8 @@ object NumberHelper {
     case _ => MathError("Can't sub " + calc.format(v1) + " and " + calc.format(v2))
   }
   
-  def mul(v1: MathValue, v2: MathValue): MathValue = (get(v1), get(v2)) match {
+  def mul(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = (get(v1), get(v2)) match {
+    case (MathInteger(n1), MathInteger(n2)) if n1.bitLength.toLong + n2.bitLength <= MaxExactBits => MathInteger(n1 * n2)
     case (MathRealNumeric(n1), MathRealNumeric(n2)) => MathNumber(n1.bigDecimal.multiply(n2.bigDecimal, calc.mathContext))
     case (MathNumeric(n1), MathNumeric(n2)) => MathNumber(n1.multiply(n2, calc.mathContext))
     case (MathPolynomic(p1), MathPolynomic(p2)) => PolynomialOps.mul(calc, p1, p2)
@@ -41,8 +49,9 @@ object NumberHelper {
     case _ => MathError("Can't mul " + calc.format(v1) + " and " + calc.format(v2))
   }
   
-  def div(v1: MathValue, v2: MathValue): MathValue = (get(v1), get(v2)) match {
+  def div(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = (get(v1), get(v2)) match {
     case (_, MathNumeric(n2)) if n2 == BigComplex.ZERO => MathError("Division by zero")
+    case (MathInteger(n1), MathInteger(n2)) if n1 % n2 == 0 => MathInteger(n1 / n2)
     case (MathRealNumeric(n1), MathRealNumeric(n2)) => MathNumber(n1.bigDecimal.divide(n2.bigDecimal, calc.mathContext))
     case (MathNumeric(n1), MathRealNumeric(n2)) => MathNumber(n1.divide(n2.bigDecimal, calc.mathContext))
     case (MathNumeric(n1), MathNumeric(n2)) => MathNumber(n1.divide(n2, calc.mathContext))
@@ -52,12 +61,12 @@ object NumberHelper {
     case _ => MathError("Can't div " + calc.format(v1) + " and " + calc.format(v2))
   }
   
-  def truncatingDiv(v1: MathValue, v2: MathValue): MathValue = {
-    import java.math.{BigDecimal => BigDec}
+  def truncatingDiv(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = {
     def truncateR(num: BigDec): BigDec = num.setScale(0, RoundingMode.DOWN)
     def truncateC(num: BigComplex): BigComplex = BigComplex.valueOf(truncateR(num.re), truncateR(num.im))
     (get(v1), get(v2)) match {
       case (_, MathNumeric(n2)) if n2 == BigComplex.ZERO => MathError("Division by zero")
+      case (MathInteger(n1), MathInteger(n2)) => MathInteger(n1 / n2)
       case (MathRealNumeric(n1), MathRealNumeric(n2)) => MathNumber(truncateR(n1.bigDecimal.divide(n2.bigDecimal, calc.mathContext)))
       case (MathNumeric(n1), MathRealNumeric(n2)) => MathNumber(truncateC(n1.divide(n2.bigDecimal, calc.mathContext)))
       case (MathNumeric(n1), MathNumeric(n2)) => MathNumber(truncateC(n1.divide(n2, calc.mathContext)))
@@ -68,18 +77,21 @@ object NumberHelper {
     }
   }
   
-  def mod(v1: MathValue, v2: MathValue): MathValue = (get(v1), get(v2)) match {
+  def mod(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = (get(v1), get(v2)) match {
     case (_, MathNumeric(n2)) if n2 == BigComplex.ZERO => MathError("Division by zero")
+    case (MathInteger(n1), MathInteger(n2)) => MathInteger(n1 % n2)
     case (MathRealNumeric(n1), MathRealNumeric(n2)) => MathNumber(n1.bigDecimal.remainder(n2.bigDecimal, calc.mathContext))
     case (MathNumeric(_), MathNumeric(_)) => MathError("Can't modulo complex numbers.")
     case (MathPolynomic(p1), MathPolynomic(p2)) => PolynomialOps.mod(calc, p1, p2)
     case _ => MathError("Can't modulo " + calc.format(v1) + " and " + calc.format(v2))
   }
   
-  def pow(v1: MathValue, v2: MathValue): MathValue = (get(v1), get(v2)) match {
+  def pow(v1: MathValue, v2: MathValue)(implicit calc: Calculator): MathValue = (get(v1), get(v2)) match {
     case (MathNumeric(n1), MathNumeric(n2)) if n1 == BigComplex.ZERO && n2 == BigComplex.ZERO => MathError("0^0 is undefined")
     case (MathNumeric(n1), MathNumeric(n2)) if n1 == BigComplex.ZERO && BigDecimal(n2.re) < 0 => MathError("Division by zero")
     case (MathNumeric(n1), MathNumeric(_)) if n1 == BigComplex.ZERO => MathNumber.Zero
+    case (MathInteger(n1), MathInteger(n2)) if n2.signum >= 0 && n2.isValidInt && n1.bitLength.toLong * n2.toLong <= MaxExactBits => MathInteger(n1.pow(n2.toInt))
+    case (base @ MathNumeric(_), ReciprocalInteger(n)) => root(base, n)
     case (MathRealNumeric(n1), MathRealNumeric(n2)) if n1 > 0 || n2.isValidLong => MathNumber(BigDecimalMath.pow(n1.bigDecimal, n2.bigDecimal, calc.mathContext))
     case (MathNumeric(n1), MathNumeric(n2)) if n2.isReal => MathNumber(BigComplexMath.pow(n1, n2.re, calc.mathContext))
     case (MathNumeric(n1), MathNumeric(n2)) => MathNumber(BigComplexMath.pow(n1, n2, calc.mathContext))
@@ -88,13 +100,37 @@ object NumberHelper {
     case _ => MathError("Can't pow " + calc.format(v1) + " and " + calc.format(v2))
   }
   
-  def addIdentity(value: MathValue): MathValue = get(value) match {
+  // Principal n-th root, exact for perfect powers of integers. n must be positive.
+  def root(value: MathValue, n: Int)(implicit calc: Calculator): MathValue = get(value) match {
+    case int: MathInteger if int.value.signum >= 0 => Roots.integerRoot(int.value, n) match {
+      case Some(result) => MathInteger(result)
+      case None => MathNumber(Roots.root(int.num, n, calc.mathContext))
+    }
+    case MathNumeric(num) => MathNumber(Roots.root(num, n, calc.mathContext))
+    case _ => MathError("Can't compute root of " + calc.format(value))
+  }
+  
+  // Matches exponents of the form 1/n, so x^(1/n) can be computed as a root.
+  private object ReciprocalInteger {
+    def unapply(value: MathValue)(implicit calc: Calculator): Option[Int] = value match {
+      case MathRealNumeric(exp) if exp > 0 && exp <= 0.5 =>
+        val n = BigDec.ONE.divide(exp.bigDecimal, calc.mathContext).setScale(0, RoundingMode.HALF_UP)
+        if (n.compareTo(BigDec.valueOf(Int.MaxValue)) > 0) return None
+        // 1/n has been rounded to the calculator precision, so allow an error in the last digit.
+        val exponent = exp.bigDecimal.precision - exp.bigDecimal.scale - 1
+        val tolerance = n.scaleByPowerOfTen(exponent - calc.precision + 1)
+        if (n.multiply(exp.bigDecimal).subtract(BigDec.ONE).abs.compareTo(tolerance) <= 0) Some(n.intValue) else None
+      case _ => None
+    }
+  }
+  
+  def addIdentity(value: MathValue)(implicit calc: Calculator): MathValue = get(value) match {
     case MathNumeric(_) | MathPolynomic(_) => MathNumber.Zero
     case mat: MathMatrix => MatrixOps.zero(mat.width, mat.height)
     case _ => MathError("Can't compute sums of " + calc.format(value))
   }
   
-  def mulIdentity(value: MathValue): MathValue = get(value) match {
+  def mulIdentity(value: MathValue)(implicit calc: Calculator): MathValue = get(value) match {
     case MathNumeric(_) | MathPolynomic(_) => MathNumber.One
     case mat: MathMatrix if mat.width == mat.height => MatrixOps.identity(mat.width)
     case _ => MathError("Can't compute powers of " + calc.format(value))
@@ -92,7 +92,7 @@ object PolynomialOps {
       }
       MathPolynomial(doRaise(pol, exp))
     } else if (pol.size == 1) {
-      NumberHelper.pow(pol(0), MathNumber(exp))
+      NumberHelper.pow(pol(0), MathNumber(exp))(calc)
     } else {
       MathError("Negative polynomial power.")
     }
@@ -0,0 +1,49 @@
+package tuxcalculator.core
+
+import org.junit.jupiter.api.Assertions._
+import tuxcalculator.api.{TuxCalculatorAPI, TuxFrontend}
+import tuxcalculator.core.format.FormatIO
+import tuxcalculator.core.util.Result
+
+import java.io._
+
+object TestCalculators {
+
+  object TestFrontend extends TuxFrontend {
+    override def showError(err: String): Unit = fail("Frontend error: " + err)
+    override def openFile(fileName: String): OutputStream = throw new IOException("Not supported in tests.")
+    override def exit(): Unit = ()
+  }
+
+  // The plain format as dumped by version 1.1.10 in older revisions. Formats are only loaded on the version they
+  // were dumped with, so the version in the header is replaced with the current one.
+  def legacyFormat(revision: Int): Array[Byte] = {
+    val data = Option(getClass.getResourceAsStream("/tuxcalculator/format/plain-revision" + revision + ".tuxf")) match {
+      case Some(in) => try in.readAllBytes() finally in.close()
+      case None => fail("Missing format resource for revision " + revision + ".")
+    }
+    val in = new DataInputStream(new ByteArrayInputStream(data))
+    val header = new ByteArrayOutputStream()
+    val headerOut = new DataOutputStream(header)
+    headerOut.writeInt(in.readInt())
+    in.readUTF()
+    headerOut.writeUTF(TuxCalculatorAPI.VERSION)
+    header.write(in.readAllBytes())
+    header.toByteArray
+  }
+
+  def plain(): Calculator = load(legacyFormat(2))
+
+  def load(data: Array[Byte]): Calculator = FormatIO.load(TestFrontend, new DataInputStream(new ByteArrayInputStream(data)))
+
+  def dump(calc: Calculator): Array[Byte] = {
+    val bytes = new ByteArrayOutputStream()
+    FormatIO.dump(calc, new DataOutputStream(bytes))
+    bytes.toByteArray
+  }
+
+  def eval(calc: Calculator, line: String): String = calc.parse(line) match {
+    case Result.Value(value) => calc.format(value)
+    case Result.Error(msg, trace) => fail(line + ": " + msg + trace.mkString("\n", "\n", ""))
+  }
+}
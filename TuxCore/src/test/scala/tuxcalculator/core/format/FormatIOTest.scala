@@ -0,0 +1,34 @@
+package tuxcalculator.core.format
+
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+import tuxcalculator.core.Calculator
+import tuxcalculator.core.TestCalculators._
+import tuxcalculator.core.data.CalculatorProperties
+
+class FormatIOTest {
+
+  private def checkPlain(calc: Calculator): Unit = {
+    assertFalse(calc.properties(CalculatorProperties.Stats))
+    assertEquals("1.414213562373095", eval(calc, "sqrt(2)"))
+    assertEquals("1267650600228229401496703205376", eval(calc, "2^100"))
+    assertEquals("3628800", eval(calc, "10!"))
+    assertEquals("6", eval(calc, "gcd(12,18)"))
+  }
+
+  @Test
+  def loadsRevision1(): Unit = checkPlain(load(legacyFormat(1)))
+
+  @Test
+  def loadsRevision2(): Unit = checkPlain(load(legacyFormat(2)))
+
+  @Test
+  def roundTrip(): Unit = {
+    val legacy = legacyFormat(2)
+    val data = dump(load(legacy))
+    assertTrue(data.length < legacy.length)
+    val calc = load(data)
+    assertArrayEquals(data, dump(calc))
+    checkPlain(calc)
+  }
+}
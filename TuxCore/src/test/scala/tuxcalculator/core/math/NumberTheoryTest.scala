@@ -0,0 +1,56 @@
+package tuxcalculator.core.math
+
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+
+class NumberTheoryTest {
+
+  private def factor(n: BigInt): Vector[(BigInt, Int)] = NumberTheory.factor(n, () => ())
+
+  @Test
+  def primes(): Unit = {
+    for (p <- Seq("2", "3", "65521", "65537", "1000000007", "2305843009213693951", "618970019642690137449562111")) {
+      assertTrue(NumberTheory.isPrime(BigInt(p)), p)
+    }
+    // Carmichael numbers, strong pseudoprimes to the first few bases and a composite above the Miller-Rabin bound.
+    for (n <- Seq(BigInt(0), BigInt(1), BigInt(4), BigInt(561), BigInt(65535), BigInt("3215031751"), BigInt("3825123056546413051"), BigInt(1000000007) * 1000000009 * 1000000021)) {
+      assertFalse(NumberTheory.isPrime(n), n.toString)
+    }
+  }
+
+  @Test
+  def factorizations(): Unit = {
+    assertEquals(Vector(), factor(1))
+    assertEquals(Vector(BigInt(2) -> 3, BigInt(3) -> 2, BigInt(5) -> 1), factor(360))
+    assertEquals(Vector(BigInt(71) -> 1, BigInt(839) -> 1, BigInt(1471) -> 1, BigInt(6857) -> 1), factor(BigInt("600851475143")))
+    assertEquals(Vector(BigInt(274177) -> 1, BigInt("67280421310721") -> 1), factor(BigInt(2).pow(64) + 1))
+    assertEquals(Vector(BigInt(998244353) -> 1, BigInt(1000000007) -> 1), factor(BigInt(998244353) * 1000000007))
+    assertEquals(Vector(BigInt(65537) -> 2), factor(BigInt(65537) * 65537))
+  }
+
+  @Test
+  def totients(): Unit = {
+    assertEquals(BigInt(1), NumberTheory.totient(1, () => ()))
+    assertEquals(BigInt(12), NumberTheory.totient(36, () => ()))
+    assertEquals(BigInt(1000000006), NumberTheory.totient(1000000007, () => ()))
+    assertEquals(BigInt(2).pow(63), NumberTheory.totient(BigInt(2).pow(64), () => ()))
+  }
+
+  @Test
+  def digits(): Unit = {
+    assertEquals(Vector(BigInt(1), BigInt(0), BigInt(1)), NumberTheory.digits(2, 5))
+    assertEquals(Vector(BigInt(1), BigInt(0)), NumberTheory.digits(BigInt(1000), 1000))
+    assertEquals(Vector(), NumberTheory.digits(10, 0))
+  }
+
+  @Test
+  def factoringCanBeStopped(): Unit = {
+    // A product of two 64 bit primes, pollard rho can't split it in reasonable time.
+    val n = BigInt("18446744073709551557") * BigInt("18446744073709551533")
+    var steps = 0
+    assertThrows(classOf[IllegalStateException], () => NumberTheory.factor(n, () => {
+      steps += 1
+      if (steps > 100) throw new IllegalStateException()
+    }))
+  }
+}
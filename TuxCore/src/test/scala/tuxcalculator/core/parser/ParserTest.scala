@@ -0,0 +1,91 @@
+package tuxcalculator.core.parser
+
+import org.junit.jupiter.api.Assertions._
+import org.junit.jupiter.api.Test
+import tuxcalculator.core.TestCalculators
+import tuxcalculator.core.lexer.{PartialTokenStream, TokenStream}
+import tuxcalculator.core.util.Result
+
+// Parses the same input with the descent parser and the legacy combinator parser, both must produce the same
+// trees and the same errors.
+class ParserTest {
+
+  private val calc = TestCalculators.plain()
+  private val legacy = new Parser(calc, legacy = true)
+  private val descent = new Parser(calc, legacy = false)
+
+  private val Expressions: Seq[String] = Seq(
+    "1", "1.5", "1.5e3", "2E-4", ".5", "x", "\"text\"", "\"§x and §(1+2)\"", "?", "`+`", "@+", "@sin",
+    "1+2*3", "1-2-3", "2^3^4", "-1", "--1", "-2^2", "¬~1", "3!", "3!!°", "1+-2", "a*b/c%d", "1&2|3$4",
+    "sin(x)", "sin x", "f(1,2,3)", "f()", "f(1)(2)", "f(x...)", "f(1,x...,2)", "f(_,2)", "f(_)", "(1)", "((1+2))",
+    "[1,2,3]", "[]", "{1,2}", "⟨1,2⟩", "[x...]",
+    "\\x->x", "\\x,y->x+y", "λ->1", "\\x...->x", "\\[(x)->1;(y)->2]", "\\[(x,y):x<y->x;(x,y)->y]",
+    "\\[(x:p)->1;(x)->2]",
+    "Y \\f,n->n", "f_1", "f_1_2"
+  )
+
+  private val InvalidExpressions: Seq[String] = Seq(
+    "", "()", "1+", "+", "1,2", "f(1,)", "f(,1)", "\\->", "\\x->", "1 2", "\\[x]",
+    "\\[x->1;]", "@", "@1", "1 +* 2", "f(1;2)", "λ1->x", "\\x:->x", "_", "...", "x...", "1:2",
+    "[1,2;3,4]", "\\x:x>0->x", "\\x:p->x", "\\[x->1;y->2]", "\\[x:p->1;x->2]"
+  )
+
+  private val Definitions: Seq[String] = Seq(
+    "def f(x) = x", "def f(x,y) = x+y", "def f() = 1", "def f(l...) = l", "def f(x,l...) = l", "def(-300) +(a,b) = a",
+    "def(10) ~(a) = a", "def !(x) = x", "def +(a) = a", "def f(x:p) = x", "def f(x,y):x<y = x", "def(1+2) f(x) = x",
+    "def f = 1", "def f(1) = 1", "def (x) = x", "def f(x,) = x", "def f(...l) = l", "def f(x):= x",
+    "def(a) f(x) = x", "def() f(x) = x", "def f(x)(y) = x"
+  )
+
+  private val Lets: Seq[String] = Seq("let x = 1", "let π = 3", "let f(x) = 1", "let 1 = 1", "let x y = 1", "let = 1")
+
+  private val Rems: Seq[String] = Seq("rem x", "rem f(x)", "rem f(x,y)", "rem +(a,b)", "rem f(l...)", "rem 1", "rem")
+
+  private def check[T](line: String, tokens: TokenStream, parse: (Parser, TokenStream) => Result[T]): Result[T] = {
+    val result = parse(descent, tokens)
+    assertEquals(parse(legacy, tokens), result, line)
+    result
+  }
+
+  private def tokenize(line: String): TokenStream = calc.lexer.tokenize(line) match {
+    case Result.Value(tokens) => tokens
+    case Result.Error(msg, _) => fail(line + ": Can't tokenize: " + msg)
+  }
+
+  @Test
+  def expressions(): Unit = for (line <- Expressions) {
+    assertTrue(check(line, tokenize(line), _.expression(_)).isInstanceOf[Result.Value[_]], line)
+  }
+
+  @Test
+  def invalidExpressions(): Unit = for (line <- InvalidExpressions) {
+    assertTrue(check(line, tokenize(line), _.expression(_)).isInstanceOf[Result.Error], line)
+  }
+
+  @Test
+  def definitions(): Unit = for (line <- Definitions) line match {
+    case calc.commands.Def(cmdStr) => calc.lexer.tokenizeAssignment(cmdStr) match {
+      case Result.Value(PartialTokenStream(tokens, _)) => check(line, tokens, _.defCommand(_))
+      case Result.Error(msg, _) => fail(line + ": Can't tokenize: " + msg)
+    }
+    case _ => fail(line + ": Not a definition.")
+  }
+
+  @Test
+  def lets(): Unit = for (line <- Lets) line match {
+    case calc.commands.Let(cmdStr) => calc.lexer.tokenizeAssignment(cmdStr) match {
+      case Result.Value(PartialTokenStream(tokens, _)) => check(line, tokens, _.letCommand(_))
+      case Result.Error(msg, _) => fail(line + ": Can't tokenize: " + msg)
+    }
+    case _ => fail(line + ": Not a let command.")
+  }
+
+  @Test
+  def rems(): Unit = for (line <- Rems) line match {
+    case calc.commands.Rem(cmdStr) => calc.lexer.continue(cmdStr) match {
+      case Result.Value(tokens) => check(line, tokens, _.remCommand(_))
+      case Result.Error(msg, _) => fail(line + ": Can't tokenize: " + msg)
+    }
+    case _ => fail(line + ": Not a rem command.")
+  }
+}
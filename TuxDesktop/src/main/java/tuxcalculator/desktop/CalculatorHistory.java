@@ -3,90 +3,349 @@ package tuxcalculator.desktop;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.Stream;
 
+// The persistent history is an append-only journal: Each line is written as soon as it is added, so a crash
+// loses nothing. The file starts with a header followed by records of a 4-byte length and the UTF-8 encoded
+// line. The history file is memory-mapped on open and only the record offsets are collected, lines are decoded
+// when they are needed. Once the journal has grown to twice the persistent size, it is compacted in the
+// background. History files from older versions with one entry per line are converted on open, unless the
+// history is not persistent. Calculators sharing the history file take a lock on a file next to it whenever they
+// write to the journal. The journal itself can't be locked, as compaction replaces it.
 public class CalculatorHistory {
-    
+
+    private static final byte[] HEADER = "TuxHist\u0001".getBytes(StandardCharsets.ISO_8859_1);
+    // File locks are held by the whole process, calculators in the same process are kept apart by this monitor.
+    private static final Object FILE_LOCK = new Object();
+
     @Nullable private final Path path;
     private final int persistentSize;
-    private final List<String> oldLines;
+    // The history file at open, the last persistentSize records are part of the history.
+    private final ByteBuffer mapped;
+    private final int[] offsets;
     private final ArrayList<String> newLines;
+    @Nullable private FileChannel journal;
+    @Nullable private Object journalKey;
+    private int journalRecords;
+    private boolean compacting;
 
     public CalculatorHistory() {
         this.path = null;
         this.persistentSize = 0;
-        this.oldLines = List.of();
+        this.mapped = ByteBuffer.allocate(0);
+        this.offsets = new int[0];
         this.newLines = new ArrayList<>();
     }
-    
+
     public CalculatorHistory(@Nonnull Path path, int persistentSize) {
-        List<String> oldLines = new ArrayList<>();
+        ByteBuffer mapped = ByteBuffer.allocate(0);
+        int[] offsets = new int[0];
+        int journalRecords = 0;
         try {
+            if (persistentSize > 0) createJournal(path);
             if (Files.isRegularFile(path)) {
-                for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
-                    if (oldLines.isEmpty() || !Objects.equals(line, oldLines.getLast())) {
-                        oldLines.add(line);
-                    }
+                if (isJournal(path)) {
+                    mapped = map(path);
+                } else if (persistentSize > 0) {
+                    convert(path);
+                    mapped = map(path);
+                } else {
+                    // Without a persistent history, the file is never written, so it is not converted either.
+                    mapped = encode(readOldFormat(path));
+                }
+                offsets = records(mapped);
+                journalRecords = offsets.length;
+                int validEnd = offsets.length == 0 ? HEADER.length : recordEnd(mapped, offsets[offsets.length - 1]);
+                if (persistentSize > 0 && validEnd < mapped.limit()) {
+                    // The last record was not written completely.
+                    Path journalPath = path;
+                    withLock(journalPath, () -> {
+                        try (FileChannel channel = FileChannel.open(journalPath, StandardOpenOption.WRITE)) {
+                            channel.truncate(validEnd);
+                        }
+                    });
+                }
+                if (persistentSize > 0 && offsets.length > persistentSize) {
+                    offsets = Arrays.copyOfRange(offsets, offsets.length - persistentSize, offsets.length);
                 }
-            } else {
-                oldLines = List.of();
             }
         } catch (IOException e) {
             path = null;
-            oldLines.clear();
+            mapped = ByteBuffer.allocate(0);
+            offsets = new int[0];
         }
         this.path = path;
         this.persistentSize = this.path == null ? 0 : persistentSize;
-        this.oldLines = List.copyOf(oldLines);
+        this.mapped = mapped;
+        this.offsets = offsets;
         this.newLines = new ArrayList<>();
+        this.journalRecords = journalRecords;
+        if (this.persistentSize > 0) {
+            try {
+                this.openJournal();
+            } catch (IOException e) {
+                this.closeJournal();
+            }
+            if (this.journalRecords > 2 * this.persistentSize) this.compactInBackground();
+        }
     }
 
     public synchronized boolean isEmpty() {
-        return this.oldLines.isEmpty() && this.newLines.isEmpty();
+        return this.offsets.length == 0 && this.newLines.isEmpty();
     }
-    
+
     public synchronized int length() {
-        return this.oldLines.size() + this.newLines.size();
+        return this.offsets.length + this.newLines.size();
     }
-    
+
     public synchronized String get(int idx) {
         if (idx < 0) {
             throw new IndexOutOfBoundsException();
         } else if (idx < this.newLines.size()) {
             return this.newLines.get(this.newLines.size() - idx - 1);
-        } else if ((idx - this.newLines.size()) < this.oldLines.size()) {
-            return this.oldLines.get(this.oldLines.size() - (idx - this.newLines.size()) - 1);
+        } else if ((idx - this.newLines.size()) < this.offsets.length) {
+            int record = this.offsets[this.offsets.length - (idx - this.newLines.size()) - 1];
+            byte[] data = new byte[this.mapped.getInt(record)];
+            this.mapped.get(record + 4, data);
+            return new String(data, StandardCharsets.UTF_8);
         } else {
             throw new IndexOutOfBoundsException();
         }
     }
-    
+
+    // The index of the first entry at or after from that contains the query, or -1 if there is none. Entries
+    // from the history file are searched in the mapped data without decoding them. As UTF-8 is self-synchronizing,
+    // the encoded query can only match at character boundaries.
+    public synchronized int search(String query, int from) {
+        byte[] encodedQuery = query.getBytes(StandardCharsets.UTF_8);
+        for (int idx = Math.max(from, 0); idx < this.length(); idx++) {
+            if (idx < this.newLines.size()) {
+                if (this.newLines.get(this.newLines.size() - idx - 1).contains(query)) return idx;
+            } else if (this.recordContains(this.offsets[this.offsets.length - (idx - this.newLines.size()) - 1], encodedQuery)) {
+                return idx;
+            }
+        }
+        return -1;
+    }
+
     public synchronized void add(String line) {
         if (this.isEmpty() || !line.equals(this.get(0))) {
             this.newLines.add(line);
+            if (this.journal != null) try {
+                byte[] data = line.getBytes(StandardCharsets.UTF_8);
+                ByteBuffer record = ByteBuffer.allocate(4 + data.length).putInt(data.length).put(data).flip();
+                withLock(Objects.requireNonNull(this.path), () -> {
+                    this.reopenIfReplaced();
+                    while (record.hasRemaining()) Objects.requireNonNull(this.journal).write(record);
+                });
+                this.journalRecords += 1;
+                if (this.journalRecords > 2 * this.persistentSize && !this.compacting) this.compactInBackground();
+            } catch (IOException e) {
+                this.closeJournal();
+            }
         }
     }
-    
+
+    // Lines are written when they are added, this only makes sure they have reached the disk.
     public synchronized void save() {
-        if (this.path != null && this.persistentSize > 0) try {
-            Path parent = this.path.toAbsolutePath().getParent();
-            if (parent != null && !Files.exists(parent)) Files.createDirectories(parent);
-            List<String> readLines = Files.isRegularFile(this.path) ? Files.readAllLines(this.path, StandardCharsets.UTF_8) : List.of();
-            String newContent = Stream.concat(readLines.stream(), this.newLines.stream())
-                    .skip(Math.max(0, readLines.size() + this.newLines.size() - this.persistentSize))
-                    .map(line -> line.stripTrailing() + "\n")
-                    .collect(Collectors.joining());
-            Files.writeString(this.path, newContent, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+        if (this.journal != null) try {
+            this.journal.force(false);
+        } catch (IOException e) {
+            //
+        }
+    }
+
+    private boolean recordContains(int record, byte[] query) {
+        int start = record + 4;
+        int end = recordEnd(this.mapped, record);
+        for (int off = start; off + query.length <= end; off++) {
+            int matched = 0;
+            while (matched < query.length && this.mapped.get(off + matched) == query[matched]) matched += 1;
+            if (matched == query.length) return true;
+        }
+        return false;
+    }
+
+    private void openJournal() throws IOException {
+        Objects.requireNonNull(this.path);
+        createJournal(this.path);
+        this.journal = FileChannel.open(this.path, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        this.journalKey = Files.readAttributes(this.path, BasicFileAttributes.class).fileKey();
+    }
+
+    private void closeJournal() {
+        if (this.journal != null) try {
+            this.journal.close();
         } catch (IOException e) {
             //
         }
+        this.journal = null;
+        this.journalKey = null;
+    }
+
+    // Another calculator may have compacted the journal, then this one would write to the old file.
+    private void reopenIfReplaced() throws IOException {
+        Objects.requireNonNull(this.path);
+        if (!Files.exists(this.path) || !Objects.equals(Files.readAttributes(this.path, BasicFileAttributes.class).fileKey(), this.journalKey)) {
+            this.closeJournal();
+            this.openJournal();
+        }
+    }
+
+    private void compactInBackground() {
+        this.compacting = true;
+        Thread.ofVirtual().name("TuxCalculator History").start(this::compact);
+    }
+
+    // Replaces the journal with one that only has the last persistentSize records. This reads the current file,
+    // so it keeps the lines other calculators have added since this one opened the history. They can't append
+    // to the old file while it is replaced, as both hold the lock.
+    private synchronized void compact() {
+        try {
+            if (this.path == null || this.journal == null) return;
+            withLock(this.path, this::replaceJournal);
+        } catch (IOException e) {
+            // Compaction is retried once more lines have been added.
+            this.journalRecords = 0;
+        } finally {
+            this.compacting = false;
+        }
+    }
+
+    private void replaceJournal() throws IOException {
+        Objects.requireNonNull(this.path);
+        ByteBuffer data = map(this.path);
+        int[] records = records(data);
+        int first = Math.max(0, records.length - this.persistentSize);
+        Path tmp = Files.createTempFile(this.path.toAbsolutePath().getParent(), this.path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                ByteBuffer header = ByteBuffer.wrap(HEADER);
+                while (header.hasRemaining()) out.write(header);
+                if (first < records.length) {
+                    // Records are contiguous, so the kept records are copied in one piece.
+                    ByteBuffer kept = data.slice(records[first], recordEnd(data, records[records.length - 1]) - records[first]);
+                    while (kept.hasRemaining()) out.write(kept);
+                }
+            }
+            Files.move(tmp, this.path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        this.closeJournal();
+        this.openJournal();
+        this.journalRecords = records.length - first;
+    }
+
+    private interface JournalWrite {
+        void run() throws IOException;
+    }
+
+    private static void withLock(Path path, JournalWrite write) throws IOException {
+        synchronized (FILE_LOCK) {
+            Path lockPath = path.resolveSibling(path.getFileName() + ".lock");
+            // Closing the channel releases the lock.
+            try (FileChannel channel = FileChannel.open(lockPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                channel.lock();
+                write.run();
+            }
+        }
+    }
+
+    private static void createJournal(Path path) throws IOException {
+        if (Files.exists(path)) return;
+        Path parent = path.toAbsolutePath().getParent();
+        if (parent != null && !Files.exists(parent)) Files.createDirectories(parent);
+        try {
+            Files.write(path, HEADER, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        } catch (FileAlreadyExistsException e) {
+            //
+        }
+    }
+
+    private static boolean isJournal(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER.length);
+            while (header.hasRemaining() && channel.read(header) >= 0) {}
+            return Arrays.equals(header.array(), 0, header.position(), HEADER, 0, HEADER.length);
+        }
+    }
+
+    // The mapping stays valid after the channel is closed.
+    private static ByteBuffer map(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) throw new IOException("History file too large: " + path);
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    // Reads a history file in the old format, one line per entry.
+    private static List<String> readOldFormat(Path path) throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (String line : Files.readAllLines(path, StandardCharsets.UTF_8)) {
+            if (lines.isEmpty() || !Objects.equals(line, lines.getLast())) {
+                lines.add(line);
+            }
+        }
+        return lines;
+    }
+
+    // A journal with the given lines.
+    private static ByteBuffer encode(List<String> lines) {
+        List<byte[]> encoded = new ArrayList<>(lines.size());
+        int size = HEADER.length;
+        for (String line : lines) {
+            byte[] data = line.getBytes(StandardCharsets.UTF_8);
+            encoded.add(data);
+            size += 4 + data.length;
+        }
+        ByteBuffer journal = ByteBuffer.allocate(size).put(HEADER);
+        for (byte[] data : encoded) journal.putInt(data.length).put(data);
+        return journal.flip();
+    }
+
+    // Converts a history file in the old format to a journal.
+    private static void convert(Path path) throws IOException {
+        ByteBuffer journal = encode(readOldFormat(path));
+        Path tmp = Files.createTempFile(path.toAbsolutePath().getParent(), path.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE)) {
+                while (journal.hasRemaining()) out.write(journal);
+            }
+            Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    // The offsets of all complete records in a journal.
+    private static int[] records(ByteBuffer data) {
+        int[] offsets = new int[16];
+        int count = 0;
+        int offset = HEADER.length;
+        while (offset + 4 <= data.limit()) {
+            int length = data.getInt(offset);
+            if (length < 0 || length > data.limit() - offset - 4) break;
+            if (count == offsets.length) offsets = Arrays.copyOf(offsets, 2 * count);
+            offsets[count++] = offset;
+            offset += 4 + length;
+        }
+        return Arrays.copyOf(offsets, count);
+    }
+
+    private static int recordEnd(ByteBuffer data, int record) {
+        return record + 4 + data.getInt(record);
     }
 }
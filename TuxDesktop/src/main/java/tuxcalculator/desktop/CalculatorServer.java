@@ -0,0 +1,259 @@
+package tuxcalculator.desktop;
+
+import tuxcalculator.api.TuxCalculator;
+import tuxcalculator.api.TuxFrontend;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+// Serves calculator sessions over a local socket using line delimited JSON. Each connection gets its own
+// session from a pool of preloaded calculators. Sessions are never reused: When a connection closes, its session
+// is thrown away and a fresh one is built in the background, so no state leaks between connections. Connections
+// that send no request within the idle timeout are closed, so they don't hold on to a session.
+//
+// Requests:  {"id": 1, "op": "eval", "line": "3 + 4", "timeout": 1000}
+//            {"id": 2, "op": "stats"}
+// Responses: {"id": 1, "ok": true, "type": "value", "result": "7"}
+//            {"id": 1, "ok": true, "type": "error", "result": "Error: ...", "trace": [...]}
+//            {"id": 1, "ok": false, "error": "..."}
+// The id is optional and echoed back. The timeout is in milliseconds, the server default is used if omitted and
+// also caps it.
+public class CalculatorServer {
+
+    public static final Duration ADMISSION_TIMEOUT = Duration.ofSeconds(1);
+    public static final Duration MAX_REBUILD_DELAY = Duration.ofMinutes(1);
+
+    private final Function<TuxFrontend, TuxCalculator> factory;
+    private final BlockingQueue<TuxCalculator> sessions;
+    private final int poolSize;
+    private final Duration requestTimeout;
+    private final Duration idleTimeout;
+    private final ScheduledExecutorService idleTimer = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("TuxCalculator Idle Timer").daemon().factory());
+
+    private final AtomicInteger activeConnections = new AtomicInteger(0);
+    private final LongAdder connections = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder requests = new LongAdder();
+    private final LongAdder failedRequests = new LongAdder();
+    private final LongAdder idleClosed = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+
+    public CalculatorServer(Function<TuxFrontend, TuxCalculator> factory, int poolSize, Duration requestTimeout, Duration idleTimeout) {
+        this.factory = factory;
+        this.poolSize = poolSize;
+        this.sessions = new ArrayBlockingQueue<>(poolSize);
+        this.requestTimeout = requestTimeout;
+        this.idleTimeout = idleTimeout;
+    }
+
+    // Listens on a unix domain socket if address is a path, on localhost TCP if it is a port number.
+    public void serve(String address) throws IOException {
+        for (int i = 0; i < this.poolSize; i++) {
+            this.sessions.add(this.factory.apply(ServerFrontend.INSTANCE));
+        }
+
+        SocketAddress socketAddress;
+        ServerSocketChannel server;
+        if (address.chars().allMatch(Character::isDigit)) {
+            socketAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+            server = ServerSocketChannel.open(StandardProtocolFamily.INET);
+        } else {
+            Path path = Paths.get(address).toAbsolutePath().normalize();
+            Files.deleteIfExists(path);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException e) {
+                    //
+                }
+            }));
+            socketAddress = UnixDomainSocketAddress.of(path);
+            server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+
+        try (server) {
+            server.bind(socketAddress);
+            System.err.println(Main.title() + ": Serving " + this.poolSize + " sessions on " + address);
+            //noinspection InfiniteLoopStatement
+            while (true) {
+                SocketChannel channel = server.accept();
+                Thread.ofVirtual().name("TuxCalculator Connection").start(() -> this.handle(channel));
+            }
+        }
+    }
+
+    private void handle(SocketChannel channel) {
+        this.connections.increment();
+        try (channel; BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8)); Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+            // Admission control: Only as many connections as there are sessions, others wait a bit and are then turned away.
+            TuxCalculator calc = this.sessions.poll(ADMISSION_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+            if (calc == null) {
+                this.rejected.increment();
+                writer.write(ServerJson.write(Map.of("ok", false, "error", "Server busy")) + "\n");
+                writer.flush();
+                return;
+            }
+            this.activeConnections.incrementAndGet();
+            try {
+                String line;
+                while ((line = this.readRequest(channel, reader)) != null) {
+                    if (line.isBlank()) continue;
+                    writer.write(ServerJson.write(this.process(calc, line)) + "\n");
+                    writer.flush();
+                }
+            } finally {
+                this.activeConnections.decrementAndGet();
+                Thread.ofVirtual().name("TuxCalculator Session Builder").start(this::rebuildSession);
+            }
+        } catch (IOException e) {
+            // Connection closed by the client
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Closing the channel makes the blocked read fail, which ends the connection and releases its session.
+    private String readRequest(SocketChannel channel, BufferedReader reader) throws IOException {
+        ScheduledFuture<?> idle = this.idleTimer.schedule(() -> {
+            this.idleClosed.increment();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                //
+            }
+        }, this.idleTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        try {
+            return reader.readLine();
+        } finally {
+            idle.cancel(false);
+        }
+    }
+
+    // Builds a session to replace one that was thrown away. Building may fail, for example if the rc-file has been
+    // changed since the server started. Then this is retried with increasing delay, so the pool does not shrink.
+    private void rebuildSession() {
+        long delay = 1000;
+        while (true) {
+            try {
+                this.sessions.add(this.factory.apply(ServerFrontend.INSTANCE));
+                return;
+            } catch (RuntimeException e) {
+                System.err.println(Main.title() + ": Failed to build a session, retrying in " + (delay / 1000) + "s: " + e.getMessage());
+            }
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                return;
+            }
+            delay = Math.min(2 * delay, MAX_REBUILD_DELAY.toMillis());
+        }
+    }
+
+    private Map<String, Object> process(TuxCalculator calc, String line) {
+        long start = System.nanoTime();
+        this.requests.increment();
+        Map<String, Object> response = new LinkedHashMap<>();
+        try {
+            Map<String, Object> request = ServerJson.parseObject(line);
+            if (request.containsKey("id")) response.put("id", request.get("id"));
+            Object op = request.getOrDefault("op", "eval");
+            if ("eval".equals(op)) {
+                if (!(request.get("line") instanceof String input)) throw new IllegalArgumentException("Missing line");
+                TuxCalculator.Result result = calc.parse(input, new TuxCalculator.Limits(this.timeout(request), 0, 0));
+                response.put("ok", true);
+                if (result instanceof TuxCalculator.Error err) {
+                    response.put("type", "error");
+                    response.put("result", err.toString());
+                    response.put("trace", err.trace());
+                } else {
+                    response.put("type", result instanceof TuxCalculator.Void ? "void" : "value");
+                    response.put("result", result.toString());
+                }
+            } else if ("stats".equals(op)) {
+                response.put("ok", true);
+                response.put("stats", this.stats());
+            } else {
+                throw new IllegalArgumentException("Unknown op: " + op);
+            }
+        } catch (IllegalArgumentException e) {
+            this.failedRequests.increment();
+            response.put("ok", false);
+            response.put("error", e.getMessage());
+        } catch (Exception e) {
+            // A failure in the calculator only fails this request, the connection stays usable.
+            this.failedRequests.increment();
+            response.put("ok", false);
+            response.put("error", e.getClass().getSimpleName() + ": " + e.getMessage());
+        }
+        this.latency.record(System.nanoTime() - start);
+        return response;
+    }
+
+    // Clients may shorten the deadline of a request, but not remove or extend it.
+    private Duration timeout(Map<String, Object> request) {
+        if (!(request.get("timeout") instanceof Number millis)) return this.requestTimeout;
+        long max = this.requestTimeout.toMillis();
+        return Duration.ofMillis(max > 0 ? Math.clamp(millis.longValue(), 1, max) : Math.max(millis.longValue(), 1));
+    }
+
+    private Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("sessions.pool", this.poolSize);
+        stats.put("sessions.ready", this.sessions.size());
+        stats.put("connections.active", this.activeConnections.get());
+        stats.put("connections.total", this.connections.sum());
+        stats.put("connections.rejected", this.rejected.sum());
+        stats.put("connections.idle", this.idleClosed.sum());
+        stats.put("requests.total", this.requests.sum());
+        stats.put("requests.failed", this.failedRequests.sum());
+        stats.put("latency.p50", this.latency.percentile(0.5));
+        stats.put("latency.p99", this.latency.percentile(0.99));
+        return stats;
+    }
+
+    private static final class ServerFrontend implements TuxFrontend {
+
+        public static final ServerFrontend INSTANCE = new ServerFrontend();
+
+        @Override
+        public void showError(String err) {
+            System.err.println(err);
+        }
+
+        @Override
+        public OutputStream openFile(String fileName) throws IOException {
+            throw new IOException("Sessions can't write files.");
+        }
+
+        @Override
+        public void exit() {
+            //
+        }
+    }
+}
@@ -10,7 +10,10 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
 import java.util.Locale;
+import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
 
 public abstract class DesktopFrontend implements TuxFrontend {
@@ -19,7 +22,15 @@ public abstract class DesktopFrontend implements TuxFrontend {
         
     }
     
-    public abstract void run(TuxCalculator calc, CalculatorHistory history, Consumer<Callable<Void>> executor) throws IOException;
+    // The calculator and the history are still loading in the background when the frontend starts.
+    public abstract void run(CompletableFuture<TuxCalculator> calc, CompletableFuture<CalculatorHistory> history, Consumer<Callable<Void>> executor) throws IOException;
+    
+    // Shows why the calculator could not be loaded and exits.
+    protected void startupFailed(Throwable ex) {
+        if (ex instanceof CompletionException && ex.getCause() != null) ex = ex.getCause();
+        this.showError(Objects.requireNonNullElse(ex.getMessage(), ex.toString()));
+        System.exit(1);
+    }
     
     @Override
     public OutputStream openFile(String fileName) throws IOException {
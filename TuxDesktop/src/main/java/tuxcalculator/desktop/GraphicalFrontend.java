@@ -5,16 +5,26 @@ import tuxcalculator.api.TuxCalculator;
 import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public abstract class GraphicalFrontend extends DesktopFrontend {
 
     @Nullable private Consumer<Callable<Void>> executor;
+    @Nullable private CompletableFuture<TuxCalculator> loadingCalc;
     @Nullable private TuxCalculator calc;
-    @Nullable private CalculatorHistory history;
+    @Nullable private CompletableFuture<CalculatorHistory> history;
+    // Requests made while the calculator is still loading, they run in order once it is ready.
+    private final List<Consumer<TuxCalculator>> pending = new ArrayList<>();
+    // Requests made while the history file is still read, they run in order once it is ready.
+    private final List<Consumer<CalculatorHistory>> pendingHistory = new ArrayList<>();
     
     private String lastInput = "";
     private int arrowIdx = -1;
@@ -42,14 +52,31 @@ public abstract class GraphicalFrontend extends DesktopFrontend {
     protected abstract int getCursorPosition();
     protected abstract void placeCursorAt(int cursorPosition);
     protected abstract void appendLine(String term, List<TuxCalculator.HighlightPart> highlightTerm, TuxCalculator.Result result);
+    protected abstract void runOnUiThread(Runnable action);
     
     @Override
     @OverridingMethodsMustInvokeSuper
-    public void run(TuxCalculator calc, CalculatorHistory history, Consumer<Callable<Void>> executor) throws IOException {
-        this.calc = calc;
+    public void run(CompletableFuture<TuxCalculator> calc, CompletableFuture<CalculatorHistory> history, Consumer<Callable<Void>> executor) throws IOException {
+        this.loadingCalc = calc;
         this.history = history;
         this.executor = executor;
     }
+    
+    // Must be called once the window has been built. Input is accepted before, but requests are only processed
+    // after this has been called and the calculator has been loaded.
+    protected final void uiReady() {
+        StartupTimer.phase("window");
+        if (this.loadingCalc != null) this.loadingCalc.whenComplete((calc, ex) -> this.runOnUiThread(() -> {
+            if (this.executor != null) this.executor.accept(() -> {
+                if (ex != null) this.startupFailed(ex);
+                this.calc = calc;
+                for (Consumer<TuxCalculator> action : this.pending) action.accept(calc);
+                this.pending.clear();
+                this.highlightInput();
+                return null;
+            });
+        }));
+    }
 
     protected final void perform(Action action) {
         if (executor != null) executor.accept(() -> {
@@ -66,59 +93,125 @@ public abstract class GraphicalFrontend extends DesktopFrontend {
                     this.delTab();
                     this.decrHist();
                 }
+                case SEARCH_HIST -> {
+                    this.delTab();
+                    this.searchHist();
+                }
                 case TAB_FORWARD -> this.updateTab(false);
                 case TAB_BACKWARD -> this.updateTab(true);
                 case STOP_TAB -> this.delTab();
-                case HIGHLIGHT_INPUT -> this.applyInputHighlighting(this.doHighlight(this.getCurrentText()));
+                case HIGHLIGHT_INPUT -> this.highlightInput();
+                case CANCEL -> {
+                    if (this.calc != null) this.calc.cancel();
+                }
             }
             return null;
         });
     }
     
+    // Calculator requests run in the background, their results are applied on the UI thread. Superseded
+    // requests are cancelled, these are silently ignored.
+    private <T> void whenDone(CompletableFuture<T> future, Consumer<T> action) {
+        future.whenComplete((result, ex) -> {
+            if (ex instanceof CancellationException) return;
+            this.runOnUiThread(() -> {
+                if (this.executor != null) this.executor.accept(() -> {
+                    if (ex != null) throw new ExecutionException(ex);
+                    action.accept(result);
+                    return null;
+                });
+            });
+        });
+    }
+    
+    private void withCalc(Consumer<TuxCalculator> action) {
+        if (this.calc != null) {
+            action.accept(this.calc);
+        } else {
+            this.pending.add(action);
+        }
+    }
+    
+    private void withHistory(Consumer<CalculatorHistory> action) {
+        if (this.history == null) return;
+        if (this.history.isDone() && this.pendingHistory.isEmpty()) {
+            action.accept(this.history.join());
+        } else {
+            if (this.pendingHistory.isEmpty()) this.whenDone(this.history, history -> {
+                List<Consumer<CalculatorHistory>> actions = List.copyOf(this.pendingHistory);
+                this.pendingHistory.clear();
+                for (Consumer<CalculatorHistory> queued : actions) queued.accept(history);
+            });
+            this.pendingHistory.add(action);
+        }
+    }
+    
     private int clamp(int value, int minI, int maxE) {
         if (value < minI) return minI;
         if (value >= maxE) return maxE - 1;
         return value;
     }
     
-    private List<TuxCalculator.HighlightPart> doHighlight(String text) {
+    private CompletableFuture<List<TuxCalculator.HighlightPart>> doHighlight(String text) {
         if (this.supportsHighlighting() && this.calc != null) {
-            return this.calc.highlight(text);
+            return this.calc.highlightAsync(text);
         } else {
-            return List.of(new TuxCalculator.HighlightPart(TuxCalculator.HighlightType.PLAIN, text));
+            return CompletableFuture.completedFuture(List.of(new TuxCalculator.HighlightPart(TuxCalculator.HighlightType.PLAIN, text)));
         }
     }
     
+    private void highlightInput() {
+        String text = this.getCurrentText();
+        this.whenDone(this.doHighlight(text), highlighted -> {
+            // Highlighting for outdated text would be applied at the wrong positions.
+            if (text.equals(this.getCurrentText())) this.applyInputHighlighting(highlighted);
+        });
+    }
+    
     private void incrHist() {
-        CalculatorHistory history = this.history;
-        if (history == null) return;
-        
-        if (this.arrowIdx < 0) {
-            this.current = this.getCurrentText();
-        }
+        this.withHistory(history -> {
+            if (this.arrowIdx < 0) {
+                this.current = this.getCurrentText();
+            }
 
-        this.arrowIdx = this.clamp(this.arrowIdx + 1, -1, history.length());
-        String newText = this.arrowIdx < 0 ? this.current : history.get(this.arrowIdx);
-        this.setCurrentText(newText);
-        this.placeCursorAt(newText.length());
+            this.arrowIdx = this.clamp(this.arrowIdx + 1, -1, history.length());
+            String newText = this.arrowIdx < 0 ? this.current : history.get(this.arrowIdx);
+            this.setCurrentText(newText);
+            this.placeCursorAt(newText.length());
+        });
     }
 
     private void decrHist() {
-        CalculatorHistory history = this.history;
-        if (history == null) return;
+        this.withHistory(history -> {
+            if (this.arrowIdx < 0) {
+                this.current = this.getCurrentText();
+            }
         
-        if (this.arrowIdx < 0) {
-            this.current = this.getCurrentText();
-        }
+            this.arrowIdx = this.clamp(this.arrowIdx - 1, -1, history.length());
+            String newText = this.arrowIdx < 0 ? this.current : history.get(this.arrowIdx);
+            this.setCurrentText(newText);
+            this.placeCursorAt(newText.length());
+        });
+    }
+
+    // Goes to the next older entry that contains the text entered before browsing the history.
+    private void searchHist() {
+        this.withHistory(history -> {
+            if (this.arrowIdx < 0) {
+                this.current = this.getCurrentText();
+            }
         
-        this.arrowIdx = this.clamp(this.arrowIdx - 1, -1, history.length());
-        String newText = this.arrowIdx < 0 ? this.current : history.get(this.arrowIdx);
-        this.setCurrentText(newText);
-        this.placeCursorAt(newText.length());
+            int found = history.search(this.current, this.arrowIdx + 1);
+            if (found < 0) return;
+            this.arrowIdx = found;
+            String newText = history.get(this.arrowIdx);
+            this.setCurrentText(newText);
+            this.placeCursorAt(newText.length());
+        });
     }
 
     private void calcTerm() {
-        if (this.calc == null) throw new IllegalStateException("Frontend has not been started yet.");
+        if (this.executor == null) throw new IllegalStateException("Frontend has not been started yet.");
         
         String term = this.getCurrentText();
         this.setCurrentText("");
@@ -128,56 +221,74 @@ public abstract class GraphicalFrontend extends DesktopFrontend {
         else this.lastInput = term;
         if (term.isBlank()) return;
 
-        if (this.history != null) {
-            this.history.add(term);
-        }
+        String finalTerm = term;
+        this.withHistory(history -> history.add(finalTerm));
         this.arrowIdx = -1;
 
-        List<TuxCalculator.HighlightPart> highlightedTerm = this.doHighlight(term.strip());
-        TuxCalculator.Result result = this.calc.parse(term);
-        this.appendLine(term.strip(), highlightedTerm, result);
-        this.grabInputFocus();
+        String strippedTerm = term.strip();
+        this.withCalc(calc -> {
+            // Typing while an earlier term is still evaluated can supersede the highlighting, show it plain then.
+            CompletableFuture<List<TuxCalculator.HighlightPart>> highlightedTerm = this.doHighlight(strippedTerm).exceptionally(ex -> {
+                if (ex instanceof CancellationException) return List.of(new TuxCalculator.HighlightPart(TuxCalculator.HighlightType.PLAIN, strippedTerm));
+                throw new CompletionException(ex);
+            });
+            CompletableFuture<TuxCalculator.Result> result = calc.parseAsync(finalTerm);
+            this.whenDone(CompletableFuture.allOf(highlightedTerm, result), done -> {
+                this.appendLine(strippedTerm, highlightedTerm.join(), result.join());
+                this.grabInputFocus();
+            });
+        });
     }
 
     private void updateTab(boolean inverted) {
-        if (this.calc == null) throw new IllegalStateException("Frontend has not been started yet.");
+        // Nothing to complete while the calculator is still loading.
+        if (this.calc == null) return;
         if (this.hasSelectedText() || (this.lastTabCurserPos >= 0 && this.lastTabCurserPos != this.getCursorPosition())) {
             this.delTab();
             return;
         }
         
-        String former;
         if (this.tabIdx < 0 || this.tabList == null) {
-            TuxCalculator.TabCompletion completion = calc.tabComplete(this.getCurrentTextToCurser());
-            
-            former = completion.completionString();
-            
-            if (former.isEmpty() && completion.isIdentifier()) {
-                this.tabList = Stream.concat(Stream.of("()"), completion.matches().stream()).toList();
-            } else {
-                this.tabList = completion.matches();
-            }
-            
-            if (this.tabList.isEmpty()) {
-                this.delTab();
-                return;
-            }
-            
-            if (inverted) {
-                this.tabIdx = this.tabList.size() - 1;
-            } else {
-                this.tabIdx = 0;
-            }
+            String textToCursor = this.getCurrentTextToCurser();
+            this.whenDone(this.calc.tabCompleteAsync(textToCursor), completion -> {
+                // The input may have changed while the completion was computed.
+                if (this.tabIdx < 0 && textToCursor.equals(this.getCurrentTextToCurser())) this.startTab(completion, inverted);
+            });
         } else {
-            former = this.tabList.get(this.tabIdx);
+            String former = this.tabList.get(this.tabIdx);
             if (former.endsWith(")")) this.placeCursorAt(this.getCursorPosition() + 1);
             if (inverted) {
                 this.tabIdx = (this.tabIdx + this.tabList.size() - 1) % this.tabList.size();
             } else {
                 this.tabIdx = (this.tabIdx + 1) % this.tabList.size();
             }
+            this.applyTab(former);
         }
+    }
+    
+    private void startTab(TuxCalculator.TabCompletion completion, boolean inverted) {
+        String former = completion.completionString();
         
+        if (former.isEmpty() && completion.isIdentifier()) {
+            this.tabList = Stream.concat(Stream.of("()"), completion.matches().stream()).toList();
+        } else {
+            this.tabList = completion.matches();
+        }
+        
+        if (this.tabList.isEmpty()) {
+            this.delTab();
+            return;
+        }
+        
+        if (inverted) {
+            this.tabIdx = this.tabList.size() - 1;
+        } else {
+            this.tabIdx = 0;
+        }
+        this.applyTab(former);
+    }
+    
+    private void applyTab(String former) {
         String textBefore = this.getCurrentTextToCurser();
         String textAfter = this.getCurrentTextFromCurser();
         this.setCurrentText(textBefore.substring(0, textBefore.length() - former.length()) + this.tabList.get(this.tabIdx) + textAfter);
@@ -199,9 +310,11 @@ public abstract class GraphicalFrontend extends DesktopFrontend {
         SUBMIT,
         INCR_HIST,
         DECR_HIST,
+        SEARCH_HIST,
         TAB_FORWARD,
         TAB_BACKWARD,
         STOP_TAB,
-        HIGHLIGHT_INPUT
+        HIGHLIGHT_INPUT,
+        CANCEL
     }
 }
@@ -3,6 +3,7 @@ package tuxcalculator.desktop;
 import org.gnome.gdk.Keyval;
 import org.gnome.gdk.ModifierType;
 import org.gnome.gdk.Rectangle;
+import org.gnome.glib.Glib;
 import org.gnome.gtk.*;
 import org.gnome.pango.Style;
 import org.gnome.pango.Weight;
@@ -20,6 +21,7 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public class GtkFrontend extends GraphicalFrontend {
@@ -55,7 +57,7 @@ public class GtkFrontend extends GraphicalFrontend {
     }
 
     @Override
-    public void run(TuxCalculator calc, CalculatorHistory history, Consumer<Callable<Void>> executor) throws IOException {
+    public void run(CompletableFuture<TuxCalculator> calc, CompletableFuture<CalculatorHistory> history, Consumer<Callable<Void>> executor) throws IOException {
         super.run(calc, history, executor);
         
         try (InputStream in = GtkFrontend.class.getResourceAsStream("/tuxcalculator/desktop/gtk_window.xml")) {
@@ -104,12 +106,18 @@ public class GtkFrontend extends GraphicalFrontend {
                 } else if (eventKey.getKeyval() == Keyval.Down || eventKey.getKeyval().toString().toLowerCase(Locale.ROOT).contains("kp_down")) {
                     this.perform(Action.DECR_HIST);
                     return true;
+                } else if (eventKey.getKeyval().toUnicode() == 'r' && eventKey.getState().contains(ModifierType.CONTROL_MASK)) {
+                    this.perform(Action.SEARCH_HIST);
+                    return true;
                 } else if (eventKey.getKeyval() == Keyval.Tab) {
                     this.perform(Action.TAB_FORWARD);
                     return true;
                 } else if (eventKey.getKeyval() == Keyval.BackTab) {
                     this.perform(Action.TAB_BACKWARD);
                     return true;
+                } else if (eventKey.getKeyval() == Keyval.Escape) {
+                    this.perform(Action.CANCEL);
+                    return true;
                 } else {
                     if (eventKey.getKeyval().toUnicode() != 0) this.perform(Action.STOP_TAB);
                     return false;
@@ -146,6 +154,7 @@ public class GtkFrontend extends GraphicalFrontend {
             this.grabInputFocus();
             window.showAll();
             window.present();
+            this.uiReady();
             Gtk.main();
         } catch (ParseException e) {
             throw new IOException(e);
@@ -158,6 +167,14 @@ public class GtkFrontend extends GraphicalFrontend {
         super.exit();
     }
 
+    @Override
+    protected void runOnUiThread(Runnable action) {
+        Glib.idleAdd(() -> {
+            action.run();
+            return false;
+        });
+    }
+
     @Override
     protected boolean supportsHighlighting() {
         return true;
@@ -22,6 +22,7 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
@@ -86,7 +87,7 @@ public class JavaFxFrontend extends GraphicalFrontend {
     }
 
     @Override
-    public void run(TuxCalculator calc, CalculatorHistory history, Consumer<Callable<Void>> executor) throws IOException {
+    public void run(CompletableFuture<TuxCalculator> calc, CompletableFuture<CalculatorHistory> history, Consumer<Callable<Void>> executor) throws IOException {
         super.run(calc, history, executor);
         
         URL res = JavaFxFrontend.class.getResource("/tuxcalculator/desktop/fx_window.fxml");
@@ -118,10 +119,20 @@ public class JavaFxFrontend extends GraphicalFrontend {
                         this.perform(Action.DECR_HIST);
                         event.consume();
                     }
+                    case R -> {
+                        if (event.isControlDown()) {
+                            this.perform(Action.SEARCH_HIST);
+                            event.consume();
+                        }
+                    }
                     case TAB -> {
                         this.perform(event.isShiftDown() ? Action.TAB_BACKWARD : Action.TAB_FORWARD);
                         event.consume();
                     }
+                    case ESCAPE -> {
+                        this.perform(Action.CANCEL);
+                        event.consume();
+                    }
                 }
             });
             
@@ -134,6 +145,7 @@ public class JavaFxFrontend extends GraphicalFrontend {
             this.out.widthProperty().addListener((obs, ov, nv) -> this.scrollPane.setVvalue(this.scrollPane.getVmax()));
             
             this.grabInputFocus();
+            this.uiReady();
             
             if (end != null) {
                 stage.setOnHidden(end);
@@ -150,6 +162,11 @@ public class JavaFxFrontend extends GraphicalFrontend {
         super.exit();
     }
 
+    @Override
+    protected void runOnUiThread(Runnable action) {
+        Platform.runLater(action);
+    }
+
     @Override
     protected boolean supportsHighlighting() {
         return false;
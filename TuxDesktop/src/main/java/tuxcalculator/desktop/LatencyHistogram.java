@@ -0,0 +1,45 @@
+package tuxcalculator.desktop;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Request latencies of the server in nanoseconds. Each power of two is split into four buckets, so percentiles
+// are accurate to within 25%. Recording is lock-free, reading the percentiles sums up the buckets.
+public final class LatencyHistogram {
+
+    private final LongAdder[] buckets = new LongAdder[248];
+
+    public LatencyHistogram() {
+        for (int i = 0; i < this.buckets.length; i++) this.buckets[i] = new LongAdder();
+    }
+
+    public void record(long nanos) {
+        this.buckets[bucket(Math.max(nanos, 0))].increment();
+    }
+
+    // The lower bound of the bucket that contains the given percentile.
+    public long percentile(double p) {
+        long[] counts = new long[this.buckets.length];
+        long total = 0;
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = this.buckets[i].sum();
+            total += counts[i];
+        }
+        long rank = Math.max((long) Math.ceil(total * p), 1);
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) return lowerBound(i);
+        }
+        return 0;
+    }
+
+    private static int bucket(long value) {
+        if (value < 4) return (int) value;
+        int exp = 63 - Long.numberOfLeadingZeros(value);
+        return 4 * (exp - 1) + (int) ((value >>> (exp - 2)) & 3);
+    }
+
+    private static long lowerBound(int bucket) {
+        return bucket < 4 ? bucket : (4L + (bucket & 3)) << (bucket / 4 - 1);
+    }
+}
@@ -0,0 +1,100 @@
+package tuxcalculator.desktop;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+// Load generator for --serve. Opens a number of connections that each send requests one after another and reports
+// throughput and latency percentiles. Connections beyond the number of server sessions are rejected by the server.
+//
+// Usage: java -cp <desktop jar> tuxcalculator.desktop.LoadGenerator <address> [connections] [requests] [line]
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        if (args.length < 1) {
+            System.err.println("Usage: LoadGenerator <socket path or port> [connections] [requests per connection] [line]");
+            System.exit(2);
+            return;
+        }
+        String address = args[0];
+        int connections = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int requests = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+        String line = args.length > 3 ? args[3] : "3 + 4 * sqrt(2)";
+        String request = ServerJson.write(Map.of("op", "eval", "line", line));
+
+        long[][] latencies = new long[connections][];
+        LongAdder failed = new LongAdder();
+        List<Thread> threads = new ArrayList<>();
+        long start = System.nanoTime();
+        for (int i = 0; i < connections; i++) {
+            int connection = i;
+            threads.add(Thread.ofVirtual().start(() -> {
+                try {
+                    latencies[connection] = run(address, request, requests, failed);
+                } catch (IOException e) {
+                    System.err.println("Connection " + connection + " failed: " + e.getMessage());
+                    latencies[connection] = new long[0];
+                }
+            }));
+        }
+        for (Thread thread : threads) thread.join();
+        long time = System.nanoTime() - start;
+
+        long[] all = Arrays.stream(latencies).flatMapToLong(Arrays::stream).sorted().toArray();
+        System.out.println("Requests:   " + all.length + " (" + failed.sum() + " failed)");
+        System.out.printf("Throughput: %.1f requests/s%n", all.length / (time / 1e9));
+        if (all.length != 0) {
+            System.out.printf("Latency:    p50 %.3f ms, p99 %.3f ms, max %.3f ms%n", percentile(all, 0.5) / 1e6, percentile(all, 0.99) / 1e6, all[all.length - 1] / 1e6);
+        }
+    }
+
+    private static long[] run(String address, String request, int requests, LongAdder failed) throws IOException {
+        try (SocketChannel channel = connect(address); BufferedReader reader = new BufferedReader(Channels.newReader(channel, StandardCharsets.UTF_8)); Writer writer = Channels.newWriter(channel, StandardCharsets.UTF_8)) {
+            long[] latencies = new long[requests];
+            int done = 0;
+            for (; done < requests; done++) {
+                long start = System.nanoTime();
+                writer.write(request + "\n");
+                writer.flush();
+                String response = reader.readLine();
+                if (response == null) break;
+                latencies[done] = System.nanoTime() - start;
+                if (!Boolean.TRUE.equals(ServerJson.parseObject(response).get("ok"))) failed.increment();
+            }
+            return Arrays.copyOf(latencies, done);
+        }
+    }
+
+    private static SocketChannel connect(String address) throws IOException {
+        SocketAddress socketAddress;
+        SocketChannel channel;
+        if (address.chars().allMatch(Character::isDigit)) {
+            socketAddress = new InetSocketAddress(InetAddress.getLoopbackAddress(), Integer.parseInt(address));
+            channel = SocketChannel.open(StandardProtocolFamily.INET);
+        } else {
+            socketAddress = UnixDomainSocketAddress.of(Paths.get(address).toAbsolutePath().normalize());
+            channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+        }
+        channel.connect(socketAddress);
+        return channel;
+    }
+
+    private static long percentile(long[] sorted, double p) {
+        int idx = (int) Math.ceil(sorted.length * p) - 1;
+        return sorted[Math.max(0, Math.min(idx, sorted.length - 1))];
+    }
+}
@@ -7,33 +7,43 @@ import joptsimple.OptionSpec;
 import joptsimple.util.PathConverter;
 import tuxcalculator.api.TuxCalculator;
 import tuxcalculator.api.TuxCalculatorAPI;
+import tuxcalculator.api.TuxFrontend;
 
 import java.io.IOException;
 import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.List;
 import java.util.Objects;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 public class Main {
 
+    public static final Duration PROFILER_INTERVAL = Duration.ofMillis(1);
+
     private static String title = "This is TuxCalculator, Version " + TuxCalculatorAPI.VERSION;
     private static String windowTitle = "TuxCalculator " + TuxCalculatorAPI.VERSION;
     
     public static void main(String[] args) throws IOException {
         Path defaultRcFile = Paths.get(System.getProperty("user.home")).resolve(".init.tuxc").toAbsolutePath().normalize();
         Path defaultHistFile = Paths.get(System.getProperty("user.home")).resolve(".cache/.tuxc_history").toAbsolutePath().normalize();
+        Path rcCacheDir = Paths.get(System.getProperty("user.home")).resolve(".cache/tuxcalculator").toAbsolutePath().normalize();
 
         OptionParser options = new OptionParser(false);
         OptionSpec<Void> specIni = options.accepts("ini", "Run in ini-mode.");
         OptionSpec<String> specFmt = options.accepts("fmt", "Specify format to load.").withRequiredArg().defaultsTo("plain");
         OptionSpec<Void> specNoRc = options.accepts("no-rc", "Don't load the rc-file. Implicitly set by -ini.");
         OptionSpec<Path> specRcFile = options.accepts("rc-file", "The rc-file to load. (default: ~/.init.tuxc)").withRequiredArg().withValuesConvertedBy(new PathConverter());
+        OptionSpec<Void> specNoRcCache = options.accepts("no-rc-cache", "Always evaluate the rc-file instead of loading the snapshot of it cached in ~/.cache/tuxcalculator.");
         OptionSpec<Integer> specHistSize = options.accepts("history-size", "The size of the history to persist. Zero disables saving the persistent history.").withRequiredArg().ofType(Integer.class).defaultsTo(1000);
         OptionSpec<Path> specHistFile = options.accepts("history-file", "The file where the history is persisted. (default: ~/.cache/.tuxc_history)").withRequiredArg().withValuesConvertedBy(new PathConverter());
         OptionSpec<Void> specHelp = options.accepts("help", "Show help.").forHelp();
@@ -41,6 +51,12 @@ public class Main {
         OptionSpec<Void> specLicenses = options.accepts("licenses", "Show open source licenses.").forHelp();
         OptionSpec<Void> specNoGui = options.accepts("nogui", "Equivalent to --gui=text");
         OptionSpec<String> specGui = options.accepts("gui", "The gui type to use. Default ist auto-detect.").withRequiredArg();
+        OptionSpec<String> specServe = options.accepts("serve", "Serve calculator sessions to other processes using line delimited JSON. Listens on the unix domain socket at the given path, or on the given localhost TCP port.").withRequiredArg();
+        OptionSpec<Integer> specSessions = options.accepts("sessions", "The number of preloaded sessions for --serve. This limits the number of concurrent connections.").withRequiredArg().ofType(Integer.class).defaultsTo(Runtime.getRuntime().availableProcessors());
+        OptionSpec<Integer> specRequestTimeout = options.accepts("request-timeout", "The default deadline for a request in --serve mode in milliseconds.").withRequiredArg().ofType(Integer.class).defaultsTo(10000);
+        OptionSpec<Integer> specIdleTimeout = options.accepts("idle-timeout", "Connections in --serve mode that send no request for this many seconds are closed and their session is released.").withRequiredArg().ofType(Integer.class).defaultsTo(300);
+        OptionSpec<Void> specStartupTime = options.accepts("startup-time", "Print when each phase of the startup has finished.");
+        OptionSpec<Path> specProfile = options.accepts("profile", "Sample the calculator call stack and write it to the given file on exit. The output can be used to make flame graphs.").withRequiredArg().withValuesConvertedBy(new PathConverter());
 
         OptionSet set;
         try {
@@ -51,6 +67,7 @@ public class Main {
             System.exit(2);
             throw e;
         }
+        if (set.has(specStartupTime)) StartupTimer.enable();
 
         if (set.has(specIni)) {
             title = "This is TuxCalculator, Version " + TuxCalculatorAPI.VERSION + " (INI)";
@@ -78,6 +95,46 @@ public class Main {
             return;
         }
         
+        Function<TuxFrontend, TuxCalculator.Builder> builderFactory = theFrontend -> {
+            TuxCalculator.Builder builder;
+            if (Objects.equals("plain", set.valueOf(specFmt))) {
+                builder = TuxCalculatorAPI.get().createPlain(theFrontend);
+            } else {
+                builder = TuxCalculatorAPI.get().createBy(theFrontend, Paths.get(set.valueOf(specFmt) + ".tuxf"));
+            }
+            
+            if (!set.has(specNoRc)) {
+                Path rcFile = null;
+                if (set.has(specRcFile)) {
+                  rcFile = set.valueOf(specRcFile).toAbsolutePath().normalize();
+                } else if (Files.isRegularFile(defaultRcFile)) {
+                  rcFile = defaultRcFile;
+                }
+                if (rcFile != null && set.has(specNoRcCache)) {
+                    builder.load(rcFile);
+                } else if (rcFile != null) {
+                    builder.loadCached(rcFile, rcCacheDir);
+                }
+            }
+            return builder;
+        };
+        
+        if (set.has(specServe)) {
+            if (set.has(specIni)) {
+                System.err.println("--serve can't be used in ini-mode.");
+                System.exit(2);
+                return;
+            }
+            CalculatorServer server = new CalculatorServer(theFrontend -> build(builderFactory.apply(theFrontend)), Math.max(set.valueOf(specSessions), 1), Duration.ofMillis(set.valueOf(specRequestTimeout)), Duration.ofSeconds(Math.max(set.valueOf(specIdleTimeout), 1)));
+            try {
+                server.serve(set.valueOf(specServe));
+            } catch (IllegalStateException e) {
+                System.err.println(e.getMessage());
+                System.exit(1);
+            }
+            return;
+        }
+        
         DesktopFrontend frontend;
         if (set.has(specNoGui)) {
             frontend = DesktopFrontend.get("text");
@@ -89,41 +146,22 @@ public class Main {
             frontend = DesktopFrontend.auto();
         }
         
-        frontend.init();
-        
-        TuxCalculator calc;
-        CalculatorHistory history;
+        // The format, the rc-file and the history are loaded while the frontend initialises. The frontend gets
+        // them as futures, so it can show its window before they are ready.
+        CompletableFuture<TuxCalculator> calc;
+        CompletableFuture<CalculatorHistory> history;
         if (set.has(specIni)) {
-            calc = TuxCalculatorAPI.get().createINI(frontend);
-            history = new CalculatorHistory();
+            calc = CompletableFuture.completedFuture(TuxCalculatorAPI.get().createINI(frontend));
+            history = CompletableFuture.completedFuture(new CalculatorHistory());
         } else {
-            TuxCalculator.Builder builder;
-            if (Objects.equals("plain", set.valueOf(specFmt))) {
-                builder = TuxCalculatorAPI.get().createPlain(frontend);
-            } else {
-                builder = TuxCalculatorAPI.get().createBy(frontend, Paths.get(set.valueOf(specFmt) + ".tuxf"));
-            }
-            
-            if (!set.has(specNoRc)) {
-                if (set.has(specRcFile)) {
-                  builder.load(set.valueOf(specRcFile).toAbsolutePath().normalize());
-                } else if (Files.isRegularFile(defaultRcFile)) {
-                  builder.load(defaultRcFile);
-                }
-            }
-            
-            List<TuxCalculator.Error> errors = builder.checkError();
-            if (errors != null) {
-                frontend.showError("There were errors initialising:\n" + errors.stream()
-                        .map(err -> "  " + err.message())
-                        .collect(Collectors.joining("\n"))
-                );
-                System.exit(1);
-                return;
-            }
-            calc = builder.build();
-            history = new CalculatorHistory(set.has(specHistFile) ? set.valueOf(specHistFile) : defaultHistFile, set.valueOf(specHistSize));
+            Executor background = task -> Thread.ofVirtual().name("TuxCalculator Startup").start(task);
+            calc = CompletableFuture.supplyAsync(() -> build(builderFactory.apply(frontend)), background);
+            history = CompletableFuture.supplyAsync(() -> new CalculatorHistory(set.has(specHistFile) ? set.valueOf(specHistFile) : defaultHistFile, set.valueOf(specHistSize)), background);
         }
+        calc.thenRun(() -> StartupTimer.phase("calculator"));
+        
+        frontend.init();
+        StartupTimer.phase("frontend");
         
         Consumer<Callable<Void>> executor = action -> {
             try {
@@ -137,7 +175,25 @@ public class Main {
                 System.exit(1);
             }
         };
-        Runtime.getRuntime().addShutdownHook(new Thread(history::save));
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            CalculatorHistory loadedHistory = history.exceptionally(ex -> null).getNow(null);
+            if (loadedHistory != null) loadedHistory.save();
+        }));
+        if (set.has(specProfile)) {
+            Path profileFile = set.valueOf(specProfile).toAbsolutePath().normalize();
+            calc.thenAccept(loadedCalc -> loadedCalc.startProfiler(PROFILER_INTERVAL));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                TuxCalculator loadedCalc = calc.exceptionally(ex -> null).getNow(null);
+                String samples = loadedCalc == null ? null : loadedCalc.stopProfiler();
+                if (samples != null) {
+                    try {
+                        writeProfile(profileFile, samples);
+                    } catch (IOException e) {
+                        System.err.println("Failed to write profiler output: " + e.getMessage());
+                    }
+                }
+            }));
+        }
         executor.accept(() -> {
             frontend.run(calc, history, executor);
             return null;
@@ -146,6 +202,21 @@ public class Main {
         System.exit(0);
     }
 
+    // Throws an IllegalStateException describing the errors if the calculator failed to load.
+    private static TuxCalculator build(TuxCalculator.Builder builder) {
+        List<TuxCalculator.Error> errors = builder.checkError();
+        if (errors != null) throw new IllegalStateException("There were errors initialising:\n" + errors.stream()
+                .map(err -> "  " + err.message())
+                .collect(Collectors.joining("\n"))
+        );
+        return builder.build();
+    }
+
+    public static void writeProfile(Path path, String samples) throws IOException {
+        if (path.getParent() != null) Files.createDirectories(path.getParent());
+        Files.writeString(path, samples, StandardCharsets.UTF_8);
+    }
+
     public static String title() {
         return Objects.requireNonNull(title);
     }
@@ -0,0 +1,163 @@
+package tuxcalculator.desktop;
+
+import org.apache.commons.text.StringEscapeUtils;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Just enough JSON for the server protocol: Requests are flat objects of strings, numbers, booleans and null.
+// Responses may additionally contain lists and objects of such values.
+public final class ServerJson {
+
+    private final String text;
+    private int pos;
+
+    private ServerJson(String text) {
+        this.text = text;
+        this.pos = 0;
+    }
+
+    public static Map<String, Object> parseObject(String text) {
+        ServerJson json = new ServerJson(text);
+        json.skipSpace();
+        json.expect('{');
+        Map<String, Object> object = new LinkedHashMap<>();
+        json.skipSpace();
+        if (json.peek() == '}') {
+            json.pos += 1;
+        } else {
+            while (true) {
+                json.skipSpace();
+                String key = json.readString();
+                json.skipSpace();
+                json.expect(':');
+                json.skipSpace();
+                object.put(key, json.readValue());
+                json.skipSpace();
+                if (json.peek() == ',') {
+                    json.pos += 1;
+                } else {
+                    json.expect('}');
+                    break;
+                }
+            }
+        }
+        json.skipSpace();
+        if (json.pos != text.length()) throw json.error("Trailing characters");
+        return object;
+    }
+
+    public static String write(Map<String, ?> object) {
+        StringBuilder sb = new StringBuilder();
+        writeValue(sb, object);
+        return sb.toString();
+    }
+
+    private static void writeValue(StringBuilder sb, Object value) {
+        if (value == null) {
+            sb.append("null");
+        } else if (value instanceof String str) {
+            sb.append('"').append(StringEscapeUtils.escapeJson(str)).append('"');
+        } else if (value instanceof Number || value instanceof Boolean) {
+            sb.append(value);
+        } else if (value instanceof List<?> list) {
+            sb.append('[');
+            for (int i = 0; i < list.size(); i++) {
+                if (i != 0) sb.append(',');
+                writeValue(sb, list.get(i));
+            }
+            sb.append(']');
+        } else if (value instanceof Map<?, ?> map) {
+            sb.append('{');
+            boolean first = true;
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                if (!first) sb.append(',');
+                first = false;
+                writeValue(sb, entry.getKey().toString());
+                sb.append(':');
+                writeValue(sb, entry.getValue());
+            }
+            sb.append('}');
+        } else {
+            throw new IllegalArgumentException("Can't write " + value.getClass().getSimpleName() + " as JSON");
+        }
+    }
+
+    private Object readValue() {
+        char chr = this.peek();
+        if (chr == '"') return this.readString();
+        if (this.text.startsWith("true", this.pos)) { this.pos += 4; return true; }
+        if (this.text.startsWith("false", this.pos)) { this.pos += 5; return false; }
+        if (this.text.startsWith("null", this.pos)) { this.pos += 4; return null; }
+        if (chr == '-' || (chr >= '0' && chr <= '9')) return this.readNumber();
+        throw this.error("Unsupported value");
+    }
+
+    private Number readNumber() {
+        int start = this.pos;
+        while (this.pos < this.text.length() && "+-.eE0123456789".indexOf(this.text.charAt(this.pos)) >= 0) this.pos += 1;
+        String number = this.text.substring(start, this.pos);
+        try {
+            if (number.contains(".") || number.contains("e") || number.contains("E")) {
+                return Double.parseDouble(number);
+            } else {
+                return Long.parseLong(number);
+            }
+        } catch (NumberFormatException e) {
+            throw this.error("Invalid number");
+        }
+    }
+
+    private String readString() {
+        this.expect('"');
+        StringBuilder sb = new StringBuilder();
+        while (true) {
+            if (this.pos >= this.text.length()) throw this.error("Unterminated string");
+            char chr = this.text.charAt(this.pos++);
+            if (chr == '"') return sb.toString();
+            if (chr != '\\') {
+                sb.append(chr);
+                continue;
+            }
+            if (this.pos >= this.text.length()) throw this.error("Unterminated string");
+            char escaped = this.text.charAt(this.pos++);
+            switch (escaped) {
+                case '"', '\\', '/' -> sb.append(escaped);
+                case 'b' -> sb.append('\b');
+                case 'f' -> sb.append('\f');
+                case 'n' -> sb.append('\n');
+                case 'r' -> sb.append('\r');
+                case 't' -> sb.append('\t');
+                case 'u' -> {
+                    if (this.pos + 4 > this.text.length()) throw this.error("Invalid unicode escape");
+                    try {
+                        sb.append((char) Integer.parseInt(this.text.substring(this.pos, this.pos + 4), 16));
+                    } catch (NumberFormatException e) {
+                        throw this.error("Invalid unicode escape");
+                    }
+                    this.pos += 4;
+                }
+                default -> throw this.error("Invalid escape");
+            }
+        }
+    }
+
+    private char peek() {
+        if (this.pos >= this.text.length()) throw this.error("Unexpected end of input");
+        return this.text.charAt(this.pos);
+    }
+
+    private void expect(char chr) {
+        if (this.peek() != chr) throw this.error("Expected '" + chr + "'");
+        this.pos += 1;
+    }
+
+    private void skipSpace() {
+        while (this.pos < this.text.length() && Character.isWhitespace(this.text.charAt(this.pos))) this.pos += 1;
+    }
+
+    private IllegalArgumentException error(String msg) {
+        return new IllegalArgumentException(msg + " at position " + this.pos);
+    }
+}
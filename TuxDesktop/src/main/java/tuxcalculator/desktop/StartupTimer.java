@@ -0,0 +1,24 @@
+package tuxcalculator.desktop;
+
+import java.time.Duration;
+import java.time.Instant;
+
+// Reports when the startup phases finish with --startup-time, measured from the process start. Running this
+// repeatedly with each --gui measures the startup time of the frontends.
+public final class StartupTimer {
+
+    private static volatile boolean enabled = false;
+
+    private StartupTimer() {}
+
+    public static void enable() {
+        enabled = true;
+    }
+
+    public static void phase(String name) {
+        if (!enabled) return;
+        Instant now = Instant.now();
+        Instant start = ProcessHandle.current().info().startInstant().orElse(now);
+        System.err.println("Startup: " + name + " after " + Duration.between(start, now).toMillis() + " ms");
+    }
+}
@@ -12,6 +12,7 @@ import java.awt.event.KeyEvent;
 import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Consumer;
 
 public class SwingFrontend extends GraphicalFrontend {
@@ -28,7 +29,7 @@ public class SwingFrontend extends GraphicalFrontend {
     }
 
     @Override
-    public void run(TuxCalculator calc, CalculatorHistory history, Consumer<Callable<Void>> executor) throws IOException {
+    public void run(CompletableFuture<TuxCalculator> calc, CompletableFuture<CalculatorHistory> history, Consumer<Callable<Void>> executor) throws IOException {
         super.run(calc, history, executor);
         
         this.font = selectFont();
@@ -105,9 +106,15 @@ public class SwingFrontend extends GraphicalFrontend {
                 } else if (e.getKeyCode() == KeyEvent.VK_DOWN || e.getKeyCode() == KeyEvent.VK_KP_DOWN) {
                     SwingFrontend.this.perform(Action.DECR_HIST);
                     e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_R && (e.getModifiersEx() & InputEvent.CTRL_DOWN_MASK) != 0) {
+                    SwingFrontend.this.perform(Action.SEARCH_HIST);
+                    e.consume();
                 } else if (e.getKeyCode() == KeyEvent.VK_TAB) {
                     SwingFrontend.this.perform(e.isShiftDown() ? Action.TAB_BACKWARD : Action.TAB_FORWARD);
                     e.consume();
+                } else if (e.getKeyCode() == KeyEvent.VK_ESCAPE) {
+                    SwingFrontend.this.perform(Action.CANCEL);
+                    e.consume();
                 } else {
                     super.keyPressed(e);
                 }
@@ -127,6 +134,7 @@ public class SwingFrontend extends GraphicalFrontend {
         frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
         frame.setVisible(true);
         this.grabInputFocus();
+        this.uiReady();
     
         Object obj = new Object();
         //noinspection SynchronizationOnLocalVariableOrMethodParameter
@@ -139,6 +147,11 @@ public class SwingFrontend extends GraphicalFrontend {
         }
     }
 
+    @Override
+    protected void runOnUiThread(Runnable action) {
+        SwingUtilities.invokeLater(action);
+    }
+
     @Override
     protected boolean supportsHighlighting() {
         return false;
@@ -12,15 +12,21 @@ import org.jline.utils.InfoCmp;
 import org.jline.widget.AutosuggestionWidgets;
 import tuxcalculator.api.TuxCalculator;
 
-import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.logging.Level;
@@ -31,13 +37,15 @@ import java.util.stream.IntStream;
 
 public final class TextFrontEnd extends DesktopFrontend {
 
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
     @Override
     public void showError(String err) {
         System.err.println(err);
     }
 
     @Override
-    public void run(TuxCalculator calc, CalculatorHistory history, Consumer<Callable<Void>> executor) throws IOException {
+    public void run(CompletableFuture<TuxCalculator> calc, CompletableFuture<CalculatorHistory> history, Consumer<Callable<Void>> executor) throws IOException {
         if (System.console() != null) {
             runJLine(calc, history);
         } else {
@@ -45,18 +53,26 @@ public final class TextFrontEnd extends DesktopFrontend {
         }
     }
     
-    private void runText(TuxCalculator calc) throws IOException {
-        System.out.println(Main.title());
-        BufferedReader reader = new BufferedReader(new InputStreamReader(System.in));
-        while (true) {
-            String line = reader.readLine();
-            if (line == null) return;
-            TuxCalculator.Result result = calc.parse(line);
-            if (!(result instanceof TuxCalculator.Void)) System.out.println(result);
+    private <T> T await(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            this.startupFailed(e);
+            throw e;
         }
     }
     
-    private void runJLine(TuxCalculator calc, CalculatorHistory history) throws IOException {
+    // Used when input is piped, so output is buffered. The profiler is available through --profile here.
+    private void runText(CompletableFuture<TuxCalculator> loadingCalc) throws IOException {
+        System.out.println(Main.title());
+        Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, System.out.charset()), OUTPUT_BUFFER_SIZE);
+        TuxCalculator calc = this.await(loadingCalc);
+        StartupTimer.phase("input");
+        calc.evaluateStream(new InputStreamReader(System.in), writer);
+    }
+    
+    // The terminal is set up while the calculator is still loading.
+    private void runJLine(CompletableFuture<TuxCalculator> loadingCalc, CompletableFuture<CalculatorHistory> loadingHistory) throws IOException {
         Logger.getLogger("org.jline").setLevel(Level.SEVERE);
         TerminalBuilder builder = TerminalBuilder.builder();
         builder.name("TuxCalculator");
@@ -68,6 +84,10 @@ public final class TextFrontEnd extends DesktopFrontend {
         try (Terminal terminal = builder.build()) {
             boolean isXTerm = terminal.getType() != null && terminal.getType().toLowerCase(Locale.ROOT).startsWith("xterm");
             terminal.echo(false);
+            terminal.writer().println(Main.title());
+            terminal.writer().flush();
+            TuxCalculator calc = this.await(loadingCalc);
+            CalculatorHistory history = this.await(loadingHistory);
             CalculatorHighlighter highlighter = new CalculatorHighlighter(calc);
             CalculatorCompleter completer = new CalculatorCompleter(calc);
             LineReader reader = LineReaderBuilder.builder()
@@ -104,9 +124,8 @@ public final class TextFrontEnd extends DesktopFrontend {
             });
             reader.getKeyMaps().get(LineReader.MAIN).bind(new Reference("tuxc-show-trace"), KeyMap.ctrl('t'));
             new AutosuggestionWidgets(reader).enable();
+            StartupTimer.phase("input");
 
-            terminal.writer().println(Main.title());
-            terminal.writer().flush();
             String lastInput = "";
             //noinspection InfiniteLoopStatement
             while (true) {
@@ -125,6 +144,11 @@ public final class TextFrontEnd extends DesktopFrontend {
                 reader.printAbove(highlighter.highlight(reader, line));
                 terminal.writer().flush();
                 
+                if (runFrontendCommand(calc, line, msg -> {
+                    terminal.writer().println(ansiString(msg, AttributedStyle.BRIGHT + AttributedStyle.YELLOW));
+                    terminal.flush();
+                })) continue;
+                
                 TuxCalculator.Result result = calc.parse(line);
                 if (result instanceof TuxCalculator.Error err) {
                     terminal.writer().println(ansiString(result.toString(), AttributedStyle.BRIGHT + AttributedStyle.RED));
@@ -141,6 +165,37 @@ public final class TextFrontEnd extends DesktopFrontend {
         }
     }
     
+    // Commands of the interactive text frontend itself, these can't be valid calculator input as that never starts
+    // with a colon.
+    //   :profile start         Starts the profiler.
+    //   :profile stop [file]   Stops the profiler and writes the samples to the file, or prints them.
+    private static boolean runFrontendCommand(TuxCalculator calc, String line, Consumer<String> output) {
+        String[] parts = line.strip().split("\\s+", 3);
+        if (!parts[0].equals(":profile")) return false;
+        if (parts.length == 2 && parts[1].equals("start")) {
+            calc.startProfiler(Main.PROFILER_INTERVAL);
+            output.accept("Profiler started.");
+        } else if (parts.length >= 2 && parts[1].equals("stop")) {
+            String samples = calc.stopProfiler();
+            if (samples == null) {
+                output.accept("Profiler is not running.");
+            } else if (parts.length == 3) {
+                Path path = Paths.get(parts[2]).toAbsolutePath().normalize();
+                try {
+                    Main.writeProfile(path, samples);
+                    output.accept("Profiler output written to " + path);
+                } catch (IOException e) {
+                    output.accept("Failed to write profiler output: " + e.getMessage());
+                }
+            } else {
+                output.accept(samples.strip());
+            }
+        } else {
+            output.accept("Usage: :profile start | :profile stop [file]");
+        }
+        return true;
+    }
+    
     private static String ansiString(String text, int color) {
         AttributedStringBuilder sb = new AttributedStringBuilder();
         sb.style(AttributedStyle.DEFAULT.foreground(color));
@@ -154,7 +209,8 @@ public final class TextFrontEnd extends DesktopFrontend {
         private final CalculatorHistory history;
         
         public HistoryWrapper(CalculatorHistory history) {
-            for (int i = history.length() - 1; i >= 0; i--) {
+            // JLine only keeps the most recent entries in memory, don't decode the whole history for it.
+            for (int i = Math.min(history.length(), DefaultHistory.DEFAULT_HISTORY_SIZE) - 1; i >= 0; i--) {
                 this.add(history.get(i));
             }
             this.history = history;